@@ -8,6 +8,11 @@ import java.util.concurrent.CountDownLatch;
 
 import timber.log.Timber;
 
+/**
+ * A thread with a Looper that runs posted runnables in order. Use it for work that needs a Looper,
+ * like the callbacks of a MediaPlayer. Other background work belongs on a
+ * {@link com.ninovanhooff.phonograph.task.TaskExecutor}, which has priorities and cancellation.
+ */
 public class BackgroundQueue extends Thread {
 
 	private volatile Handler handler = null;
@@ -3,7 +3,7 @@ package com.ninovanhooff.phonograph;
 import android.content.Context;
 
 import com.dimowner.phonograph.R;
-import com.ninovanhooff.phonograph.audio.player.AudioPlayer;
+import com.ninovanhooff.phonograph.audio.player.DelegatingPlayer;
 import com.ninovanhooff.phonograph.audio.player.PlayerContract;
 import com.ninovanhooff.phonograph.data.FileRepository;
 import com.ninovanhooff.phonograph.data.FileRepositoryImpl;
@@ -47,7 +47,7 @@ class PhonographInjector {
     }
 
     public PlayerContract.Player provideAudioPlayer() {
-        return AudioPlayer.getInstance();
+        return DelegatingPlayer.getInstance();
     }
 
 
@@ -17,6 +17,9 @@ import android.widget.RemoteViews;
 import com.dimowner.phonograph.R;
 import com.ninovanhooff.phonograph.audio.player.PlayerContract;
 import com.ninovanhooff.phonograph.exception.AppException;
+import com.ninovanhooff.phonograph.util.FileUtil;
+
+import java.io.File;
 
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
@@ -126,6 +129,11 @@ public class PlaybackService extends Service {
 				public void onPausePlay() {
 					onPausePlayback();
 				}
+
+				@Override
+				public void onNextData(String data) {
+					onNextRecord(FileUtil.removeFileExtension(new File(data).getName()));
+				}
 			};
 		}
 
@@ -226,6 +234,14 @@ public class PlaybackService extends Service {
 		}
 	}
 
+	public void onNextRecord(String name) {
+		recordName = name;
+		if (remoteViewsSmall != null) {
+			remoteViewsSmall.setTextViewText(R.id.txt_name, recordName);
+			notificationManager.notify(NOTIF_ID, notification);
+		}
+	}
+
 	public static class StopPlaybackReceiver extends BroadcastReceiver {
 
 		@Override
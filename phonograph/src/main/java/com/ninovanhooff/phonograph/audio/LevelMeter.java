@@ -0,0 +1,293 @@
+package com.ninovanhooff.phonograph.audio;
+
+import com.ninovanhooff.phonograph.audio.recorder.RecorderContract;
+
+/**
+ * Level meter model with standard meter ballistics, peak hold and clip hold.
+ *
+ * PCM is pushed in at audio rate by the capture thread through {@link #onCapture(byte[], int, long)}
+ * and the levels are sampled at frame rate by a view through {@link #getLevelDb(int, long)}.
+ * All time is passed in explicitly: the ballistics advance by the duration of the processed
+ * samples, and reads extrapolate the decay from the last update to the requested time.
+ * The output is therefore a pure function of the input, which keeps the meter testable
+ * without a clock. No allocations are made after construction.
+ */
+public class LevelMeter implements RecorderContract.CaptureTap {
+
+	/** Quasi-peak programme meter (IEC 60268-10 type II): 10 ms integration, falls 24 dB in 2.8 s. */
+	public static final int BALLISTICS_PPM = 0;
+	/** Volume unit meter: RMS with a symmetric 300 ms rise and fall time. */
+	public static final int BALLISTICS_VU = 1;
+
+	/** Level reported for silence. */
+	public static final float DB_FLOOR = -96f;
+	/** Sample magnitude at or above which a sample is considered to clip, in dBFS */
+	public static final float DEFAULT_CLIP_DB = -0.1f;
+	public static final long DEFAULT_PEAK_HOLD_MILLIS = 1500L;
+	public static final long DEFAULT_CLIP_HOLD_MILLIS = 3000L;
+
+	public static final int MAX_CHANNELS = 8;
+
+	private static final float PPM_ATTACK_SECONDS = 0.010f;
+	private static final float PPM_FALL_DB_PER_SECOND = 24f / 2.8f;
+	/** Time constant of a first order filter that reaches 99% of a step in 300 ms */
+	private static final float VU_TIME_CONSTANT_SECONDS = 0.300f / 4.605f;
+	/** Reads a full scale sine wave as 0 dB, AES17 style */
+	private static final float RMS_SINE_CORRECTION_DB = 3.0103f;
+	private static final float FULL_SCALE = 32768f;
+	private static final long NO_TIME = Long.MIN_VALUE;
+
+	private final int ballistics;
+	private long peakHoldMillis = DEFAULT_PEAK_HOLD_MILLIS;
+	private long clipHoldMillis = DEFAULT_CLIP_HOLD_MILLIS;
+	private int clipSampleThreshold = dbToSample(DEFAULT_CLIP_DB);
+
+	private int sampleRate = 44100;
+	private int channelCount = 1;
+
+	// per-channel state
+	/** PPM: level in dB. VU: mean square power, linear */
+	private final float[] state = new float[MAX_CHANNELS];
+	private final float[] peakDb = new float[MAX_CHANNELS];
+	private final long[] peakMillis = new long[MAX_CHANNELS];
+	private final long[] clipMillis = new long[MAX_CHANNELS];
+	/** Time up to which the ballistics of the channel advanced */
+	private final long[] lastUpdateMillis = new long[MAX_CHANNELS];
+	// per-block scratch, reused for every block
+	private final int[] blockPeak = new int[MAX_CHANNELS];
+	private final double[] blockSquares = new double[MAX_CHANNELS];
+
+	public LevelMeter(int ballistics) {
+		if (ballistics != BALLISTICS_PPM && ballistics != BALLISTICS_VU) {
+			throw new IllegalArgumentException("Unknown ballistics: " + ballistics);
+		}
+		this.ballistics = ballistics;
+		reset();
+	}
+
+	public int getBallistics() {
+		return ballistics;
+	}
+
+	public synchronized void setPeakHoldMillis(long peakHoldMillis) {
+		this.peakHoldMillis = peakHoldMillis;
+	}
+
+	public synchronized void setClipHoldMillis(long clipHoldMillis) {
+		this.clipHoldMillis = clipHoldMillis;
+	}
+
+	/** @param clipDb sample magnitude in dBFS at or above which a sample is considered to clip */
+	public synchronized void setClipLevel(float clipDb) {
+		this.clipSampleThreshold = dbToSample(clipDb);
+	}
+
+	/** Return all channels to silence and forget held peaks and clips */
+	public synchronized void reset() {
+		for (int ch = 0; ch < MAX_CHANNELS; ch++) {
+			state[ch] = ballistics == BALLISTICS_PPM ? DB_FLOOR : 0f;
+			peakDb[ch] = DB_FLOOR;
+			peakMillis[ch] = NO_TIME;
+			clipMillis[ch] = NO_TIME;
+			lastUpdateMillis[ch] = NO_TIME;
+		}
+	}
+
+	@Override
+	public synchronized void onCaptureFormat(int sampleRate, int channelCount) {
+		if (channelCount < 1 || channelCount > MAX_CHANNELS) {
+			throw new IllegalArgumentException("Unsupported channel count: " + channelCount);
+		}
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		reset();
+	}
+
+	/**
+	 * Process interleaved 16 bit little endian PCM.
+	 * @param pcm captured audio in the format announced by {@link #onCaptureFormat(int, int)}
+	 * @param length number of valid bytes in pcm
+	 * @param timeMillis time at which the last sample of this block was captured
+	 */
+	@Override
+	public synchronized void onCapture(byte[] pcm, int length, long timeMillis) {
+		int frameBytes = 2 * channelCount;
+		int frames = length / frameBytes;
+		if (frames == 0) {
+			return;
+		}
+		for (int ch = 0; ch < channelCount; ch++) {
+			blockPeak[ch] = 0;
+			blockSquares[ch] = 0;
+		}
+		int ch = 0;
+		int end = frames * frameBytes;
+		for (int i = 0; i < end; i += 2) {
+			int sample = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+			int magnitude = sample < 0 ? -sample : sample;
+			if (magnitude > blockPeak[ch]) {
+				blockPeak[ch] = magnitude;
+			}
+			blockSquares[ch] += (double) sample * sample;
+			if (++ch == channelCount) {
+				ch = 0;
+			}
+		}
+		float seconds = (float) frames / sampleRate;
+		for (ch = 0; ch < channelCount; ch++) {
+			if (ballistics == BALLISTICS_PPM) {
+				applyPpm(ch, sampleToDb(blockPeak[ch]), seconds);
+			} else {
+				applyVu(ch, (float) (blockSquares[ch] / frames) / (FULL_SCALE * FULL_SCALE), seconds);
+			}
+			if (blockPeak[ch] >= clipSampleThreshold) {
+				clipMillis[ch] = timeMillis;
+			}
+			lastUpdateMillis[ch] = timeMillis;
+			updatePeak(ch, timeMillis);
+		}
+	}
+
+	/**
+	 * Process a block for which only the maximum amplitude is known, as reported by
+	 * {@link RecorderContract.RecorderCallback#onProgress(long, int, boolean)}.
+	 * The block is assumed to cover the time since the previous update of the channel. The first
+	 * block of a channel has no such time, the meter is set to its level.
+	 * @param amplitude maximum absolute sample value of the block, 0..32767
+	 */
+	public synchronized void onAmplitude(int channel, int amplitude, long timeMillis) {
+		onPeakDb(channel, sampleToDb(Math.abs(amplitude)), timeMillis);
+	}
+
+	/** Like {@link #onAmplitude(int, int, long)}, but with the block peak expressed in dBFS. */
+	public synchronized void onPeakDb(int channel, float db, long timeMillis) {
+		if (channel < 0 || channel >= MAX_CHANNELS) {
+			return;
+		}
+		if (channel >= channelCount) {
+			channelCount = channel + 1;
+		}
+		db = Math.max(DB_FLOOR, Math.min(0f, db));
+		// a sine peaking at db has a mean square power 3 dB lower
+		float power = dbToPower(db - RMS_SINE_CORRECTION_DB);
+		if (lastUpdateMillis[channel] == NO_TIME) {
+			state[channel] = ballistics == BALLISTICS_PPM ? db : power;
+		} else {
+			float seconds = Math.max(0, timeMillis - lastUpdateMillis[channel]) / 1000f;
+			if (ballistics == BALLISTICS_PPM) {
+				applyPpm(channel, db, seconds);
+			} else {
+				applyVu(channel, power, seconds);
+			}
+		}
+		if (db >= sampleToDb(clipSampleThreshold)) {
+			clipMillis[channel] = timeMillis;
+		}
+		lastUpdateMillis[channel] = timeMillis;
+		updatePeak(channel, timeMillis);
+	}
+
+	public synchronized int getChannelCount() {
+		return channelCount;
+	}
+
+	/** Time of the most recent update of any channel, or {@link Long#MIN_VALUE} when nothing was processed yet */
+	public synchronized long getLastUpdateMillis() {
+		long last = NO_TIME;
+		for (int ch = 0; ch < channelCount; ch++) {
+			last = Math.max(last, lastUpdateMillis[ch]);
+		}
+		return last;
+	}
+
+	/** Meter reading at nowMillis, including the decay since the last processed block */
+	public synchronized float getLevelDb(int channel, long nowMillis) {
+		return levelAt(channel, nowMillis);
+	}
+
+	/** Held peak reading at nowMillis. Never lower than the current level. */
+	public synchronized float getPeakDb(int channel, long nowMillis) {
+		float level = levelAt(channel, nowMillis);
+		if (peakMillis[channel] == NO_TIME) {
+			return level;
+		}
+		long releaseMillis = peakMillis[channel] + peakHoldMillis;
+		float peak = peakDb[channel];
+		if (nowMillis > releaseMillis) {
+			peak -= PPM_FALL_DB_PER_SECOND * (nowMillis - releaseMillis) / 1000f;
+		}
+		return Math.max(level, peak);
+	}
+
+	public synchronized boolean isClipping(int channel, long nowMillis) {
+		return clipMillis[channel] != NO_TIME && nowMillis - clipMillis[channel] < clipHoldMillis;
+	}
+
+	/** Whether any channel shows something other than silence at nowMillis */
+	public synchronized boolean isActive(long nowMillis) {
+		for (int ch = 0; ch < channelCount; ch++) {
+			if (getPeakDb(ch, nowMillis) > DB_FLOOR || isClipping(ch, nowMillis)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void applyPpm(int ch, float blockDb, float seconds) {
+		float level = state[ch];
+		if (blockDb > level) {
+			level += (blockDb - level) * (1f - (float) Math.exp(-seconds / PPM_ATTACK_SECONDS));
+		} else {
+			level = Math.max(blockDb, level - PPM_FALL_DB_PER_SECOND * seconds);
+		}
+		state[ch] = Math.max(DB_FLOOR, level);
+	}
+
+	private void applyVu(int ch, float blockPower, float seconds) {
+		state[ch] += (blockPower - state[ch]) * (1f - (float) Math.exp(-seconds / VU_TIME_CONSTANT_SECONDS));
+	}
+
+	private void updatePeak(int ch, long timeMillis) {
+		float level = levelAt(ch, timeMillis);
+		if (peakMillis[ch] == NO_TIME || level >= getPeakDb(ch, timeMillis)) {
+			peakDb[ch] = level;
+			peakMillis[ch] = timeMillis;
+		}
+	}
+
+	private float levelAt(int ch, long nowMillis) {
+		long last = lastUpdateMillis[ch];
+		float seconds = last == NO_TIME ? 0f : Math.max(0, nowMillis - last) / 1000f;
+		if (ballistics == BALLISTICS_PPM) {
+			return Math.max(DB_FLOOR, state[ch] - PPM_FALL_DB_PER_SECOND * seconds);
+		} else {
+			float power = state[ch] * (float) Math.exp(-seconds / VU_TIME_CONSTANT_SECONDS);
+			return Math.min(0f, powerToDb(power) + RMS_SINE_CORRECTION_DB);
+		}
+	}
+
+	private static float sampleToDb(int magnitude) {
+		if (magnitude <= 0) {
+			return DB_FLOOR;
+		}
+		return Math.max(DB_FLOOR, (float) (20 * Math.log10(magnitude / FULL_SCALE)));
+	}
+
+	private static int dbToSample(float db) {
+		return (int) Math.min(FULL_SCALE - 1, Math.round(FULL_SCALE * Math.pow(10, db / 20)));
+	}
+
+	private static float powerToDb(float power) {
+		if (power <= 0) {
+			return DB_FLOOR;
+		}
+		return Math.max(DB_FLOOR, (float) (10 * Math.log10(power)));
+	}
+
+	private static float dbToPower(float db) {
+		if (db <= DB_FLOOR) {
+			return 0f;
+		}
+		return (float) Math.pow(10, db / 10);
+	}
+}
@@ -0,0 +1,159 @@
+package com.ninovanhooff.phonograph.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A box (atom) of an ISO base media file, as read from or written to memory.
+ *
+ * Boxes that only hold other boxes are parsed into children, all others keep their payload as
+ * bytes. This is meant for the metadata in moov, not for mdat: sample data is never loaded.
+ */
+class Mp4Box {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	/** Box types whose payload is a list of boxes */
+	private static final List<String> CONTAINERS = Arrays.asList("moov", "trak", "mdia", "minf", "stbl", "edts", "dinf");
+
+	final String type;
+	/** Payload of a leaf box, null for containers */
+	final byte[] payload;
+	/** Children of a container box, null for leaves */
+	final List<Mp4Box> children;
+
+	private Mp4Box(String type, byte[] payload, List<Mp4Box> children) {
+		this.type = type;
+		this.payload = payload;
+		this.children = children;
+	}
+
+	static Mp4Box leaf(String type, byte[] payload) {
+		return new Mp4Box(type, payload, null);
+	}
+
+	static Mp4Box container(String type) {
+		return new Mp4Box(type, null, new ArrayList<Mp4Box>());
+	}
+
+	/** @param payload the content of the box after its header */
+	static Mp4Box parse(String type, ByteBuffer payload) throws IOException {
+		if (!CONTAINERS.contains(type)) {
+			byte[] bytes = new byte[payload.remaining()];
+			payload.get(bytes);
+			return leaf(type, bytes);
+		}
+		Mp4Box box = container(type);
+		while (payload.remaining() >= 8) {
+			int start = payload.position();
+			long size = payload.getInt() & 0xffffffffL;
+			String childType = readType(payload);
+			int headerSize = 8;
+			if (size == 1) {
+				size = payload.getLong();
+				headerSize = 16;
+			} else if (size == 0) {
+				size = payload.limit() - start;
+			}
+			if (size < headerSize || start + size > payload.limit()) {
+				throw new IOException("Invalid size " + size + " of box " + childType + " in " + type);
+			}
+			ByteBuffer childPayload = payload.duplicate();
+			childPayload.position(start + headerSize);
+			childPayload.limit((int) (start + size));
+			box.children.add(parse(childType, childPayload.slice()));
+			payload.position((int) (start + size));
+		}
+		return box;
+	}
+
+	static String readType(ByteBuffer buffer) {
+		byte[] type = new byte[4];
+		buffer.get(type);
+		return new String(type, ASCII);
+	}
+
+	/** @return the first descendant at the path of box types, like "mdia/minf/stbl", or null */
+	Mp4Box find(String path) {
+		Mp4Box box = this;
+		for (String type : path.split("/")) {
+			Mp4Box found = null;
+			if (box.children != null) {
+				for (Mp4Box child : box.children) {
+					if (child.type.equals(type)) {
+						found = child;
+						break;
+					}
+				}
+			}
+			if (found == null) {
+				return null;
+			}
+			box = found;
+		}
+		return box;
+	}
+
+	/** @return all direct children of the type */
+	List<Mp4Box> findAll(String type) {
+		List<Mp4Box> result = new ArrayList<>();
+		if (children != null) {
+			for (Mp4Box child : children) {
+				if (child.type.equals(type)) {
+					result.add(child);
+				}
+			}
+		}
+		return result;
+	}
+
+	void remove(String type) {
+		if (children != null) {
+			for (int i = children.size() - 1; i >= 0; i--) {
+				if (children.get(i).type.equals(type)) {
+					children.remove(i);
+				}
+			}
+		}
+	}
+
+	/** Payload of a leaf, big endian and positioned at 0 */
+	ByteBuffer payloadBuffer() {
+		return ByteBuffer.wrap(payload);
+	}
+
+	/** Size including the header */
+	long size() {
+		long size = 8;
+		if (payload != null) {
+			size += payload.length;
+		} else {
+			for (Mp4Box child : children) {
+				size += child.size();
+			}
+		}
+		return size;
+	}
+
+	void write(ByteBuffer out) {
+		out.putInt((int) size());
+		out.put(type.getBytes(ASCII));
+		if (payload != null) {
+			out.put(payload);
+		} else {
+			for (Mp4Box child : children) {
+				child.write(out);
+			}
+		}
+	}
+
+	ByteBuffer toBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate((int) size());
+		write(buffer);
+		buffer.flip();
+		return buffer;
+	}
+}
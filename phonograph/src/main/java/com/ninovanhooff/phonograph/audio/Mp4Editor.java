@@ -0,0 +1,501 @@
+package com.ninovanhooff.phonograph.audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Cut and concatenate single track MP4 audio files, like the M4A files of
+ * {@link com.ninovanhooff.phonograph.audio.recorder.AudioRecorder}, without decoding.
+ *
+ * Only the moov box is loaded. Its sample tables (stts, stsc, stsz and stco or co64) are rebuilt
+ * for the selected samples and the sample data is copied with {@link FileChannel#transferTo(long,
+ * long, java.nio.channels.WritableByteChannel)}, so an edit costs I/O time only. Every AAC frame is
+ * one sample, so cuts are made at frame boundaries: a cut range is widened to whole frames.
+ *
+ * The output is written with moov before mdat, so it can be played while it is read. Edit lists
+ * and sample groups of the source are dropped, other metadata is kept. On failure the output file
+ * is deleted and an IOException is thrown.
+ */
+public class Mp4Editor {
+
+	/** Keeps chunks small enough for players that read a chunk at once */
+	private static final int MAX_SAMPLES_PER_CHUNK = 1024;
+	private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+
+	private Mp4Editor() {}
+
+	/**
+	 * Write the audio from startUs up to endUs of src to dst.
+	 */
+	public static void trim(File src, File dst, long startUs, long endUs) throws IOException {
+		Source source = Source.read(src);
+		int first = source.sampleAt(source.toTicks(startUs), false);
+		int end = source.sampleAt(source.toTicks(endUs), true);
+		if (end <= first) {
+			throw new IOException("Nothing left after trimming " + src);
+		}
+		write(dst, source, Arrays.asList(new Range(source, first, end)));
+	}
+
+	/**
+	 * Join the audio of the sources in order. All sources must use the same codec configuration
+	 * and timescale, which is the case for files recorded with the same settings.
+	 */
+	public static void concat(List<File> files, File dst) throws IOException {
+		if (files.isEmpty()) {
+			throw new IOException("Nothing to concatenate");
+		}
+		List<Range> ranges = new ArrayList<>();
+		Source template = null;
+		for (File file : files) {
+			Source source = Source.read(file);
+			if (template == null) {
+				template = source;
+			} else if (!Arrays.equals(template.stsd.payload, source.stsd.payload)
+					|| template.timescale != source.timescale) {
+				throw new IOException("Codec configuration of " + file + " differs from " + files.get(0));
+			}
+			ranges.add(new Range(source, 0, source.sizes.length));
+		}
+		write(dst, template, ranges);
+	}
+
+	private static void write(File dst, Source template, List<Range> ranges) throws IOException {
+		long started = System.nanoTime();
+		List<Chunk> chunks = new ArrayList<>();
+		List<Integer> durations = new ArrayList<>();
+		List<Integer> sizes = new ArrayList<>();
+		long dataSize = 0;
+		long mediaDuration = 0;
+		for (Range range : ranges) {
+			Chunk chunk = null;
+			for (int i = range.first; i < range.end; i++) {
+				long offset = range.source.offsets[i];
+				int size = range.source.sizes[i];
+				if (chunk == null || chunk.samples == MAX_SAMPLES_PER_CHUNK
+						|| chunk.sourceOffset + chunk.size != offset) {
+					chunk = new Chunk(range.source, offset);
+					chunks.add(chunk);
+				}
+				chunk.samples++;
+				chunk.size += size;
+				dataSize += size;
+				mediaDuration += range.source.durations[i];
+				durations.add(range.source.durations[i]);
+				sizes.add(size);
+			}
+		}
+
+		boolean largeMdat = 8 + dataSize > 0xffffffffL;
+		int mdatHeaderSize = largeMdat ? 16 : 8;
+		// the size of moov does not depend on the offsets, only on their width
+		boolean co64 = false;
+		Mp4Box moov = buildMoov(template, chunks, durations, sizes, mediaDuration, 0, co64);
+		long dataStart = template.ftyp.size() + moov.size() + mdatHeaderSize;
+		if (dataStart + dataSize > 0xffffffffL) {
+			co64 = true;
+			moov = buildMoov(template, chunks, durations, sizes, mediaDuration, 0, co64);
+			dataStart = template.ftyp.size() + moov.size() + mdatHeaderSize;
+		}
+		moov = buildMoov(template, chunks, durations, sizes, mediaDuration, dataStart, co64);
+
+		FileOutputStream out = new FileOutputStream(dst);
+		boolean success = false;
+		try {
+			FileChannel target = out.getChannel();
+			writeFully(target, template.ftyp.toBuffer());
+			writeFully(target, moov.toBuffer());
+			ByteBuffer mdatHeader = ByteBuffer.allocate(mdatHeaderSize);
+			if (largeMdat) {
+				mdatHeader.putInt(1);
+				mdatHeader.put("mdat".getBytes("US-ASCII"));
+				mdatHeader.putLong(16 + dataSize);
+			} else {
+				mdatHeader.putInt((int) (8 + dataSize));
+				mdatHeader.put("mdat".getBytes("US-ASCII"));
+			}
+			mdatHeader.flip();
+			writeFully(target, mdatHeader);
+			copyChunks(chunks, target);
+			success = true;
+		} finally {
+			out.close();
+			if (!success && dst.exists() && !dst.delete()) {
+				Timber.e("Failed to delete incomplete output %s", dst);
+			}
+		}
+		Timber.d("Wrote %d samples, %d MB in %d ms", sizes.size(), dataSize / (1024 * 1024),
+				(System.nanoTime() - started) / 1000000);
+	}
+
+	private static void copyChunks(List<Chunk> chunks, FileChannel target) throws IOException {
+		Source open = null;
+		FileInputStream in = null;
+		try {
+			for (Chunk chunk : chunks) {
+				if (chunk.source != open) {
+					if (in != null) {
+						in.close();
+					}
+					in = new FileInputStream(chunk.source.file);
+					open = chunk.source;
+				}
+				FileChannel source = in.getChannel();
+				long done = 0;
+				while (done < chunk.size) {
+					long transferred = source.transferTo(chunk.sourceOffset + done, chunk.size - done, target);
+					if (transferred <= 0) {
+						throw new IOException("Unexpected end of data in " + chunk.source.file);
+					}
+					done += transferred;
+				}
+			}
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Copy of the moov of the template with new durations and sample tables.
+	 * @param dataStart file position of the first chunk
+	 */
+	private static Mp4Box buildMoov(Source template, List<Chunk> chunks, List<Integer> durations,
+									List<Integer> sizes, long mediaDuration, long dataStart, boolean co64) throws IOException {
+		ByteBuffer copy = template.moov.toBuffer();
+		copy.position(8);
+		Mp4Box moov = Mp4Box.parse("moov", copy.slice());
+		Mp4Box trak = moov.find("trak");
+		Mp4Box mvhd = moov.find("mvhd");
+		Mp4Box tkhd = trak.find("tkhd");
+		Mp4Box mdhd = trak.find("mdia/mdhd");
+		Mp4Box stbl = trak.find("mdia/minf/stbl");
+		if (mvhd == null || tkhd == null || mdhd == null || stbl == null) {
+			throw new IOException("Incomplete moov in " + template.file);
+		}
+		long movieDuration = mediaDuration * readTimescale(mvhd) / template.timescale;
+		writeDuration(mvhd, 16, 24, movieDuration);
+		writeDuration(tkhd, 20, 28, movieDuration);
+		writeDuration(mdhd, 16, 24, mediaDuration);
+		trak.remove("edts");
+
+		stbl.children.clear();
+		stbl.children.add(template.stsd);
+		stbl.children.add(Mp4Box.leaf("stts", encodeStts(durations)));
+		stbl.children.add(Mp4Box.leaf("stsc", encodeStsc(chunks)));
+		stbl.children.add(Mp4Box.leaf("stsz", encodeStsz(sizes)));
+		ByteBuffer offsets = ByteBuffer.allocate(8 + chunks.size() * (co64 ? 8 : 4));
+		offsets.putInt(0);
+		offsets.putInt(chunks.size());
+		long offset = dataStart;
+		for (Chunk chunk : chunks) {
+			if (co64) {
+				offsets.putLong(offset);
+			} else {
+				offsets.putInt((int) offset);
+			}
+			offset += chunk.size;
+		}
+		stbl.children.add(Mp4Box.leaf(co64 ? "co64" : "stco", offsets.array()));
+		return moov;
+	}
+
+	private static byte[] encodeStts(List<Integer> durations) {
+		List<long[]> entries = new ArrayList<>();
+		for (int duration : durations) {
+			long[] last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+			if (last != null && last[1] == duration) {
+				last[0]++;
+			} else {
+				entries.add(new long[] {1, duration});
+			}
+		}
+		ByteBuffer stts = ByteBuffer.allocate(8 + entries.size() * 8);
+		stts.putInt(0);
+		stts.putInt(entries.size());
+		for (long[] entry : entries) {
+			stts.putInt((int) entry[0]);
+			stts.putInt((int) entry[1]);
+		}
+		return stts.array();
+	}
+
+	private static byte[] encodeStsc(List<Chunk> chunks) {
+		List<int[]> entries = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			int samples = chunks.get(i).samples;
+			if (entries.isEmpty() || entries.get(entries.size() - 1)[1] != samples) {
+				// first chunk, samples per chunk, sample description index
+				entries.add(new int[] {i + 1, samples, 1});
+			}
+		}
+		ByteBuffer stsc = ByteBuffer.allocate(8 + entries.size() * 12);
+		stsc.putInt(0);
+		stsc.putInt(entries.size());
+		for (int[] entry : entries) {
+			stsc.putInt(entry[0]);
+			stsc.putInt(entry[1]);
+			stsc.putInt(entry[2]);
+		}
+		return stsc.array();
+	}
+
+	private static byte[] encodeStsz(List<Integer> sizes) {
+		boolean constant = true;
+		for (int i = 1; i < sizes.size() && constant; i++) {
+			constant = sizes.get(i).equals(sizes.get(0));
+		}
+		ByteBuffer stsz = ByteBuffer.allocate(12 + (constant ? 0 : sizes.size() * 4));
+		stsz.putInt(0);
+		stsz.putInt(constant && !sizes.isEmpty() ? sizes.get(0) : 0);
+		stsz.putInt(sizes.size());
+		if (!constant) {
+			for (int size : sizes) {
+				stsz.putInt(size);
+			}
+		}
+		return stsz.array();
+	}
+
+	/** Timescale of mvhd or mdhd, which share the layout of their first fields */
+	private static long readTimescale(Mp4Box box) {
+		ByteBuffer buffer = box.payloadBuffer();
+		return buffer.getInt(buffer.get(0) == 1 ? 20 : 12) & 0xffffffffL;
+	}
+
+	/** Duration field of a version 0 or version 1 full box */
+	private static void writeDuration(Mp4Box box, int offsetV0, int offsetV1, long duration) {
+		ByteBuffer buffer = box.payloadBuffer();
+		if (buffer.get(0) == 1) {
+			buffer.putLong(offsetV1, duration);
+		} else {
+			buffer.putInt(offsetV0, (int) Math.min(duration, 0xffffffffL));
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/** The metadata and sample table of a file */
+	private static class Source {
+		final File file;
+		final Mp4Box ftyp;
+		final Mp4Box moov;
+		final Mp4Box stsd;
+		final long timescale;
+		/** Per sample */
+		final long[] offsets;
+		final int[] sizes;
+		final int[] durations;
+
+		private Source(File file, Mp4Box ftyp, Mp4Box moov, Mp4Box stsd, long timescale,
+					   long[] offsets, int[] sizes, int[] durations) {
+			this.file = file;
+			this.ftyp = ftyp;
+			this.moov = moov;
+			this.stsd = stsd;
+			this.timescale = timescale;
+			this.offsets = offsets;
+			this.sizes = sizes;
+			this.durations = durations;
+		}
+
+		static Source read(File file) throws IOException {
+			Mp4Box ftyp = null;
+			Mp4Box moov = null;
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long length = channel.size();
+				long position = 0;
+				ByteBuffer header = ByteBuffer.allocate(16);
+				while (position + 8 <= length && (ftyp == null || moov == null)) {
+					header.clear();
+					header.limit(16);
+					channel.read(header, position);
+					header.flip();
+					long size = header.getInt() & 0xffffffffL;
+					String type = Mp4Box.readType(header);
+					int headerSize = 8;
+					if (size == 1) {
+						size = header.getLong();
+						headerSize = 16;
+					} else if (size == 0) {
+						size = length - position;
+					}
+					if (size < headerSize) {
+						throw new IOException("Invalid box size " + size + " in " + file);
+					}
+					if (type.equals("ftyp") || type.equals("moov")) {
+						if (size > MAX_MOOV_SIZE) {
+							throw new IOException("Box " + type + " too large in " + file);
+						}
+						ByteBuffer payload = ByteBuffer.allocate((int) (size - headerSize));
+						while (payload.hasRemaining()) {
+							if (channel.read(payload, position + headerSize + payload.position()) < 0) {
+								throw new IOException("Truncated box " + type + " in " + file);
+							}
+						}
+						payload.flip();
+						if (type.equals("ftyp")) {
+							ftyp = Mp4Box.parse(type, payload);
+						} else {
+							moov = Mp4Box.parse(type, payload);
+						}
+					}
+					position += size;
+				}
+			} finally {
+				in.close();
+			}
+			if (ftyp == null || moov == null) {
+				throw new IOException("Not an MP4 file: " + file);
+			}
+			if (moov.findAll("trak").size() != 1) {
+				throw new IOException("Only files with a single track are supported: " + file);
+			}
+			Mp4Box mdhd = moov.find("trak/mdia/mdhd");
+			Mp4Box stbl = moov.find("trak/mdia/minf/stbl");
+			if (mdhd == null || stbl == null || stbl.find("stsd") == null || stbl.find("stts") == null
+					|| stbl.find("stsc") == null || stbl.find("stsz") == null
+					|| (stbl.find("stco") == null && stbl.find("co64") == null)) {
+				throw new IOException("Incomplete sample table in " + file);
+			}
+			if (stbl.find("stsd").payloadBuffer().getInt(4) != 1) {
+				throw new IOException("Only files with a single sample description are supported: " + file);
+			}
+
+			int[] sizes = readSizes(stbl.find("stsz"));
+			int[] durations = readDurations(stbl.find("stts"), sizes.length);
+			long[] offsets = readOffsets(stbl, sizes);
+			return new Source(file, ftyp, moov, stbl.find("stsd"), readTimescale(mdhd), offsets, sizes, durations);
+		}
+
+		private static int[] readSizes(Mp4Box stsz) {
+			ByteBuffer buffer = stsz.payloadBuffer();
+			buffer.getInt(); // version and flags
+			int constant = buffer.getInt();
+			int[] sizes = new int[buffer.getInt()];
+			for (int i = 0; i < sizes.length; i++) {
+				sizes[i] = constant != 0 ? constant : buffer.getInt();
+			}
+			return sizes;
+		}
+
+		private static int[] readDurations(Mp4Box stts, int sampleCount) throws IOException {
+			ByteBuffer buffer = stts.payloadBuffer();
+			buffer.getInt();
+			int entries = buffer.getInt();
+			int[] durations = new int[sampleCount];
+			int sample = 0;
+			for (int i = 0; i < entries; i++) {
+				int count = buffer.getInt();
+				int delta = buffer.getInt();
+				if (sample + count > sampleCount) {
+					throw new IOException("stts describes more samples than stsz");
+				}
+				Arrays.fill(durations, sample, sample + count, delta);
+				sample += count;
+			}
+			return durations;
+		}
+
+		private static long[] readOffsets(Mp4Box stbl, int[] sizes) throws IOException {
+			Mp4Box stco = stbl.find("stco");
+			ByteBuffer chunkBuffer = (stco != null ? stco : stbl.find("co64")).payloadBuffer();
+			chunkBuffer.getInt();
+			long[] chunkOffsets = new long[chunkBuffer.getInt()];
+			for (int i = 0; i < chunkOffsets.length; i++) {
+				chunkOffsets[i] = stco != null ? chunkBuffer.getInt() & 0xffffffffL : chunkBuffer.getLong();
+			}
+
+			ByteBuffer stsc = stbl.find("stsc").payloadBuffer();
+			stsc.getInt();
+			int entries = stsc.getInt();
+			int[] firstChunks = new int[entries];
+			int[] samplesPerChunk = new int[entries];
+			for (int i = 0; i < entries; i++) {
+				firstChunks[i] = stsc.getInt();
+				samplesPerChunk[i] = stsc.getInt();
+				stsc.getInt(); // sample description index
+			}
+
+			long[] offsets = new long[sizes.length];
+			int sample = 0;
+			int entry = 0;
+			for (int chunk = 0; chunk < chunkOffsets.length && sample < sizes.length; chunk++) {
+				while (entry + 1 < entries && firstChunks[entry + 1] <= chunk + 1) {
+					entry++;
+				}
+				long offset = chunkOffsets[chunk];
+				for (int i = 0; i < samplesPerChunk[entry] && sample < sizes.length; i++) {
+					offsets[sample] = offset;
+					offset += sizes[sample];
+					sample++;
+				}
+			}
+			if (sample != sizes.length) {
+				throw new IOException("Chunks hold " + sample + " of " + sizes.length + " samples");
+			}
+			return offsets;
+		}
+
+		long toTicks(long us) {
+			return us * timescale / 1000000;
+		}
+
+		/**
+		 * @param after false for the sample that contains the time, true for the first sample
+		 * that starts at or after it
+		 */
+		int sampleAt(long ticks, boolean after) {
+			long time = 0;
+			for (int i = 0; i < durations.length; i++) {
+				if (after ? time >= ticks : time + durations[i] > ticks) {
+					return i;
+				}
+				time += durations[i];
+			}
+			return durations.length;
+		}
+	}
+
+	private static class Range {
+		final Source source;
+		final int first;
+		/** Exclusive */
+		final int end;
+
+		Range(Source source, int first, int end) {
+			this.source = source;
+			this.first = first;
+			this.end = end;
+		}
+	}
+
+	/** Contiguous samples of a source that are written as one chunk */
+	private static class Chunk {
+		final Source source;
+		final long sourceOffset;
+		long size = 0;
+		int samples = 0;
+
+		Chunk(Source source, long sourceOffset) {
+			this.source = source;
+			this.sourceOffset = sourceOffset;
+		}
+	}
+}
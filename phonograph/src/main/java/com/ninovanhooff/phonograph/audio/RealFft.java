@@ -0,0 +1,135 @@
+package com.ninovanhooff.phonograph.audio;
+
+/**
+ * Windowed power spectrum of real valued signals.
+ *
+ * A real input of size n is packed into a complex sequence of size n/2, transformed with an
+ * iterative radix-2 FFT and split into the n/2 + 1 bins of the real spectrum. Twiddle factors,
+ * the bit reversal permutation and the Hann window are computed once in the constructor and
+ * all work buffers are preallocated, so {@link #powerSpectrum(float[], float[])} does not allocate.
+ *
+ * Not thread safe: use one instance per thread.
+ */
+public class RealFft {
+
+	private final int size;
+	/** Size of the complex transform */
+	private final int half;
+	private final float[] window;
+	private final int[] bitReverse;
+	/** cos and sin of 2 pi k / half, for the complex butterflies */
+	private final float[] cos;
+	private final float[] sin;
+	/** cos and sin of 2 pi k / size, for splitting the complex result into the real spectrum */
+	private final float[] splitCos;
+	private final float[] splitSin;
+	private final float[] re;
+	private final float[] im;
+	/** Converts squared magnitudes so that a full scale sine reads 1 */
+	private final float powerScale;
+
+	/** @param size number of input samples per transform, a power of two of at least 4 */
+	public RealFft(int size) {
+		if (size < 4 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Size must be a power of two >= 4: " + size);
+		}
+		this.size = size;
+		this.half = size / 2;
+
+		window = new float[size];
+		float windowSum = 0;
+		for (int i = 0; i < size; i++) {
+			// periodic Hann window, which overlaps-adds to a constant at 50% overlap
+			window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+			windowSum += window[i];
+		}
+		// a sine of amplitude a has a peak bin magnitude of a * windowSum / 2
+		powerScale = 4f / (windowSum * windowSum);
+
+		int bits = Integer.numberOfTrailingZeros(half);
+		bitReverse = new int[half];
+		for (int i = 0; i < half; i++) {
+			bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cos = new float[half / 2];
+		sin = new float[half / 2];
+		for (int k = 0; k < half / 2; k++) {
+			cos[k] = (float) Math.cos(2 * Math.PI * k / half);
+			sin[k] = (float) Math.sin(2 * Math.PI * k / half);
+		}
+		splitCos = new float[half + 1];
+		splitSin = new float[half + 1];
+		for (int k = 0; k <= half; k++) {
+			splitCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+			splitSin[k] = (float) Math.sin(2 * Math.PI * k / size);
+		}
+
+		re = new float[half];
+		im = new float[half];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/** Number of bins in the spectrum, from DC up to and including the Nyquist frequency */
+	public int getBinCount() {
+		return half + 1;
+	}
+
+	/** Center frequency of a bin in Hz */
+	public float getBinFrequency(int bin, int sampleRate) {
+		return (float) bin * sampleRate / size;
+	}
+
+	/**
+	 * Apply the Hann window to input and compute its power spectrum.
+	 * @param input {@link #getSize()} samples in the range -1..1. Not modified.
+	 * @param power receives {@link #getBinCount()} linear power values, where a full scale
+	 *              sine centered on a bin reads 1 in that bin.
+	 */
+	public void powerSpectrum(float[] input, float[] power) {
+		// pack even samples into the real and odd samples into the imaginary part
+		for (int i = 0; i < half; i++) {
+			int j = bitReverse[i];
+			re[j] = input[2 * i] * window[2 * i];
+			im[j] = input[2 * i + 1] * window[2 * i + 1];
+		}
+		transform();
+
+		for (int k = 0; k <= half; k++) {
+			int a = k == half ? 0 : k;
+			int b = k == 0 ? 0 : half - k;
+			// spectra of the even (e) and odd (d) samples
+			float er = 0.5f * (re[a] + re[b]);
+			float ei = 0.5f * (im[a] - im[b]);
+			float dr = 0.5f * (re[a] - re[b]);
+			float di = 0.5f * (im[a] + im[b]);
+			float xr = er + splitCos[k] * di - splitSin[k] * dr;
+			float xi = ei - splitCos[k] * dr - splitSin[k] * di;
+			power[k] = (xr * xr + xi * xi) * powerScale;
+		}
+	}
+
+	/** In place decimation in time FFT of the bit reversed contents of re and im */
+	private void transform() {
+		for (int span = 1; span < half; span *= 2) {
+			int step = half / (2 * span);
+			for (int start = 0; start < half; start += 2 * span) {
+				for (int j = 0; j < span; j++) {
+					float wr = cos[j * step];
+					float wi = -sin[j * step];
+					int a = start + j;
+					int b = a + span;
+					float tr = wr * re[b] - wi * im[b];
+					float ti = wr * im[b] + wi * re[b];
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
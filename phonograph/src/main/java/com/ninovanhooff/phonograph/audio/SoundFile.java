@@ -84,6 +84,122 @@ public class SoundFile {
 		return soundFile;
 	}
 
+	/** Receives decoded audio from {@link #decode(File, long, DecodeListener)} */
+	public interface DecodeListener {
+		/** Called once, before the first {@link #onPcm(ByteBuffer, long)} */
+		void onFormat(int sampleRate, int channelCount, long durationUs);
+
+		/**
+		 * @param pcm interleaved 16 bit little endian samples between position and limit.
+		 *            Only valid during this call.
+		 * @param presentationTimeUs time of the first sample in pcm
+		 * @return false to stop decoding
+		 */
+		boolean onPcm(ByteBuffer pcm, long presentationTimeUs);
+	}
+
+	/**
+	 * Decode a file block by block without accumulating the result, so memory use does not
+	 * depend on the length of the file. Blocks are passed to the listener as the decoder
+	 * produces them.
+	 * @param startUs position to start decoding. Decoding starts at the sync point at or before
+	 *                this position, so the first block may start earlier.
+	 */
+	public static void decode(File file, long startUs, DecodeListener listener) throws IOException {
+		MediaExtractor extractor = new MediaExtractor();
+		MediaCodec codec = null;
+		try {
+			extractor.setDataSource(file.getPath());
+			MediaFormat format = selectAudioTrack(extractor, file);
+			long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+			listener.onFormat(
+					format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+					format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+					durationUs);
+			if (startUs > 0) {
+				extractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+			}
+
+			String mime = format.getString(MediaFormat.KEY_MIME);
+			codec = MediaCodec.createDecoderByType(mime);
+			codec.configure(format, null, null, 0);
+			codec.start();
+
+			ByteBuffer[] inputBuffers = codec.getInputBuffers();
+			ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+			MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+			boolean doneReading = false;
+			boolean firstSampleData = startUs <= 0;
+			int idleOutputs = 0;
+			while (true) {
+				if (!doneReading) {
+					int inputBufferIndex = codec.dequeueInputBuffer(100);
+					if (inputBufferIndex >= 0) {
+						int sampleSize = extractor.readSampleData(inputBuffers[inputBufferIndex], 0);
+						if (firstSampleData && mime.equals("audio/mp4a-latm") && sampleSize == 2) {
+							// Skip the AAC stream info, see readFile()
+							extractor.advance();
+						} else if (sampleSize < 0) {
+							codec.queueInputBuffer(
+									inputBufferIndex, 0, 0, -1, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							doneReading = true;
+						} else {
+							codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+						firstSampleData = false;
+					}
+				}
+
+				int outputBufferIndex = codec.dequeueOutputBuffer(info, doneReading ? 10000 : 100);
+				if (outputBufferIndex >= 0) {
+					idleOutputs = 0;
+					boolean more = true;
+					if (info.size > 0) {
+						ByteBuffer pcm = outputBuffers[outputBufferIndex];
+						pcm.position(info.offset);
+						pcm.limit(info.offset + info.size);
+						pcm.order(ByteOrder.LITTLE_ENDIAN);
+						more = listener.onPcm(pcm, info.presentationTimeUs);
+						pcm.clear();
+					}
+					codec.releaseOutputBuffer(outputBufferIndex, false);
+					if (!more || (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+						break;
+					}
+				} else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					outputBuffers = codec.getOutputBuffers();
+				} else if (doneReading && ++idleOutputs > 20) {
+					// Some devices never signal the end of stream, see readFile()
+					break;
+				}
+			}
+		} finally {
+			extractor.release();
+			if (codec != null) {
+				try {
+					codec.stop();
+				} catch (IllegalStateException e) {
+					Timber.e(e);
+				}
+				codec.release();
+			}
+		}
+	}
+
+	/** Select the first audio track of the extractor and return its format */
+	static MediaFormat selectAudioTrack(MediaExtractor extractor, File file) throws IOException {
+		int numTracks = extractor.getTrackCount();
+		for (int i = 0; i < numTracks; i++) {
+			MediaFormat format = extractor.getTrackFormat(i);
+			if (format.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+				extractor.selectTrack(i);
+				return format;
+			}
+		}
+		throw new IOException("No audio track found in " + file.toString());
+	}
+
 	// Should be removed when the app will use directly the samples instead of the frames.
 	public int getSamplesPerFrame() {
 		return (int)(mSampleRate / dpPerSec);
@@ -0,0 +1,520 @@
+package com.ninovanhooff.phonograph.audio;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Generates the spectrogram of a stored recording as tiles of quantized magnitudes, cached on disk.
+ *
+ * A tile holds {@link #TILE_COLUMNS} spectra of {@link #TILE_ROWS} frequency bins. At zoom level
+ * 0 a column covers {@link #BASE_SAMPLES_PER_COLUMN} samples, and every next level doubles that.
+ * Tiles are stored column by column, lowest frequency first, one byte per bin, where 0 is
+ * {@link #DB_RANGE} dB below full scale or less and 255 is full scale.
+ *
+ * Each tile is generated independently by decoding only its own time range through
+ * {@link SoundFile#decode(File, long, SoundFile.DecodeListener)}, so tiles are generated in
+ * parallel and memory use does not depend on the length of the recording. The most recently
+ * requested tiles are generated first, which keeps the visible tiles ahead while scrolling.
+ *
+ * The disk cache of all recordings is kept below {@link #MAX_CACHE_BYTES}. Reading a tile marks it
+ * as used by its modification time, and the least recently used tiles are deleted first.
+ */
+public class SpectrogramGenerator {
+
+	public static final int FFT_SIZE = 512;
+	public static final int TILE_COLUMNS = 256;
+	public static final int TILE_ROWS = FFT_SIZE / 2;
+	public static final int TILE_BYTES = TILE_COLUMNS * TILE_ROWS;
+	public static final int BASE_SAMPLES_PER_COLUMN = FFT_SIZE / 2;
+	public static final int MAX_LEVEL = 12;
+	public static final float DB_RANGE = 90f;
+
+	private static final String CACHE_DIR_NAME = "spectrogram-v1";
+	private static final String TILE_EXTENSION = ".tile";
+	private static final float FULL_SCALE = 32768f;
+	/** Size of the tiles of all recordings, about a thousand tiles */
+	private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+	/** The cache is trimmed after the first tile and then after every this many tiles written */
+	private static final int TRIM_INTERVAL_TILES = 64;
+	private static final AtomicInteger tilesWritten = new AtomicInteger();
+
+	/** Called on a worker thread */
+	public interface TileListener {
+		void onTileReady(int level, int index);
+		void onTileFailed(int level, int index, IOException e);
+	}
+
+	private static ExecutorService executor;
+
+	private final File audioFile;
+	private final File cacheRoot;
+	private final File tileDir;
+	private final int sampleRate;
+	private final long durationUs;
+	private final ConcurrentHashMap<Long, TileTask> pending = new ConcurrentHashMap<>();
+	private volatile TileListener listener;
+
+	/**
+	 * @param audioFile recording to analyze
+	 * @param cacheDir directory to keep the tiles in, eg. {@link android.content.Context#getCacheDir()}
+	 * @throws IOException when the file contains no audio or its duration is not known
+	 */
+	public SpectrogramGenerator(File audioFile, File cacheDir) throws IOException {
+		this.audioFile = audioFile;
+		MediaExtractor extractor = new MediaExtractor();
+		try {
+			extractor.setDataSource(audioFile.getPath());
+			MediaFormat format = SoundFile.selectAudioTrack(extractor, audioFile);
+			if (!format.containsKey(MediaFormat.KEY_DURATION)) {
+				throw new IOException("Unknown duration of " + audioFile);
+			}
+			sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			durationUs = format.getLong(MediaFormat.KEY_DURATION);
+		} finally {
+			extractor.release();
+		}
+		// key on the file contents as far as cheaply known, so an edited file gets new tiles
+		String key = Integer.toHexString(audioFile.getAbsolutePath().hashCode())
+				+ "_" + audioFile.length() + "_" + audioFile.lastModified();
+		cacheRoot = new File(cacheDir, CACHE_DIR_NAME);
+		tileDir = new File(cacheRoot, key);
+	}
+
+	public void setTileListener(TileListener listener) {
+		this.listener = listener;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public long getDurationUs() {
+		return durationUs;
+	}
+
+	public int getSamplesPerColumn(int level) {
+		return BASE_SAMPLES_PER_COLUMN << level;
+	}
+
+	public int getTileCount(int level) {
+		long samples = durationUs * sampleRate / 1000000L;
+		long samplesPerTile = (long) getSamplesPerColumn(level) * TILE_COLUMNS;
+		return (int) ((samples + samplesPerTile - 1) / samplesPerTile);
+	}
+
+	/** Zoom level whose columns are closest to, but not wider than, the given number of samples */
+	public static int levelForSamplesPerColumn(float samplesPerColumn) {
+		int level = 0;
+		while (level < MAX_LEVEL && (BASE_SAMPLES_PER_COLUMN << (level + 1)) <= samplesPerColumn) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Read a tile from the disk cache.
+	 * @param tile receives {@link #TILE_BYTES} bytes
+	 * @return false when the tile was not generated yet
+	 */
+	public boolean readTile(int level, int index, byte[] tile) {
+		File file = tileFile(level, index);
+		if (!file.exists()) {
+			return false;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			int read = 0;
+			while (read < TILE_BYTES) {
+				int count = in.read(tile, read, TILE_BYTES - read);
+				if (count < 0) {
+					return false;
+				}
+				read += count;
+			}
+			markUsed(file);
+			return true;
+		} catch (IOException e) {
+			Timber.e(e);
+			return false;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Generate a tile in the background, unless it is cached or already being generated.
+	 * The {@link TileListener} is notified when the tile is ready, also when it was cached.
+	 */
+	public void requestTile(int level, int index) {
+		if (index < 0 || index >= getTileCount(level)) {
+			return;
+		}
+		long key = tileKey(level, index);
+		if (pending.containsKey(key)) {
+			return;
+		}
+		TileTask task = new TileTask(level, index);
+		if (pending.putIfAbsent(key, task) == null) {
+			// the future exists before the task is published, so a cancel never misses it
+			getExecutor().execute(task.future);
+		}
+	}
+
+	/** Cancel the generation of all tiles except the given range at the given level */
+	public void retainTiles(int level, int firstIndex, int lastIndex) {
+		Iterator<TileTask> it = pending.values().iterator();
+		while (it.hasNext()) {
+			TileTask task = it.next();
+			if (task.level != level || task.index < firstIndex || task.index > lastIndex) {
+				task.cancel();
+				it.remove();
+			}
+		}
+	}
+
+	/** Cancel the generation of all tiles */
+	public void cancel() {
+		Iterator<TileTask> it = pending.values().iterator();
+		while (it.hasNext()) {
+			it.next().cancel();
+			it.remove();
+		}
+	}
+
+	/** Remove all cached tiles of all recordings */
+	public static void clearCache(File cacheDir) {
+		deleteRecursive(new File(cacheDir, CACHE_DIR_NAME));
+	}
+
+	private File tileFile(int level, int index) {
+		return new File(tileDir, level + "_" + index + TILE_EXTENSION);
+	}
+
+	private static void markUsed(File tile) {
+		if (!tile.setLastModified(System.currentTimeMillis())) {
+			Timber.w("Failed to mark %s as used", tile);
+		}
+	}
+
+	/** Delete the least recently used tiles of all recordings until the cache fits its size */
+	private static synchronized void trimCache(File cacheRoot) {
+		File[] dirs = cacheRoot.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		List<File> tiles = new ArrayList<>();
+		long size = 0;
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				// temporary files are still being written
+				if (file.getName().endsWith(TILE_EXTENSION)) {
+					tiles.add(file);
+					size += file.length();
+				}
+			}
+		}
+		if (size <= MAX_CACHE_BYTES) {
+			return;
+		}
+		final Map<File, Long> used = new HashMap<>(tiles.size() * 2);
+		for (File tile : tiles) {
+			used.put(tile, tile.lastModified());
+		}
+		Collections.sort(tiles, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long ua = used.get(a);
+				long ub = used.get(b);
+				return ua < ub ? -1 : (ua == ub ? 0 : 1);
+			}
+		});
+		int deleted = 0;
+		for (int i = 0; i < tiles.size() && size > MAX_CACHE_BYTES; i++) {
+			File tile = tiles.get(i);
+			long length = tile.length();
+			if (tile.delete()) {
+				size -= length;
+				deleted++;
+			}
+		}
+		for (File dir : dirs) {
+			String[] left = dir.list();
+			if (left != null && left.length == 0 && !dir.delete()) {
+				Timber.w("Failed to delete %s", dir);
+			}
+		}
+		Timber.d("Spectrogram cache trimmed by %d tiles to %d KB", deleted, size / 1024);
+	}
+
+	private static long tileKey(int level, int index) {
+		return ((long) level << 32) | index;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+					new LifoBlockingDeque(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					return new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "SpectrogramTiles-" + count.incrementAndGet());
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				Timber.e(e);
+			}
+		}
+	}
+
+	private static void deleteRecursive(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursive(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			Timber.w("Failed to delete %s", file);
+		}
+	}
+
+	/** Runs the newest task first */
+	private static class LifoBlockingDeque extends LinkedBlockingDeque<Runnable> {
+		@Override
+		public boolean offer(Runnable r) {
+			return offerFirst(r);
+		}
+	}
+
+	private class TileTask implements Runnable, SoundFile.DecodeListener {
+
+		final int level;
+		final int index;
+		final FutureTask<Void> future = new FutureTask<>(this, null);
+		private volatile boolean cancelled = false;
+
+		private final int samplesPerColumn;
+		private final long firstSample;
+		/** Windows per column, and the distance between their starts */
+		private final int windows;
+		private final int windowStep;
+
+		private RealFft fft;
+		private float[] frame;
+		private float[] power;
+		private float[] columnPower;
+		private byte[] tile;
+		private int channelCount = 1;
+		private int frameFill = 0;
+		/** Absolute sample index of the start of the next window */
+		private long nextWindowStart;
+		private int windowInColumn = 0;
+		private int column = 0;
+
+		TileTask(int level, int index) {
+			this.level = level;
+			this.index = index;
+			samplesPerColumn = getSamplesPerColumn(level);
+			firstSample = (long) index * TILE_COLUMNS * samplesPerColumn;
+			windows = Math.max(1, samplesPerColumn / FFT_SIZE);
+			windowStep = samplesPerColumn / windows;
+			nextWindowStart = firstSample;
+		}
+
+		void cancel() {
+			cancelled = true;
+			future.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			long key = tileKey(level, index);
+			File cached = tileFile(level, index);
+			if (cached.exists()) {
+				markUsed(cached);
+				pending.remove(key);
+				notifyReady();
+				return;
+			}
+			// allocated per run, so queued tasks take no memory
+			fft = new RealFft(FFT_SIZE);
+			frame = new float[FFT_SIZE];
+			power = new float[fft.getBinCount()];
+			columnPower = new float[fft.getBinCount()];
+			tile = new byte[TILE_BYTES];
+			try {
+				long startUs = firstSample * 1000000L / sampleRate;
+				SoundFile.decode(audioFile, startUs, this);
+				if (cancelled) {
+					return;
+				}
+				if (column < TILE_COLUMNS && frameFill > 0) {
+					// end of the recording: zero pad the last window
+					for (int i = frameFill; i < FFT_SIZE; i++) {
+						frame[i] = 0f;
+					}
+					frameFill = FFT_SIZE;
+					processWindow();
+					if (windowInColumn > 0) {
+						finishColumn();
+					}
+				}
+				writeTile();
+				pending.remove(key);
+				notifyReady();
+				if (tilesWritten.incrementAndGet() % TRIM_INTERVAL_TILES == 1) {
+					trimCache(cacheRoot);
+				}
+			} catch (IOException | IllegalStateException e) {
+				pending.remove(key);
+				Timber.e(e, "Failed to generate spectrogram tile %d_%d", level, index);
+				TileListener l = listener;
+				if (l != null) {
+					l.onTileFailed(level, index, e instanceof IOException ? (IOException) e : new IOException(e));
+				}
+			}
+		}
+
+		private void notifyReady() {
+			TileListener l = listener;
+			if (l != null) {
+				l.onTileReady(level, index);
+			}
+		}
+
+		@Override
+		public void onFormat(int sampleRate, int channelCount, long durationUs) {
+			this.channelCount = channelCount;
+		}
+
+		@Override
+		public boolean onPcm(ByteBuffer pcm, long presentationTimeUs) {
+			if (cancelled) {
+				return false;
+			}
+			long sample = presentationTimeUs * sampleRate / 1000000L;
+			int frameBytes = 2 * channelCount;
+			float scale = 1f / (FULL_SCALE * channelCount);
+			for (int pos = pcm.position(); pos + frameBytes <= pcm.limit(); pos += frameBytes, sample++) {
+				if (frameFill == 0 && sample < nextWindowStart) {
+					// between windows, or before the tile
+					continue;
+				}
+				int sum = 0;
+				for (int ch = 0; ch < channelCount; ch++) {
+					sum += pcm.getShort(pos + 2 * ch);
+				}
+				frame[frameFill++] = sum * scale;
+				if (frameFill == FFT_SIZE) {
+					processWindow();
+					if (column == TILE_COLUMNS) {
+						return false;
+					}
+				}
+			}
+			return !cancelled;
+		}
+
+		private void processWindow() {
+			fft.powerSpectrum(frame, power);
+			for (int bin = 0; bin < columnPower.length; bin++) {
+				columnPower[bin] += power[bin];
+			}
+			nextWindowStart += windowStep;
+			if (windowStep < FFT_SIZE) {
+				// overlapping windows
+				System.arraycopy(frame, windowStep, frame, 0, FFT_SIZE - windowStep);
+				frameFill = FFT_SIZE - windowStep;
+			} else {
+				frameFill = 0;
+			}
+			if (++windowInColumn == windows) {
+				finishColumn();
+			}
+		}
+
+		private void finishColumn() {
+			int offset = column * TILE_ROWS;
+			for (int bin = 0; bin < TILE_ROWS; bin++) {
+				float p = columnPower[bin] / windowInColumn;
+				float db = p > 0 ? (float) (10 * Math.log10(p)) : -DB_RANGE;
+				int value = Math.round((db + DB_RANGE) / DB_RANGE * 255);
+				tile[offset + bin] = (byte) Math.max(0, Math.min(255, value));
+				columnPower[bin] = 0f;
+			}
+			windowInColumn = 0;
+			column++;
+		}
+
+		private void writeTile() throws IOException {
+			if (!tileDir.exists() && !tileDir.mkdirs() && !tileDir.exists()) {
+				throw new IOException("Failed to create " + tileDir);
+			}
+			// write to a temporary file first, so readers never see a partial tile
+			File tmp = new File(tileDir, level + "_" + index + "." + Thread.currentThread().getId() + ".tmp");
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(tmp);
+				out.write(tile);
+			} finally {
+				closeQuietly(out);
+			}
+			if (!tmp.renameTo(tileFile(level, index))) {
+				tmp.delete();
+				throw new IOException("Failed to store tile " + level + "_" + index);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.ninovanhooff.phonograph.audio;
+
+import com.ninovanhooff.phonograph.audio.recorder.RecorderContract;
+
+import java.util.Arrays;
+
+/**
+ * Short time power spectrum of the captured audio.
+ *
+ * Add as a capture tap to {@link com.ninovanhooff.phonograph.audio.recorder.WavRecorder}.
+ * Channels are mixed down to mono and transformed every half frame (50% overlap). The transforms
+ * run on the capture thread on preallocated buffers: at the default size, 48 kHz audio takes
+ * less than 50 transforms per second regardless of the channel count, which is a small fraction
+ * of a capture buffer period even on low end devices.
+ *
+ * The spectrum is double buffered: a new spectrum is computed into a back buffer and swapped in
+ * under a short lock, so readers on the UI thread never see a partially computed spectrum and
+ * never wait for a transform.
+ */
+public class SpectrumAnalyzer implements RecorderContract.CaptureTap {
+
+	public static final int DEFAULT_FFT_SIZE = 2048;
+
+	private static final float FULL_SCALE = 32768f;
+
+	private final RealFft fft;
+	private final int hopSize;
+	/** Mono samples of the frame being collected */
+	private final float[] frame;
+	private int frameFill = 0;
+
+	private final Object lock = new Object();
+	private float[] backSpectrum;
+	/** Guarded by lock */
+	private float[] frontSpectrum;
+	/** Guarded by lock */
+	private long frontMillis = Long.MIN_VALUE;
+
+	private volatile int sampleRate = 44100;
+	private int channelCount = 1;
+
+	public SpectrumAnalyzer() {
+		this(DEFAULT_FFT_SIZE);
+	}
+
+	/** @param fftSize frame size in samples, a power of two */
+	public SpectrumAnalyzer(int fftSize) {
+		fft = new RealFft(fftSize);
+		hopSize = fftSize / 2;
+		frame = new float[fftSize];
+		backSpectrum = new float[fft.getBinCount()];
+		frontSpectrum = new float[fft.getBinCount()];
+	}
+
+	@Override
+	public void onCaptureFormat(int sampleRate, int channelCount) {
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		frameFill = 0;
+		synchronized (lock) {
+			Arrays.fill(frontSpectrum, 0f);
+			frontMillis = Long.MIN_VALUE;
+		}
+	}
+
+	@Override
+	public void onCapture(byte[] pcm, int length, long timeMillis) {
+		int frameBytes = 2 * channelCount;
+		int frames = length / frameBytes;
+		float scale = 1f / (FULL_SCALE * channelCount);
+		int i = 0;
+		for (int f = 0; f < frames; f++) {
+			int sum = 0;
+			for (int ch = 0; ch < channelCount; ch++, i += 2) {
+				sum += (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+			}
+			frame[frameFill++] = sum * scale;
+			if (frameFill == frame.length) {
+				fft.powerSpectrum(frame, backSpectrum);
+				// the transformed frame ended this many milliseconds before the end of the block
+				long frameMillis = timeMillis - 1000L * (frames - 1 - f) / sampleRate;
+				publish(frameMillis);
+				System.arraycopy(frame, hopSize, frame, 0, frame.length - hopSize);
+				frameFill = frame.length - hopSize;
+			}
+		}
+	}
+
+	private void publish(long frameMillis) {
+		synchronized (lock) {
+			float[] swap = frontSpectrum;
+			frontSpectrum = backSpectrum;
+			backSpectrum = swap;
+			frontMillis = frameMillis;
+		}
+	}
+
+	/**
+	 * Copy the most recent spectrum.
+	 * @param power receives {@link #getBinCount()} linear power values, where a full scale sine reads 1
+	 * @return capture time of the end of the analyzed frame, or {@link Long#MIN_VALUE} when no
+	 * spectrum is available yet
+	 */
+	public long getSpectrum(float[] power) {
+		synchronized (lock) {
+			System.arraycopy(frontSpectrum, 0, power, 0, frontSpectrum.length);
+			return frontMillis;
+		}
+	}
+
+	/** Capture time of the most recent spectrum, or {@link Long#MIN_VALUE} when none is available yet */
+	public long getLastUpdateMillis() {
+		synchronized (lock) {
+			return frontMillis;
+		}
+	}
+
+	public int getBinCount() {
+		return fft.getBinCount();
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/** Center frequency of a bin in Hz, at the current sample rate */
+	public float getBinFrequency(int bin) {
+		return fft.getBinFrequency(bin, sampleRate);
+	}
+}
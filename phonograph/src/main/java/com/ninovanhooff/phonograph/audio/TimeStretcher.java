@@ -0,0 +1,244 @@
+package com.ninovanhooff.phonograph.audio;
+
+/**
+ * Changes the speed of interleaved 16 bit PCM without changing its pitch, using WSOLA
+ * (waveform similarity overlap-add).
+ *
+ * The input is cut into sequences of {@link #SEQUENCE_MILLIS} which are played at the original
+ * rate. Sequences start {@code speed} times further apart in the input than in the output, and
+ * consecutive sequences are cross-faded over {@link #OVERLAP_MILLIS}. The start of each sequence
+ * is moved within {@link #SEEK_MILLIS} to where the waveform best matches the end of the previous
+ * sequence, so the cross-fades do not cause phasing. The search is done on the channel mix, first
+ * in coarse steps and then refined around the best match.
+ *
+ * Streaming: feed blocks of at most the size given to the constructor to
+ * {@link #process(short[], int, short[])}. All buffers are allocated in the constructor.
+ * Not thread safe.
+ */
+public class TimeStretcher {
+
+	public static final float MIN_SPEED = 0.5f;
+	public static final float MAX_SPEED = 3f;
+
+	private static final int SEQUENCE_MILLIS = 40;
+	private static final int SEEK_MILLIS = 15;
+	private static final int OVERLAP_MILLIS = 8;
+	/** Offsets tried in the coarse search */
+	private static final int COARSE_STEP = 4;
+
+	private final int channelCount;
+	private final int sequenceFrames;
+	private final int seekFrames;
+	private final int overlapFrames;
+	/** Output frames per sequence */
+	private final int hopFrames;
+	private final int maxInputFrames;
+
+	/** Interleaved input that was not consumed yet */
+	private final float[] input;
+	/** Channel mix of input, for the similarity search */
+	private final float[] inputMix;
+	private int inputFrames = 0;
+	/** Start of the next sequence without search, relative to the start of input */
+	private double position = 0;
+	/** Last overlapFrames of the previous sequence, to cross-fade with the next */
+	private final float[] tail;
+	private final float[] tailMix;
+	private boolean hasTail = false;
+
+	private float speed = 1f;
+
+	/**
+	 * @param maxInputFrames largest number of frames passed to a single
+	 * {@link #process(short[], int, short[])} call
+	 */
+	public TimeStretcher(int sampleRate, int channelCount, int maxInputFrames) {
+		this.channelCount = channelCount;
+		this.maxInputFrames = maxInputFrames;
+		sequenceFrames = sampleRate * SEQUENCE_MILLIS / 1000;
+		seekFrames = sampleRate * SEEK_MILLIS / 1000;
+		overlapFrames = sampleRate * OVERLAP_MILLIS / 1000;
+		hopFrames = sequenceFrames - overlapFrames;
+		int capacity = getRequiredFrames() + (int) Math.ceil(hopFrames * MAX_SPEED) + maxInputFrames;
+		input = new float[capacity * channelCount];
+		inputMix = new float[capacity];
+		tail = new float[overlapFrames * channelCount];
+		tailMix = new float[overlapFrames];
+	}
+
+	/** @param speed between {@link #MIN_SPEED} and {@link #MAX_SPEED}, 1 is the original speed */
+	public void setSpeed(float speed) {
+		this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+	}
+
+	public float getSpeed() {
+		return speed;
+	}
+
+	/** Drop all buffered audio, for example after a seek */
+	public void reset() {
+		inputFrames = 0;
+		position = 0;
+		hasTail = false;
+	}
+
+	/** Size of the output buffer, in frames, needed by one {@link #process(short[], int, short[])} call */
+	public int getMaxOutputFrames() {
+		int buffered = getRequiredFrames() + maxInputFrames;
+		return ((int) (buffered / (hopFrames * MIN_SPEED)) + 1) * hopFrames;
+	}
+
+	/**
+	 * Stretch the next block of input.
+	 * @param in interleaved samples
+	 * @param frames number of frames in {@code in}, at most the maxInputFrames of the constructor
+	 * @param out receives the interleaved output, see {@link #getMaxOutputFrames()}
+	 * @return number of frames written to {@code out}
+	 */
+	public int process(short[] in, int frames, short[] out) {
+		if (frames > maxInputFrames) {
+			throw new IllegalArgumentException("Too many frames: " + frames);
+		}
+		for (int f = 0; f < frames; f++) {
+			float mix = 0;
+			for (int c = 0; c < channelCount; c++) {
+				float sample = in[f * channelCount + c];
+				input[(inputFrames + f) * channelCount + c] = sample;
+				mix += sample;
+			}
+			inputMix[inputFrames + f] = mix;
+		}
+		inputFrames += frames;
+
+		int produced = 0;
+		while (position + getRequiredFrames() <= inputFrames) {
+			int start = (int) position;
+			if (hasTail) {
+				start += findBestOffset(start);
+				crossFade(start, out, produced);
+			} else {
+				copy(start, overlapFrames, out, produced);
+			}
+			produced += overlapFrames;
+			copy(start + overlapFrames, hopFrames - overlapFrames, out, produced);
+			produced += hopFrames - overlapFrames;
+			System.arraycopy(input, (start + hopFrames) * channelCount, tail, 0, overlapFrames * channelCount);
+			System.arraycopy(inputMix, start + hopFrames, tailMix, 0, overlapFrames);
+			hasTail = true;
+			position += hopFrames * speed;
+		}
+		compact();
+		return produced;
+	}
+
+	/**
+	 * Write what is left at the end of the input, without stretching, and reset.
+	 * @param out receives the interleaved output, see {@link #getMaxOutputFrames()}
+	 * @return number of frames written to {@code out}
+	 */
+	public int flush(short[] out) {
+		int start = (int) position;
+		int remaining = Math.max(0, inputFrames - start);
+		int produced = 0;
+		if (hasTail && remaining >= overlapFrames) {
+			crossFade(start, out, 0);
+			produced = overlapFrames;
+			start += overlapFrames;
+			remaining -= overlapFrames;
+		} else if (hasTail) {
+			for (int i = 0; i < overlapFrames * channelCount; i++) {
+				out[i] = clip(tail[i]);
+			}
+			produced = overlapFrames;
+			remaining = 0;
+		}
+		copy(start, remaining, out, produced);
+		produced += remaining;
+		reset();
+		return produced;
+	}
+
+	/** Input needed to produce the next sequence, counted from its position */
+	private int getRequiredFrames() {
+		return seekFrames + sequenceFrames;
+	}
+
+	/** Offset within the seek window where the input is most similar to the tail */
+	private int findBestOffset(int start) {
+		int best = 0;
+		float bestScore = -Float.MAX_VALUE;
+		for (int offset = 0; offset < seekFrames; offset += COARSE_STEP) {
+			float score = similarity(start + offset);
+			if (score > bestScore) {
+				bestScore = score;
+				best = offset;
+			}
+		}
+		int from = Math.max(0, best - COARSE_STEP + 1);
+		int to = Math.min(seekFrames - 1, best + COARSE_STEP - 1);
+		int coarse = best;
+		for (int offset = from; offset <= to; offset++) {
+			if (offset == coarse) {
+				continue;
+			}
+			float score = similarity(start + offset);
+			if (score > bestScore) {
+				bestScore = score;
+				best = offset;
+			}
+		}
+		return best;
+	}
+
+	/** Cross-correlation with the tail, normalized by the energy of the candidate */
+	private float similarity(int start) {
+		float correlation = 0;
+		float energy = 0;
+		for (int i = 0; i < overlapFrames; i++) {
+			float sample = inputMix[start + i];
+			correlation += tailMix[i] * sample;
+			energy += sample * sample;
+		}
+		return correlation / (float) Math.sqrt(energy + 1e-9f);
+	}
+
+	private void crossFade(int start, short[] out, int outFrame) {
+		for (int f = 0; f < overlapFrames; f++) {
+			float fadeIn = (float) f / overlapFrames;
+			for (int c = 0; c < channelCount; c++) {
+				int i = f * channelCount + c;
+				out[outFrame * channelCount + i] = clip(
+						tail[i] * (1 - fadeIn) + input[start * channelCount + i] * fadeIn);
+			}
+		}
+	}
+
+	private void copy(int start, int frames, short[] out, int outFrame) {
+		int from = start * channelCount;
+		int to = outFrame * channelCount;
+		for (int i = 0; i < frames * channelCount; i++) {
+			out[to + i] = clip(input[from + i]);
+		}
+	}
+
+	/** Discard the input before the next sequence */
+	private void compact() {
+		int drop = Math.min(inputFrames, (int) position);
+		if (drop == 0) {
+			return;
+		}
+		System.arraycopy(input, drop * channelCount, input, 0, (inputFrames - drop) * channelCount);
+		System.arraycopy(inputMix, drop, inputMix, 0, inputFrames - drop);
+		inputFrames -= drop;
+		position -= drop;
+	}
+
+	private static short clip(float sample) {
+		if (sample > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		} else if (sample < Short.MIN_VALUE) {
+			return Short.MIN_VALUE;
+		}
+		return (short) sample;
+	}
+}
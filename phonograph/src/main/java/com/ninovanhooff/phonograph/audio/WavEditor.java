@@ -0,0 +1,240 @@
+package com.ninovanhooff.phonograph.audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Trim, split and concatenate PCM WAV files without decoding.
+ *
+ * The audio data is copied between files with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}, which lets the kernel copy without passing the data
+ * through the Java heap, so the time spent is I/O time only. Every output gets a fresh canonical
+ * header; other chunks of the source, like LIST, are dropped. Positions are in frames: one sample
+ * of every channel.
+ *
+ * The waveform of a result does not have to be recomputed from the audio: use
+ * {@link #sliceWaveform(int[], long, long, long)} and {@link #concatWaveforms(List, long[])} on the
+ * amplitudes of the sources.
+ *
+ * On failure the output file is deleted and an IOException is thrown. The sources are never changed:
+ * an output that is also a source is rejected before anything is written.
+ */
+public class WavEditor {
+
+	private WavEditor() {}
+
+	/** Write the frames from startFrame up to endFrame of src to dst */
+	public static void trim(File src, File dst, long startFrame, long endFrame) throws IOException {
+		checkOutput(dst, Collections.singletonList(src));
+		WavHeader header = readPcmHeader(src);
+		startFrame = Math.max(0, startFrame);
+		endFrame = Math.min(header.getFrameCount(), endFrame);
+		if (endFrame <= startFrame) {
+			throw new IOException("Nothing left after trimming " + src);
+		}
+		long started = System.nanoTime();
+		int frameSize = header.getFrameSize();
+		long size = (endFrame - startFrame) * frameSize;
+		FileInputStream in = new FileInputStream(src);
+		try {
+			FileOutputStream out = new FileOutputStream(dst);
+			boolean success = false;
+			try {
+				FileChannel target = out.getChannel();
+				writeHeader(target, header, size);
+				transfer(in.getChannel(), header.getDataOffset() + startFrame * frameSize, size, target);
+				success = true;
+			} finally {
+				out.close();
+				if (!success) {
+					deleteOutput(dst);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		logDuration("Trimmed", size, started);
+	}
+
+	/**
+	 * Split src at the given frame. first receives the frames before it, second the rest.
+	 */
+	public static void split(File src, long frame, File first, File second) throws IOException {
+		checkOutput(first, Collections.singletonList(src));
+		checkOutput(second, Arrays.asList(src, first));
+		WavHeader header = readPcmHeader(src);
+		if (frame <= 0 || frame >= header.getFrameCount()) {
+			throw new IOException("Split position " + frame + " outside of " + src);
+		}
+		trim(src, first, 0, frame);
+		try {
+			trim(src, second, frame, header.getFrameCount());
+		} catch (IOException e) {
+			deleteOutput(first);
+			throw e;
+		}
+	}
+
+	/**
+	 * Join the audio of the sources in order. All sources must have the same format.
+	 */
+	public static void concat(List<File> sources, File dst) throws IOException {
+		if (sources.isEmpty()) {
+			throw new IOException("Nothing to concatenate");
+		}
+		checkOutput(dst, sources);
+		WavHeader[] headers = new WavHeader[sources.size()];
+		long size = 0;
+		for (int i = 0; i < headers.length; i++) {
+			headers[i] = readPcmHeader(sources.get(i));
+			if (!headers[i].isCompatible(headers[0])) {
+				throw new IOException("Format of " + sources.get(i) + " differs from " + sources.get(0));
+			}
+			// drop a partial frame at the end, it would shift all following channels
+			size += headers[i].getFrameCount() * headers[i].getFrameSize();
+		}
+		long started = System.nanoTime();
+		FileOutputStream out = new FileOutputStream(dst);
+		boolean success = false;
+		try {
+			FileChannel target = out.getChannel();
+			writeHeader(target, headers[0], size);
+			for (int i = 0; i < headers.length; i++) {
+				FileInputStream in = new FileInputStream(sources.get(i));
+				try {
+					transfer(in.getChannel(), headers[i].getDataOffset(),
+							headers[i].getFrameCount() * headers[i].getFrameSize(), target);
+				} finally {
+					in.close();
+				}
+			}
+			success = true;
+		} finally {
+			out.close();
+			if (!success) {
+				deleteOutput(dst);
+			}
+		}
+		logDuration("Concatenated", size, started);
+	}
+
+	/**
+	 * Amplitudes of a part of a recording. The amplitudes are assumed to be spread evenly over the
+	 * recording, like they are shown by the waveform.
+	 * @param amps amplitudes of the whole recording
+	 * @param frameCount length of the whole recording
+	 */
+	public static int[] sliceWaveform(int[] amps, long frameCount, long startFrame, long endFrame) {
+		if (amps == null || amps.length == 0 || frameCount <= 0) {
+			return new int[0];
+		}
+		int from = (int) Math.max(0, Math.min(amps.length, startFrame * amps.length / frameCount));
+		int to = (int) Math.max(from, Math.min(amps.length, (endFrame * amps.length + frameCount - 1) / frameCount));
+		int[] slice = new int[to - from];
+		System.arraycopy(amps, from, slice, 0, slice.length);
+		return slice;
+	}
+
+	/**
+	 * Amplitudes of concatenated recordings. Recordings can have a different number of
+	 * amplitudes per second, so each is resampled to the highest density among them, keeping peaks.
+	 * @param frameCounts length of each recording
+	 */
+	public static int[] concatWaveforms(List<int[]> amps, long[] frameCounts) {
+		double density = 0;
+		for (int i = 0; i < amps.size(); i++) {
+			if (amps.get(i) != null && frameCounts[i] > 0) {
+				density = Math.max(density, (double) amps.get(i).length / frameCounts[i]);
+			}
+		}
+		int[][] parts = new int[amps.size()][];
+		int total = 0;
+		for (int i = 0; i < amps.size(); i++) {
+			parts[i] = resample(amps.get(i), (int) Math.round(frameCounts[i] * density));
+			total += parts[i].length;
+		}
+		int[] result = new int[total];
+		int offset = 0;
+		for (int[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+
+	/** Stretch or shrink to length, using the peak of the covered amplitudes */
+	private static int[] resample(int[] amps, int length) {
+		int[] result = new int[length];
+		if (amps == null || amps.length == 0 || amps.length == length) {
+			return amps != null && amps.length == length ? amps.clone() : result;
+		}
+		for (int i = 0; i < length; i++) {
+			int from = (int) ((long) i * amps.length / length);
+			int to = Math.max(from + 1, (int) ((long) (i + 1) * amps.length / length));
+			int peak = 0;
+			for (int j = from; j < to && j < amps.length; j++) {
+				peak = Math.max(peak, amps[j]);
+			}
+			result[i] = peak;
+		}
+		return result;
+	}
+
+	private static WavHeader readPcmHeader(File file) throws IOException {
+		WavHeader header = WavHeader.read(file);
+		if (header.getAudioFormat() != WavHeader.FORMAT_PCM || header.getFrameSize() == 0) {
+			throw new IOException("Not a PCM WAVE file: " + file);
+		}
+		return header;
+	}
+
+	/** Opening dst for writing would truncate a source that is the same file */
+	private static void checkOutput(File dst, List<File> sources) throws IOException {
+		File output = dst.getCanonicalFile();
+		for (File source : sources) {
+			if (output.equals(source.getCanonicalFile())) {
+				throw new IOException("Output " + dst + " is also a source");
+			}
+		}
+	}
+
+	private static void writeHeader(FileChannel target, WavHeader header, long dataSize) throws IOException {
+		ByteBuffer buffer = WavHeader.createPcmHeader(header.getChannelCount(), header.getSampleRate(),
+				header.getBitsPerSample(), dataSize);
+		while (buffer.hasRemaining()) {
+			target.write(buffer);
+		}
+	}
+
+	/** transferTo may copy less than asked for, depending on the platform */
+	private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+		long done = 0;
+		while (done < count) {
+			long transferred = source.transferTo(position + done, count - done, target);
+			if (transferred <= 0) {
+				throw new IOException("Unexpected end of data at " + (position + done));
+			}
+			done += transferred;
+		}
+	}
+
+	private static void deleteOutput(File file) {
+		if (file.exists() && !file.delete()) {
+			Timber.e("Failed to delete incomplete output %s", file);
+		}
+	}
+
+	private static void logDuration(String operation, long bytes, long startedNanos) {
+		long millis = (System.nanoTime() - startedNanos) / 1000000;
+		Timber.d("%s %d MB in %d ms", operation, bytes / (1024 * 1024), millis);
+	}
+}
@@ -0,0 +1,184 @@
+package com.ninovanhooff.phonograph.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Format and location of the audio data of a RIFF WAVE file.
+ */
+public class WavHeader {
+
+	public static final int FORMAT_PCM = 1;
+	public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private static final int RIFF = 0x46464952; // "RIFF", little endian
+	private static final int WAVE = 0x45564157; // "WAVE"
+	private static final int FMT = 0x20746d66; // "fmt "
+	private static final int DATA = 0x61746164; // "data"
+	/** Size of the header written by {@link #createPcmHeader(int, int, int, long)} */
+	public static final int PCM_HEADER_SIZE = 44;
+	/** Largest data size a RIFF header can describe */
+	public static final long MAX_DATA_SIZE = 0xffffffffL - (PCM_HEADER_SIZE - 8);
+
+	private final int audioFormat;
+	private final int channelCount;
+	private final int sampleRate;
+	private final int bitsPerSample;
+	private final long dataOffset;
+	private final long dataSize;
+
+	private WavHeader(int audioFormat, int channelCount, int sampleRate, int bitsPerSample,
+					  long dataOffset, long dataSize) {
+		this.audioFormat = audioFormat;
+		this.channelCount = channelCount;
+		this.sampleRate = sampleRate;
+		this.bitsPerSample = bitsPerSample;
+		this.dataOffset = dataOffset;
+		this.dataSize = dataSize;
+	}
+
+	/**
+	 * Parse the chunks up to the start of the audio data.
+	 * The size of the data chunk is limited to the actual file length, because files that were
+	 * not finalized properly often declare a wrong size.
+	 * @throws IOException when the file is not a WAVE file
+	 */
+	public static WavHeader read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			long length = in.length();
+			if (length < 12 || readIntLe(in) != RIFF) {
+				throw new IOException("Not a RIFF file: " + file);
+			}
+			readIntLe(in); // RIFF size
+			if (readIntLe(in) != WAVE) {
+				throw new IOException("Not a WAVE file: " + file);
+			}
+			int audioFormat = -1;
+			int channelCount = 0;
+			int sampleRate = 0;
+			int bitsPerSample = 0;
+			while (in.getFilePointer() + 8 <= length) {
+				int id = readIntLe(in);
+				long size = readIntLe(in) & 0xffffffffL;
+				long start = in.getFilePointer();
+				if (id == FMT) {
+					audioFormat = readShortLe(in);
+					channelCount = readShortLe(in);
+					sampleRate = readIntLe(in);
+					readIntLe(in); // byte rate
+					readShortLe(in); // block align
+					bitsPerSample = readShortLe(in);
+					if (audioFormat == FORMAT_EXTENSIBLE && size >= 26) {
+						readShortLe(in); // extension size
+						readShortLe(in); // valid bits per sample
+						readIntLe(in); // channel mask
+						// the first two bytes of the sub format GUID hold the format code
+						audioFormat = readShortLe(in);
+					}
+				} else if (id == DATA) {
+					if (audioFormat < 0) {
+						throw new IOException("Missing fmt chunk: " + file);
+					}
+					long available = length - start;
+					long dataSize = size == 0 || size > available ? available : size;
+					return new WavHeader(audioFormat, channelCount, sampleRate, bitsPerSample, start, dataSize);
+				}
+				// chunks are word aligned
+				in.seek(start + size + (size & 1));
+			}
+			throw new IOException("Missing data chunk: " + file);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Canonical header of a PCM WAVE file, followed directly by the data.
+	 * @return buffer positioned at 0, ready to be written
+	 * @throws IOException when dataSize is larger than {@link #MAX_DATA_SIZE}
+	 */
+	public static ByteBuffer createPcmHeader(int channelCount, int sampleRate, int bitsPerSample, long dataSize) throws IOException {
+		if (dataSize > MAX_DATA_SIZE) {
+			throw new IOException("Data too large for a WAVE file: " + dataSize);
+		}
+		int blockAlign = channelCount * bitsPerSample / 8;
+		ByteBuffer header = ByteBuffer.allocate(PCM_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(RIFF);
+		header.putInt((int) (dataSize + PCM_HEADER_SIZE - 8));
+		header.putInt(WAVE);
+		header.putInt(FMT);
+		header.putInt(16);
+		header.putShort((short) FORMAT_PCM);
+		header.putShort((short) channelCount);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * blockAlign);
+		header.putShort((short) blockAlign);
+		header.putShort((short) bitsPerSample);
+		header.putInt(DATA);
+		header.putInt((int) dataSize);
+		header.flip();
+		return header;
+	}
+
+	/** Whether both contain audio in the same encoding, so their data can be joined */
+	public boolean isCompatible(WavHeader other) {
+		return audioFormat == other.audioFormat && channelCount == other.channelCount
+				&& sampleRate == other.sampleRate && bitsPerSample == other.bitsPerSample;
+	}
+
+	/** Whether this is 16 bit integer PCM with one or two channels, which AudioTrack plays on any device */
+	public boolean isPcm16() {
+		return audioFormat == FORMAT_PCM && bitsPerSample == 16 && (channelCount == 1 || channelCount == 2);
+	}
+
+	public int getAudioFormat() {
+		return audioFormat;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	/** Bytes per sample of all channels */
+	public int getFrameSize() {
+		return channelCount * bitsPerSample / 8;
+	}
+
+	/** Position of the first audio byte in the file */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/** Number of audio bytes */
+	public long getDataSize() {
+		return dataSize;
+	}
+
+	public long getFrameCount() {
+		return dataSize / getFrameSize();
+	}
+
+	public long getDurationMills() {
+		return getFrameCount() * 1000 / sampleRate;
+	}
+
+	private static int readIntLe(RandomAccessFile in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static int readShortLe(RandomAccessFile in) throws IOException {
+		return Short.reverseBytes(in.readShort()) & 0xffff;
+	}
+}
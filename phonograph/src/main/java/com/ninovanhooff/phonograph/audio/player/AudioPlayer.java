@@ -18,15 +18,22 @@ package com.ninovanhooff.phonograph.audio.player;
 
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.SystemClock;
 
+import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.PhonographConstants;
+import com.ninovanhooff.phonograph.audio.TimeStretcher;
 import com.ninovanhooff.phonograph.exception.AppException;
 import com.ninovanhooff.phonograph.exception.PermissionDeniedException;
 import com.ninovanhooff.phonograph.exception.PlayerDataSourceException;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -34,7 +41,12 @@ import timber.log.Timber;
 
 public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPreparedListener {
 
-	private List<PlayerContract.PlayerCallback> actionsListeners = new ArrayList<>();
+	/** Log a warning when switching to the next data takes longer than this */
+	private static final long NEXT_GAP_WARNING_MILLIS = 50;
+	/** The neighbours before and after the data in use */
+	private static final int PREWARM_POOL_SIZE = 2;
+
+	private final PlayerCallbackDispatcher callbacks = new PlayerCallbackDispatcher("AudioPlayer");
 
 	private MediaPlayer mediaPlayer;
 	private Timer timerProgress;
@@ -43,7 +55,46 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 	private long seekPos = 0;
 	private long pausePos = 0;
 	private String dataSource = null;
-
+	private float speed = 1f;
+
+	private final BackgroundQueue prewarmQueue = new BackgroundQueue("PlayerPrewarm");
+	/** Prepared players by data source, least recently used first. Guarded by itself. */
+	private final LinkedHashMap<String, MediaPlayer> prewarmed = new LinkedHashMap<String, MediaPlayer>(4, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MediaPlayer> eldest) {
+			if (size() > PREWARM_POOL_SIZE) {
+				eldest.getValue().release();
+				return true;
+			}
+			return false;
+		}
+	};
+	/** Data sources queued or being prepared for the pool. Guarded by {@link #prewarmed}. */
+	private final Set<String> prewarming = new HashSet<>();
+
+	/** Prepared while the current data plays and started by MediaPlayer when it completes */
+	private MediaPlayer nextPlayer;
+	private String nextDataSource = null;
+	private boolean isNextPrepared = false;
+	/** Whether MediaPlayer starts the next player by itself, otherwise it is started on completion */
+	private boolean isNextLinked = false;
+	/** Times at which the current data completed and the next data started, to measure the gap */
+	private long completionMillis = 0;
+	private long nextStartMillis = 0;
+
+	private final MediaPlayer.OnCompletionListener completionListener = new MediaPlayer.OnCompletionListener() {
+		@Override
+		public void onCompletion(MediaPlayer mp) {
+			if (mp == mediaPlayer && nextPlayer != null && isNextPrepared) {
+				completionMillis = SystemClock.uptimeMillis();
+				logNextGap();
+				continueWithNext();
+			} else {
+				stop();
+				callbacks.onStopPlay();
+			}
+		}
+	};
 
 	private static class SingletonHolder {
 		private static AudioPlayer singleton = new AudioPlayer();
@@ -61,17 +112,12 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 
 	@Override
 	public void addPlayerCallback(PlayerContract.PlayerCallback callback) {
-		if (callback != null) {
-			actionsListeners.add(callback);
-		}
+		callbacks.addCallback(callback);
 	}
 
 	@Override
 	public boolean removePlayerCallback(PlayerContract.PlayerCallback callback) {
-		if (callback != null) {
-			return actionsListeners.remove(callback);
-		}
-		return false;
+		return callbacks.removeCallback(callback);
 	}
 
 	@Override
@@ -79,24 +125,230 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 		if (mediaPlayer != null && dataSource != null && dataSource.equals(data)) {
 			//Do nothing
 		} else {
+			releaseNextPlayer();
 			dataSource = data;
-			restartPlayer();
+			MediaPlayer player = takePrewarmed(data);
+			if (player != null) {
+				usePrewarmed(player);
+			} else {
+				restartPlayer();
+			}
+		}
+	}
+
+	@Override
+	public void prewarm(final String data) {
+		if (data == null || data.equals(dataSource)) {
+			return;
+		}
+		synchronized (prewarmed) {
+			if (prewarmed.get(data) != null || !prewarming.add(data)) {
+				return;
+			}
+		}
+		// created here so that its events are delivered on this thread and not on the queue
+		final MediaPlayer player = new MediaPlayer();
+		prewarmQueue.postRunnable(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					player.setDataSource(data);
+					player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+					player.prepare();
+				} catch (IOException | IllegalArgumentException | IllegalStateException | SecurityException e) {
+					Timber.e(e);
+					player.release();
+					synchronized (prewarmed) {
+						prewarming.remove(data);
+					}
+					return;
+				}
+				synchronized (prewarmed) {
+					prewarming.remove(data);
+					if (prewarmed.containsKey(data)) {
+						player.release();
+					} else {
+						prewarmed.put(data, player);
+					}
+				}
+			}
+		});
+	}
+
+	/** @return the prepared player for the data, which is no longer part of the pool, or null */
+	private MediaPlayer takePrewarmed(String data) {
+		synchronized (prewarmed) {
+			return prewarmed.remove(data);
 		}
 	}
 
+	private void usePrewarmed(MediaPlayer player) {
+		if (mediaPlayer != null) {
+			if (isPlaying() || isPause) {
+				stop();
+			}
+			mediaPlayer.release();
+		}
+		mediaPlayer = player;
+		isPrepared = true;
+		isNextLinked = false;
+		isPause = false;
+		seekPos = 0;
+		pausePos = 0;
+	}
+
+	private void releasePrewarmed() {
+		synchronized (prewarmed) {
+			Iterator<MediaPlayer> players = prewarmed.values().iterator();
+			while (players.hasNext()) {
+				players.next().release();
+				players.remove();
+			}
+		}
+	}
+
+	@Override
+	public void setNextData(String data) {
+		if (data != null && data.equals(nextDataSource)) {
+			return;
+		}
+		releaseNextPlayer();
+		if (data == null) {
+			return;
+		}
+		nextDataSource = data;
+		try {
+			nextPlayer = takePrewarmed(data);
+			if (nextPlayer != null) {
+				isNextPrepared = true;
+			} else {
+				nextPlayer = new MediaPlayer();
+				nextPlayer.setDataSource(data);
+				nextPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+			}
+			nextPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+				@Override
+				public void onPrepared(MediaPlayer mp) {
+					if (mp == nextPlayer) {
+						isNextPrepared = true;
+						linkNextPlayer();
+					}
+				}
+			});
+			nextPlayer.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+				@Override
+				public boolean onInfo(MediaPlayer mp, int what, int extra) {
+					if (what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+						nextStartMillis = SystemClock.uptimeMillis();
+						logNextGap();
+						return true;
+					}
+					return false;
+				}
+			});
+			if (isNextPrepared) {
+				linkNextPlayer();
+			} else {
+				nextPlayer.prepareAsync();
+			}
+		} catch (IOException | IllegalArgumentException | IllegalStateException | SecurityException e) {
+			// Not fatal: playback will just stop at the end of the current data
+			Timber.e(e);
+			releaseNextPlayer();
+		}
+	}
+
+	/** Both events are posted to the main thread, in no particular order */
+	private void logNextGap() {
+		if (completionMillis > 0 && nextStartMillis > 0) {
+			long gap = Math.abs(nextStartMillis - completionMillis);
+			if (gap > NEXT_GAP_WARNING_MILLIS) {
+				Timber.w("Switched to next data after %d ms", gap);
+			} else {
+				Timber.d("Switched to next data after %d ms", gap);
+			}
+			completionMillis = 0;
+			nextStartMillis = 0;
+		}
+	}
+
+	/** Let MediaPlayer start the next player as soon as the current one completes */
+	private void linkNextPlayer() {
+		if (mediaPlayer != null && isPrepared && nextPlayer != null && isNextPrepared) {
+			try {
+				mediaPlayer.setNextMediaPlayer(nextPlayer);
+				isNextLinked = true;
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				Timber.e(e);
+			}
+		}
+	}
+
+	/**
+	 * Make the next player the current one. MediaPlayer already started it when it was linked,
+	 * otherwise it is started here.
+	 */
+	private void continueWithNext() {
+		MediaPlayer finished = mediaPlayer;
+		boolean started = isNextLinked;
+		mediaPlayer = nextPlayer;
+		dataSource = nextDataSource;
+		nextPlayer = null;
+		nextDataSource = null;
+		isNextPrepared = false;
+		isNextLinked = false;
+		isPrepared = true;
+		seekPos = 0;
+		pausePos = 0;
+		mediaPlayer.setOnCompletionListener(completionListener);
+		applyPlaybackSpeed();
+		if (!started) {
+			try {
+				mediaPlayer.start();
+				nextStartMillis = SystemClock.uptimeMillis();
+				logNextGap();
+			} catch (IllegalStateException e) {
+				Timber.e(e);
+			}
+		}
+		finished.setOnCompletionListener(null);
+		finished.release();
+		callbacks.onNextData(dataSource);
+	}
+
+	private void releaseNextPlayer() {
+		if (nextPlayer != null) {
+			if (mediaPlayer != null && isPrepared) {
+				try {
+					mediaPlayer.setNextMediaPlayer(null);
+				} catch (IllegalStateException e) {
+					Timber.e(e);
+				}
+			}
+			nextPlayer.release();
+			nextPlayer = null;
+		}
+		nextDataSource = null;
+		isNextPrepared = false;
+		isNextLinked = false;
+		completionMillis = 0;
+		nextStartMillis = 0;
+	}
+
 	private void restartPlayer() {
 		if (dataSource != null) {
 			try {
 				isPrepared = false;
+				isNextLinked = false;
 				mediaPlayer = new MediaPlayer();
 				mediaPlayer.setDataSource(dataSource);
 				mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 			} catch (IOException | IllegalArgumentException | IllegalStateException | SecurityException e) {
 				Timber.e(e);
 				if (e.getMessage().contains("Permission denied")) {
-					onError(new PermissionDeniedException());
+					callbacks.onError(new PermissionDeniedException());
 				} else {
-					onError(new PlayerDataSourceException());
+					callbacks.onError(new PlayerDataSourceException());
 				}
 			}
 		}
@@ -127,15 +379,10 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 						}
 					} else {
 						mediaPlayer.start();
+						applyPlaybackSpeed();
 						mediaPlayer.seekTo((int) pausePos);
-						onStartPlay();
-						mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-							@Override
-							public void onCompletion(MediaPlayer mp) {
-								stop();
-								onStopPlay();
-							}
-						});
+						callbacks.onStartPlay();
+						mediaPlayer.setOnCompletionListener(completionListener);
 
 						timerProgress = new Timer();
 						timerProgress.schedule(new TimerTask() {
@@ -144,7 +391,7 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 								try {
 									if (mediaPlayer != null && mediaPlayer.isPlaying()) {
 										int curPos = mediaPlayer.getCurrentPosition();
-										onPlayProgress(curPos);
+										callbacks.onPlayProgress(curPos);
 									}
 								} catch(IllegalStateException e){
 									Timber.e(e, "Player is not initialized!");
@@ -166,19 +413,16 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 			mediaPlayer.stop();
 			mediaPlayer.release();
 			mediaPlayer = mp;
+			isNextLinked = false;
 		}
-		onPreparePlay();
+		callbacks.onPreparePlay();
 		isPrepared = true;
+		linkNextPlayer();
 		mediaPlayer.start();
+		applyPlaybackSpeed();
 		mediaPlayer.seekTo((int) seekPos);
-		onStartPlay();
-		mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-			@Override
-			public void onCompletion(MediaPlayer mp) {
-				stop();
-				onStopPlay();
-			}
-		});
+		callbacks.onStartPlay();
+		mediaPlayer.setOnCompletionListener(completionListener);
 
 		timerProgress = new Timer();
 		timerProgress.schedule(new TimerTask() {
@@ -187,7 +431,7 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 				try {
 					if (mediaPlayer != null && mediaPlayer.isPlaying()) {
 						int curPos = mediaPlayer.getCurrentPosition();
-						onPlayProgress(curPos);
+						callbacks.onPlayProgress(curPos);
 					}
 				} catch(IllegalStateException e){
 					Timber.e(e, "Player is not initialized!");
@@ -196,16 +440,39 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 		}, 0, PhonographConstants.VISUALIZATION_INTERVAL);
 	}
 
+	/** Uses the time stretching of MediaPlayer, which is only available from Android 6 */
+	@Override
+	public void setPlaybackSpeed(float speed) {
+		this.speed = Math.max(TimeStretcher.MIN_SPEED, Math.min(TimeStretcher.MAX_SPEED, speed));
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+			Timber.w("Playback speed is not supported before Android 6");
+		} else if (isPlaying()) {
+			applyPlaybackSpeed();
+		}
+	}
+
+	/** Must only be called while playing: setting a speed starts a paused MediaPlayer */
+	private void applyPlaybackSpeed() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			try {
+				mediaPlayer.setPlaybackParams(mediaPlayer.getPlaybackParams().setSpeed(speed));
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				Timber.e(e);
+			}
+		}
+	}
+
 	@Override
 	public void seek(long mills) {
 		seekPos = mills;
-		if (isPause) {
+		if (isPause || (isPrepared && !isPlaying())) {
+			// a paused or prewarmed player starts from pausePos
 			pausePos = mills;
 		}
 		try {
 			if (mediaPlayer != null && mediaPlayer.isPlaying()) {
 				mediaPlayer.seekTo((int) seekPos);
-				onSeek((int) seekPos);
+				callbacks.onSeek((int) seekPos);
 			}
 		} catch(IllegalStateException e){
 			Timber.e(e, "Player is not initialized!");
@@ -221,7 +488,7 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 		if (mediaPlayer != null) {
 			if (mediaPlayer.isPlaying()) {
 				mediaPlayer.pause();
-				onPausePlay();
+				callbacks.onPausePlay();
 				seekPos = mediaPlayer.getCurrentPosition();
 				isPause = true;
 				pausePos = seekPos;
@@ -239,7 +506,7 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 			mediaPlayer.stop();
 			mediaPlayer.setOnCompletionListener(null);
 			isPrepared = false;
-			onStopPlay();
+			callbacks.onStopPlay();
 			mediaPlayer.getCurrentPosition();
 			seekPos = 0;
 		}
@@ -270,6 +537,8 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 	@Override
 	public void release() {
 		stop();
+		releaseNextPlayer();
+		releasePrewarmed();
 		if (mediaPlayer != null) {
 			mediaPlayer.release();
 			mediaPlayer = null;
@@ -277,62 +546,6 @@ public class AudioPlayer implements PlayerContract.Player, MediaPlayer.OnPrepare
 		isPrepared = false;
 		isPause = false;
 		dataSource = null;
-		actionsListeners.clear();
-	}
-
-	private void onPreparePlay() {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onPreparePlay();
-			}
-		}
-	}
-
-	private  void onStartPlay() {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onStartPlay();
-			}
-		}
-	}
-
-	private void onPlayProgress(long mills) {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onPlayProgress(mills);
-			}
-		}
-	}
-
-	private void onStopPlay() {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = actionsListeners.size()-1; i >= 0; i--) {
-				actionsListeners.get(i).onStopPlay();
-			}
-		}
-	}
-
-	private void onPausePlay() {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onPausePlay();
-			}
-		}
-	}
-
-	private void onSeek(long mills) {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onSeek(mills);
-			}
-		}
-	}
-
-	private void onError(AppException throwable) {
-		if (!actionsListeners.isEmpty()) {
-			for (int i = 0; i < actionsListeners.size(); i++) {
-				actionsListeners.get(i).onError(throwable);
-			}
-		}
+		callbacks.clear();
 	}
 }
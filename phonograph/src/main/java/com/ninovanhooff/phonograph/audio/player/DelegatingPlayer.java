@@ -0,0 +1,209 @@
+package com.ninovanhooff.phonograph.audio.player;
+
+import com.ninovanhooff.phonograph.BackgroundQueue;
+import com.ninovanhooff.phonograph.util.AndroidUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plays PCM WAV files with {@link WavPlayer} and everything else with {@link AudioPlayer}.
+ * The player is chosen on {@link #setData(String)}; callbacks are registered with both.
+ *
+ * Choosing reads the header of a WAV file, so the choice is cached per path. Prewarmed and
+ * queued data is resolved in the background; only {@link #setData(String)} of data that was not
+ * seen before reads the header on the calling thread.
+ */
+public class DelegatingPlayer implements PlayerContract.Player {
+
+	/** Paths whose player is remembered */
+	private static final int CHOICE_CACHE_SIZE = 64;
+
+	private final PlayerContract.Player wavPlayer;
+	private final PlayerContract.Player mediaPlayer;
+	private PlayerContract.Player active;
+
+	private final BackgroundQueue resolveQueue = new BackgroundQueue("PlayerChoice");
+	/** Whether {@link WavPlayer} plays a path, least recently used first. Guarded by itself. */
+	private final LinkedHashMap<String, Boolean> wavChoices = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > CHOICE_CACHE_SIZE;
+		}
+	};
+	/** Data passed to {@link #setNextData(String)} while its player is resolved. Used on the main thread. */
+	private String resolvingNext;
+
+	private static class SingletonHolder {
+		private static DelegatingPlayer singleton = new DelegatingPlayer(
+				WavPlayer.getInstance(), AudioPlayer.getInstance());
+
+		public static DelegatingPlayer getSingleton() {
+			return SingletonHolder.singleton;
+		}
+	}
+
+	public static DelegatingPlayer getInstance() {
+		return SingletonHolder.getSingleton();
+	}
+
+	private DelegatingPlayer(PlayerContract.Player wavPlayer, PlayerContract.Player mediaPlayer) {
+		this.wavPlayer = wavPlayer;
+		this.mediaPlayer = mediaPlayer;
+		this.active = mediaPlayer;
+	}
+
+	@Override
+	public void addPlayerCallback(PlayerContract.PlayerCallback callback) {
+		wavPlayer.addPlayerCallback(callback);
+		mediaPlayer.addPlayerCallback(callback);
+	}
+
+	@Override
+	public boolean removePlayerCallback(PlayerContract.PlayerCallback callback) {
+		boolean removed = wavPlayer.removePlayerCallback(callback);
+		return mediaPlayer.removePlayerCallback(callback) || removed;
+	}
+
+	@Override
+	public void setData(String data) {
+		resolvingNext = null;
+		PlayerContract.Player player = isWav(data) ? wavPlayer : mediaPlayer;
+		if (player != active) {
+			if (active.isPlaying() || active.isPause()) {
+				active.stop();
+			}
+			active = player;
+		}
+		active.setData(data);
+	}
+
+	/**
+	 * Queued data is only played without a gap by the player of the current data.
+	 * Data for the other player is not queued and playback stops at the end of the current data.
+	 */
+	@Override
+	public void setNextData(final String data) {
+		resolvingNext = null;
+		Boolean wav = data != null ? cachedIsWav(data) : null;
+		if (data != null && wav == null) {
+			active.setNextData(null);
+			resolvingNext = data;
+			resolve(data, new Runnable() {
+				@Override
+				public void run() {
+					// unless other data was set or queued meanwhile
+					if (data.equals(resolvingNext)) {
+						resolvingNext = null;
+						setNextData(data);
+					}
+				}
+			});
+		} else if (data != null && (wav ? wavPlayer : mediaPlayer) == active) {
+			active.setNextData(data);
+		} else {
+			active.setNextData(null);
+		}
+	}
+
+	@Override
+	public void prewarm(final String data) {
+		if (data == null) {
+			return;
+		}
+		Boolean wav = cachedIsWav(data);
+		if (wav != null) {
+			(wav ? wavPlayer : mediaPlayer).prewarm(data);
+		} else {
+			resolve(data, new Runnable() {
+				@Override
+				public void run() {
+					prewarm(data);
+				}
+			});
+		}
+	}
+
+	/** @return whether WavPlayer plays the data, or null when that is not known yet */
+	private Boolean cachedIsWav(String data) {
+		synchronized (wavChoices) {
+			return wavChoices.get(data);
+		}
+	}
+
+	/** Whether WavPlayer plays the data, reads the header when that is not known yet */
+	private boolean isWav(String data) {
+		if (data == null) {
+			return false;
+		}
+		Boolean wav = cachedIsWav(data);
+		if (wav == null) {
+			wav = WavPlayer.canPlay(data);
+			synchronized (wavChoices) {
+				wavChoices.put(data, wav);
+			}
+		}
+		return wav;
+	}
+
+	/** Find the player of the data in the background, then run onResolved on the main thread */
+	private void resolve(final String data, final Runnable onResolved) {
+		resolveQueue.postRunnable(new Runnable() {
+			@Override
+			public void run() {
+				isWav(data);
+				AndroidUtils.runOnUIThread(onResolved);
+			}
+		});
+	}
+
+	@Override
+	public void playOrPause() {
+		active.playOrPause();
+	}
+
+	@Override
+	public void seek(long mills) {
+		active.seek(mills);
+	}
+
+	/** Both players keep the speed, so it does not change when switching between them */
+	@Override
+	public void setPlaybackSpeed(float speed) {
+		wavPlayer.setPlaybackSpeed(speed);
+		mediaPlayer.setPlaybackSpeed(speed);
+	}
+
+	@Override
+	public void pause() {
+		active.pause();
+	}
+
+	@Override
+	public void stop() {
+		active.stop();
+	}
+
+	@Override
+	public boolean isPlaying() {
+		return active.isPlaying();
+	}
+
+	@Override
+	public boolean isPause() {
+		return active.isPause();
+	}
+
+	@Override
+	public long getPauseTime() {
+		return active.getPauseTime();
+	}
+
+	@Override
+	public void release() {
+		resolvingNext = null;
+		wavPlayer.release();
+		mediaPlayer.release();
+		active = mediaPlayer;
+	}
+}
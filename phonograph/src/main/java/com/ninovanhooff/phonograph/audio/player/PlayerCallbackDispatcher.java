@@ -0,0 +1,217 @@
+package com.ninovanhooff.phonograph.audio.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.ninovanhooff.phonograph.exception.AppException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Delivers player events to the registered callbacks on the main thread.
+ *
+ * Callbacks may be added and removed from any thread while events are delivered. Events raised on
+ * the main thread are delivered right away, others are posted in order. Progress is coalesced:
+ * it is delivered at most once per display frame, with the newest position. Any other event
+ * discards progress that was not delivered yet, so progress never arrives after a stop or seek.
+ */
+public class PlayerCallbackDispatcher implements PlayerContract.PlayerCallback {
+
+	private static final long NO_PROGRESS = -1;
+
+	private final String name;
+	private final List<PlayerContract.PlayerCallback> callbacks = new CopyOnWriteArrayList<>();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final AtomicLong pendingProgress = new AtomicLong(NO_PROGRESS);
+	private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+
+	/** Progress statistics of the current playback, logged when it stops */
+	private final AtomicLong progressReceived = new AtomicLong();
+	private long progressDelivered = 0;
+	private long progressDeliveryNanos = 0;
+
+	private final Choreographer.FrameCallback progressFrame = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			frameScheduled.set(false);
+			long mills = pendingProgress.getAndSet(NO_PROGRESS);
+			if (mills != NO_PROGRESS) {
+				long start = System.nanoTime();
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onPlayProgress(mills);
+				}
+				progressDeliveryNanos += System.nanoTime() - start;
+				progressDelivered++;
+			}
+		}
+	};
+
+	private final Runnable scheduleProgressFrame = new Runnable() {
+		@Override
+		public void run() {
+			Choreographer.getInstance().postFrameCallback(progressFrame);
+		}
+	};
+
+	/** @param name of the player, for logging */
+	public PlayerCallbackDispatcher(String name) {
+		this.name = name;
+	}
+
+	public void addCallback(PlayerContract.PlayerCallback callback) {
+		if (callback != null) {
+			callbacks.add(callback);
+		}
+	}
+
+	public boolean removeCallback(PlayerContract.PlayerCallback callback) {
+		return callback != null && callbacks.remove(callback);
+	}
+
+	public void clear() {
+		callbacks.clear();
+	}
+
+	@Override
+	public void onPreparePlay() {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onPreparePlay();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onStartPlay() {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onStartPlay();
+				}
+			}
+		});
+	}
+
+	/** Safe to call at any rate from any thread */
+	@Override
+	public void onPlayProgress(long mills) {
+		progressReceived.incrementAndGet();
+		pendingProgress.set(mills);
+		if (frameScheduled.compareAndSet(false, true)) {
+			if (isMainThread()) {
+				scheduleProgressFrame.run();
+			} else {
+				handler.post(scheduleProgressFrame);
+			}
+		}
+	}
+
+	@Override
+	public void onStopPlay() {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				logProgressStatistics();
+				// in reverse, like the players always did
+				Object[] snapshot = callbacks.toArray();
+				for (int i = snapshot.length - 1; i >= 0; i--) {
+					((PlayerContract.PlayerCallback) snapshot[i]).onStopPlay();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onPausePlay() {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onPausePlay();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onSeek(final long mills) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onSeek(mills);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onNextData(final String data) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onNextData(data);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onError(final AppException throwable) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (PlayerContract.PlayerCallback callback : callbacks) {
+					callback.onError(throwable);
+				}
+			}
+		});
+	}
+
+	private void dispatch(final Runnable event) {
+		if (callbacks.isEmpty()) {
+			return;
+		}
+		if (isMainThread()) {
+			pendingProgress.set(NO_PROGRESS);
+			event.run();
+		} else {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					pendingProgress.set(NO_PROGRESS);
+					event.run();
+				}
+			});
+		}
+	}
+
+	/** Runs on the main thread */
+	private void logProgressStatistics() {
+		long received = progressReceived.getAndSet(0);
+		if (received > 0 && progressDelivered > 0) {
+			float deliveryMillis = progressDeliveryNanos / 1000000f;
+			long skipped = received - progressDelivered;
+			Timber.d("%s: delivered %d of %d progress events in %.1f ms on the main thread, coalescing saved about %.1f ms",
+					name, progressDelivered, received, deliveryMillis, deliveryMillis * skipped / progressDelivered);
+		}
+		progressDelivered = 0;
+		progressDeliveryNanos = 0;
+	}
+
+	private static boolean isMainThread() {
+		return Looper.myLooper() == Looper.getMainLooper();
+	}
+}
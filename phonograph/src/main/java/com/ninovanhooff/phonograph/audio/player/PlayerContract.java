@@ -27,6 +27,8 @@ public interface PlayerContract {
 		void onStopPlay();
 		void onPausePlay();
 		void onSeek(long mills);
+		/** Playback continued with the data queued by {@link Player#setNextData(String)} */
+		void onNextData(String data);
 		void onError(AppException throwable);
 	}
 
@@ -34,8 +36,26 @@ public interface PlayerContract {
 		void addPlayerCallback(PlayerContract.PlayerCallback callback);
 		boolean removePlayerCallback(PlayerContract.PlayerCallback callback);
 		void setData(String data);
+		/**
+		 * Queue data to continue with when the current data finishes, without a gap. The next data
+		 * is prepared while the current data plays. Pass null to clear the queue.
+		 * {@link #setData(String)} with other data also clears the queue.
+		 */
+		void setNextData(String data);
+		/**
+		 * Prepare data that is likely to be played soon in the background, so that
+		 * {@link #setData(String)} and {@link #playOrPause()} start it without delay.
+		 * Only the two most recently prewarmed data are kept, and data that is already prewarmed or
+		 * being prewarmed is skipped. Call on the main thread.
+		 */
+		void prewarm(String data);
 		void playOrPause();
 		void seek(long mills);
+		/**
+		 * Play faster or slower without changing the pitch. Applies to the current and later data.
+		 * @param speed 1 is the original speed, supported are 0.5 to 3
+		 */
+		void setPlaybackSpeed(float speed);
 		void pause();
 		void stop();
 		boolean isPlaying();
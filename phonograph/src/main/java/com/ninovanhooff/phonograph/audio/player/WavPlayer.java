@@ -0,0 +1,691 @@
+package com.ninovanhooff.phonograph.audio.player;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.ninovanhooff.phonograph.BackgroundQueue;
+import com.ninovanhooff.phonograph.PhonographConstants;
+import com.ninovanhooff.phonograph.audio.TimeStretcher;
+import com.ninovanhooff.phonograph.audio.WavHeader;
+import com.ninovanhooff.phonograph.exception.AppException;
+import com.ninovanhooff.phonograph.exception.PermissionDeniedException;
+import com.ninovanhooff.phonograph.exception.PlayerDataSourceException;
+import com.ninovanhooff.phonograph.exception.PlayerInitException;
+import com.ninovanhooff.phonograph.util.AndroidUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Player for 16 bit PCM WAV files.
+ *
+ * The audio data is memory mapped and written straight from the mapping into an {@link AudioTrack}
+ * in streaming mode by a dedicated feeder thread. There is no prepare step, seeks are sample
+ * accurate and the position is derived from {@link AudioTrack#getPlaybackHeadPosition()}.
+ * Use {@link #canPlay(String)} to check whether a file is supported. {@link #prewarm(String)} maps
+ * a file and pages in its start in the background, and the track is reused while the format stays
+ * the same.
+ *
+ * Data queued with {@link #setNextData(String)} is written to the same track right after the end of
+ * the current data when it has the same sample rate and channel count, so there is no gap at all.
+ * Other formats are started on a new track after the current data completes.
+ *
+ * At other speeds than 1 the audio passes through a {@link TimeStretcher}, so the pitch does not
+ * change. The CPU time spent stretching is logged when the feeder stops.
+ *
+ * Callbacks are delivered on the main thread by a {@link PlayerCallbackDispatcher}.
+ * State queries do not lock, so they are safe to call from callbacks.
+ */
+public class WavPlayer implements PlayerContract.Player {
+
+	/** Audio written per call. Small enough to keep progress updates and pausing responsive */
+	private static final int CHUNK_MILLIS = 20;
+	/** The neighbours before and after the data in use */
+	private static final int PREWARM_POOL_SIZE = 2;
+	/** Audio paged in by {@link #prewarm(String)} */
+	private static final int PREWARM_MILLIS = 1000;
+	private static final int PAGE_SIZE = 4096;
+
+	private final PlayerCallbackDispatcher callbacks = new PlayerCallbackDispatcher("WavPlayer");
+
+	private volatile String dataSource = null;
+	private volatile WavHeader header;
+	/** Audio data of dataSource */
+	private volatile ByteBuffer data;
+	private volatile long frameCount;
+	private volatile AudioTrack audioTrack;
+
+	private Thread feeder;
+	private volatile boolean feeding = false;
+	private volatile boolean isPause = false;
+	/** Frame that was played when the playback head position was 0 */
+	private volatile long headStartFrame = 0;
+	/** Source frames played per frame of the track */
+	private volatile float speed = 1f;
+	/** Created with the track, used when the speed is not 1 */
+	private TimeStretcher stretcher;
+	/** Frame to start feeding from on the next start */
+	private volatile long startFrame = 0;
+	/** Data to continue with when dataSource completes */
+	private volatile Source next;
+
+	private final BackgroundQueue prewarmQueue = new BackgroundQueue("WavPrewarm");
+	/** Mapped data by path, least recently used first. Guarded by itself. */
+	private final LinkedHashMap<String, Source> prewarmed = new LinkedHashMap<String, Source>(4, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+			return size() > PREWARM_POOL_SIZE;
+		}
+	};
+	/** Paths queued or being mapped for the pool. Guarded by {@link #prewarmed}. */
+	private final Set<String> prewarming = new HashSet<>();
+
+	/** Mapped audio data of a file */
+	private static class Source {
+		final String path;
+		final WavHeader header;
+		final ByteBuffer data;
+		final long frameCount;
+
+		Source(String path, WavHeader header, ByteBuffer data, long frameCount) {
+			this.path = path;
+			this.header = header;
+			this.data = data;
+			this.frameCount = frameCount;
+		}
+	}
+
+	private static class SingletonHolder {
+		private static WavPlayer singleton = new WavPlayer();
+
+		public static WavPlayer getSingleton() {
+			return SingletonHolder.singleton;
+		}
+	}
+
+	public static WavPlayer getInstance() {
+		return SingletonHolder.getSingleton();
+	}
+
+	private WavPlayer() {}
+
+	/** Whether the file is a WAV file in a format this player supports */
+	public static boolean canPlay(String path) {
+		if (path == null || !path.toLowerCase().endsWith(PhonographConstants.EXTENSION_SEPARATOR + PhonographConstants.WAV_EXTENSION)) {
+			return false;
+		}
+		try {
+			return WavHeader.read(new File(path)).isPcm16();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void addPlayerCallback(PlayerContract.PlayerCallback callback) {
+		callbacks.addCallback(callback);
+	}
+
+	@Override
+	public boolean removePlayerCallback(PlayerContract.PlayerCallback callback) {
+		return callbacks.removeCallback(callback);
+	}
+
+	@Override
+	public synchronized void setData(String path) {
+		if (data != null && dataSource != null && dataSource.equals(path)) {
+			//Do nothing
+			return;
+		}
+		if (isPlaying() || isPause) {
+			stop();
+		}
+		WavHeader previous = header;
+		data = null;
+		dataSource = path;
+		startFrame = 0;
+		next = null;
+		if (path == null) {
+			releaseTrack();
+			return;
+		}
+		try {
+			Source source = takePrewarmed(path);
+			if (source == null) {
+				source = load(path);
+			}
+			header = source.header;
+			data = source.data;
+			frameCount = source.frameCount;
+			// creating a track takes long, keep it when the format did not change
+			if (previous == null || !isSameFormat(previous, header)) {
+				releaseTrack();
+			}
+		} catch (IOException | SecurityException e) {
+			Timber.e(e);
+			releaseTrack();
+			data = null;
+			if (e.getMessage() != null && e.getMessage().contains("Permission denied")) {
+				callbacks.onError(new PermissionDeniedException());
+			} else {
+				callbacks.onError(new PlayerDataSourceException());
+			}
+		}
+	}
+
+	@Override
+	public synchronized void setNextData(String path) {
+		Source queued = next;
+		if (path == null) {
+			next = null;
+			return;
+		}
+		if (queued != null && queued.path.equals(path)) {
+			return;
+		}
+		try {
+			Source source = takePrewarmed(path);
+			next = source != null ? source : load(path);
+		} catch (IOException | SecurityException e) {
+			// Not fatal: playback will just stop at the end of the current data
+			Timber.e(e);
+			next = null;
+		}
+	}
+
+	@Override
+	public void prewarm(final String path) {
+		if (path == null || path.equals(dataSource)) {
+			return;
+		}
+		synchronized (prewarmed) {
+			if (prewarmed.get(path) != null || !prewarming.add(path)) {
+				return;
+			}
+		}
+		prewarmQueue.postRunnable(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Source source = load(path);
+					// page in the start, so the first writes do not wait for the disk
+					int end = Math.min(source.data.capacity(), source.header.getSampleRate()
+							* source.header.getFrameSize() / 1000 * PREWARM_MILLIS);
+					for (int i = 0; i < end; i += PAGE_SIZE) {
+						source.data.get(i);
+					}
+					synchronized (prewarmed) {
+						prewarmed.put(path, source);
+					}
+				} catch (IOException | SecurityException e) {
+					Timber.e(e);
+				} finally {
+					synchronized (prewarmed) {
+						prewarming.remove(path);
+					}
+				}
+			}
+		});
+	}
+
+	/** @return the prewarmed data, which is no longer part of the pool, or null */
+	private Source takePrewarmed(String path) {
+		synchronized (prewarmed) {
+			return prewarmed.remove(path);
+		}
+	}
+
+	private static Source load(String path) throws IOException {
+		File file = new File(path);
+		WavHeader header = readHeader(file);
+		ByteBuffer data = map(file, header);
+		return new Source(path, header, data, data.capacity() / header.getFrameSize());
+	}
+
+	private static WavHeader readHeader(File file) throws IOException {
+		WavHeader header = WavHeader.read(file);
+		if (!header.isPcm16()) {
+			throw new IOException("Unsupported WAV format " + header.getAudioFormat()
+					+ ", " + header.getBitsPerSample() + " bits");
+		}
+		return header;
+	}
+
+	private static ByteBuffer map(File file, WavHeader header) throws IOException {
+		int frameSize = header.getFrameSize();
+		// a mapping is limited to 2GB, which is more than 3 hours of 48 kHz stereo
+		long size = Math.min(header.getDataSize(), Integer.MAX_VALUE / frameSize * frameSize);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			// the mapping stays valid after the channel is closed
+			return in.getChannel().map(FileChannel.MapMode.READ_ONLY, header.getDataOffset(), size);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Whether the data can be written to the current track without reconfiguring it */
+	private boolean isContinuous(WavHeader nextHeader) {
+		WavHeader h = header;
+		return h != null && isSameFormat(h, nextHeader);
+	}
+
+	private static boolean isSameFormat(WavHeader a, WavHeader b) {
+		return a.getSampleRate() == b.getSampleRate() && a.getChannelCount() == b.getChannelCount();
+	}
+
+	@Override
+	public synchronized void playOrPause() {
+		if (isPlaying()) {
+			pause();
+			return;
+		}
+		if (data == null) {
+			return;
+		}
+		if (audioTrack == null) {
+			if (!createTrack()) {
+				return;
+			}
+			callbacks.onPreparePlay();
+		}
+		isPause = false;
+		audioTrack.flush();
+		headStartFrame = startFrame;
+		try {
+			audioTrack.play();
+		} catch (IllegalStateException e) {
+			Timber.e(e);
+			callbacks.onError(new PlayerInitException());
+			return;
+		}
+		callbacks.onStartPlay();
+		startFeeder(audioTrack, data.duplicate(), header.getFrameSize(), header.getSampleRate());
+	}
+
+	private boolean createTrack() {
+		int channelConfig = header.getChannelCount() == 1
+				? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+		int minBufferSize = AudioTrack.getMinBufferSize(
+				header.getSampleRate(), channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+		if (minBufferSize <= 0) {
+			Timber.e("Unsupported output format: %d Hz, %d channels", header.getSampleRate(), header.getChannelCount());
+			callbacks.onError(new PlayerInitException());
+			return false;
+		}
+		try {
+			audioTrack = new AudioTrack(
+					AudioManager.STREAM_MUSIC,
+					header.getSampleRate(),
+					channelConfig,
+					AudioFormat.ENCODING_PCM_16BIT,
+					2 * minBufferSize,
+					AudioTrack.MODE_STREAM);
+		} catch (IllegalArgumentException e) {
+			Timber.e(e);
+			callbacks.onError(new PlayerInitException());
+			return false;
+		}
+		if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+			audioTrack.release();
+			audioTrack = null;
+			callbacks.onError(new PlayerInitException());
+			return false;
+		}
+		stretcher = new TimeStretcher(header.getSampleRate(), header.getChannelCount(),
+				header.getSampleRate() * CHUNK_MILLIS / 1000);
+		return true;
+	}
+
+	private void startFeeder(final AudioTrack track, final ByteBuffer buffer, final int frameSize, final int sampleRate) {
+		feeding = true;
+		final long fromFrame = startFrame;
+		final TimeStretcher ts = speed == 1f ? null : stretcher;
+		if (ts != null) {
+			ts.reset();
+			ts.setSpeed(speed);
+		}
+		feeder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				feed(track, buffer, frameSize, sampleRate, fromFrame, ts);
+			}
+		}, "WavPlayer");
+		feeder.start();
+	}
+
+	/**
+	 * Runs on the feeder thread.
+	 * @param ts stretches the audio to the current speed, or null to write the data as is
+	 */
+	private void feed(AudioTrack track, ByteBuffer buffer, int frameSize, int sampleRate, long frame, TimeStretcher ts) {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+		int chunkFrames = sampleRate * CHUNK_MILLIS / 1000;
+		int channelCount = frameSize / 2;
+		float feedSpeed = ts == null ? 1f : ts.getSpeed();
+		short[] in = null;
+		short[] out = null;
+		if (ts != null) {
+			in = new short[chunkFrames * channelCount];
+			out = new short[ts.getMaxOutputFrames() * channelCount];
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		long stretchNanos = 0;
+		long stretchedFrames = 0;
+		long lastProgressMillis = 0;
+		long endFrame = frameCount;
+		// frames written to the track, its playback head position once they are played
+		long writtenHead = 0;
+		// playback head position of the first frame of buffer
+		double bufferHead = -headStartFrame / feedSpeed;
+		// data written after the current data, which starts playing at bufferHead
+		Source pending = null;
+		while (feeding) {
+			if (frame >= endFrame) {
+				Source queued = next;
+				if (pending != null || queued == null || !isContinuous(queued.header)) {
+					break;
+				}
+				// keep the track fed: the queued data plays right after the last written frame
+				pending = queued;
+				bufferHead += endFrame / feedSpeed;
+				buffer = queued.data.duplicate();
+				if (ts != null) {
+					buffer.order(ByteOrder.LITTLE_ENDIAN);
+				}
+				frame = 0;
+				endFrame = queued.frameCount;
+				continue;
+			}
+			int frames = (int) Math.min(chunkFrames, endFrame - frame);
+			buffer.limit(buffer.capacity());
+			buffer.position((int) (frame * frameSize));
+			buffer.limit((int) ((frame + frames) * frameSize));
+			int written;
+			if (ts == null) {
+				// returns early when the track is paused
+				written = track.write(buffer, frames * frameSize, AudioTrack.WRITE_BLOCKING);
+				if (written > 0) {
+					written /= frameSize;
+					frame += written;
+				}
+			} else {
+				buffer.asShortBuffer().get(in, 0, frames * channelCount);
+				long startNanos = System.nanoTime();
+				int produced = ts.process(in, frames, out);
+				stretchNanos += System.nanoTime() - startNanos;
+				stretchedFrames += frames;
+				written = writeFully(track, out, produced * channelCount);
+				if (written > 0) {
+					written /= channelCount;
+				}
+				frame += frames;
+			}
+			if (written < 0) {
+				Timber.e("AudioTrack write failed: %d", written);
+				if (feeding) {
+					callbacks.onError(new PlayerInitException());
+				}
+				break;
+			}
+			writtenHead += written;
+			if (pending != null && maybeSwitchToNext(track, pending, (long) bufferHead, sampleRate)) {
+				pending = null;
+			}
+			lastProgressMillis = maybeNotifyProgress(track, sampleRate, lastProgressMillis);
+		}
+		if (ts != null && stretchedFrames > 0) {
+			Timber.d("Time stretch at %.2fx: %.2f ms CPU per second of audio", feedSpeed,
+					stretchNanos / 1000000d * sampleRate / stretchedFrames);
+		}
+		if (!feeding) {
+			return;
+		}
+		if (frame >= endFrame) {
+			if (ts != null) {
+				int written = writeFully(track, out, ts.flush(out) * channelCount);
+				if (written > 0) {
+					writtenHead += written / channelCount;
+				}
+			}
+			// play out the data remaining in the track buffer, then finish
+			track.stop();
+			while (feeding && (track.getPlaybackHeadPosition() & 0xffffffffL) < writtenHead) {
+				SystemClock.sleep(CHUNK_MILLIS);
+				if (pending != null && maybeSwitchToNext(track, pending, (long) bufferHead, sampleRate)) {
+					pending = null;
+				}
+				lastProgressMillis = maybeNotifyProgress(track, sampleRate, lastProgressMillis);
+			}
+		}
+		final Thread completed = Thread.currentThread();
+		AndroidUtils.runOnUIThread(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (WavPlayer.this) {
+					if (feeder == completed && feeding) {
+						Source queued = next;
+						if (queued != null) {
+							// different format, continue on a new track without reporting a stop
+							stopTrack(false);
+							setData(queued.path);
+							callbacks.onNextData(queued.path);
+							playOrPause();
+						} else {
+							stop();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write all samples unless the track is paused or fails.
+	 * @return number of samples written or a negative error code
+	 */
+	private int writeFully(AudioTrack track, short[] samples, int count) {
+		int offset = 0;
+		while (feeding && offset < count) {
+			int written = track.write(samples, offset, count - offset);
+			if (written < 0) {
+				return written;
+			} else if (written == 0) {
+				// paused
+				break;
+			}
+			offset += written;
+		}
+		return offset;
+	}
+
+	/**
+	 * Make the pending data current once the playback head reaches it.
+	 * @return whether the switch was made
+	 */
+	private boolean maybeSwitchToNext(AudioTrack track, Source pending, long switchHead, int sampleRate) {
+		long head = track.getPlaybackHeadPosition() & 0xffffffffL;
+		if (head < switchHead) {
+			return false;
+		}
+		headStartFrame = -(long) (switchHead * speed);
+		header = pending.header;
+		data = pending.data;
+		frameCount = pending.frameCount;
+		dataSource = pending.path;
+		if (next == pending) {
+			next = null;
+		}
+		// the audio itself is continuous, this is only the delay of the position update
+		Timber.d("Continued with next data, position updated after %d ms", (head - switchHead) * 1000 / sampleRate);
+		callbacks.onNextData(pending.path);
+		return true;
+	}
+
+	private long maybeNotifyProgress(AudioTrack track, int sampleRate, long lastProgressMillis) {
+		long now = SystemClock.uptimeMillis();
+		if (now - lastProgressMillis < PhonographConstants.VISUALIZATION_INTERVAL) {
+			return lastProgressMillis;
+		}
+		callbacks.onPlayProgress(Math.min(frameAtHead(track), frameCount) * 1000 / sampleRate);
+		return now;
+	}
+
+	/** Source frame at the playback head position of the track */
+	private long frameAtHead(AudioTrack track) {
+		return headStartFrame + (long) ((track.getPlaybackHeadPosition() & 0xffffffffL) * speed);
+	}
+
+	/** Stop the feeder thread and leave the track paused and empty */
+	private void stopFeeder() {
+		feeding = false;
+		if (audioTrack != null) {
+			// unblocks a pending write
+			audioTrack.pause();
+		}
+		Thread thread = feeder;
+		feeder = null;
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (audioTrack != null) {
+			audioTrack.flush();
+		}
+	}
+
+	/** Frame currently being played, or the frame playback starts from when not playing */
+	private long currentFrame() {
+		AudioTrack track = audioTrack;
+		if (track == null || !feeding) {
+			return startFrame;
+		}
+		return Math.min(frameCount, frameAtHead(track));
+	}
+
+	@Override
+	public synchronized void seek(long mills) {
+		if (header == null) {
+			return;
+		}
+		long frame = Math.max(0, Math.min(frameCount, mills * header.getSampleRate() / 1000));
+		if (isPlaying()) {
+			stopFeeder();
+			startFrame = frame;
+			headStartFrame = frame;
+			audioTrack.play();
+			startFeeder(audioTrack, data.duplicate(), header.getFrameSize(), header.getSampleRate());
+			callbacks.onSeek(mills);
+		} else {
+			startFrame = frame;
+		}
+	}
+
+	@Override
+	public synchronized void setPlaybackSpeed(float speed) {
+		speed = Math.max(TimeStretcher.MIN_SPEED, Math.min(TimeStretcher.MAX_SPEED, speed));
+		if (speed == this.speed) {
+			return;
+		}
+		if (isPlaying()) {
+			// restart the feeder from the current position, so the position stays accurate
+			long frame = currentFrame();
+			stopFeeder();
+			this.speed = speed;
+			startFrame = frame;
+			headStartFrame = frame;
+			audioTrack.play();
+			startFeeder(audioTrack, data.duplicate(), header.getFrameSize(), header.getSampleRate());
+		} else {
+			this.speed = speed;
+		}
+	}
+
+	@Override
+	public synchronized void pause() {
+		if (isPlaying()) {
+			long frame = currentFrame();
+			stopFeeder();
+			startFrame = frame;
+			isPause = true;
+			callbacks.onPausePlay();
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		stopTrack(true);
+	}
+
+	/** @param notify whether to report the stop, not done when continuing with the next data */
+	private void stopTrack(boolean notify) {
+		if (audioTrack != null) {
+			stopFeeder();
+			audioTrack.stop();
+			if (notify) {
+				callbacks.onStopPlay();
+			}
+		}
+		startFrame = 0;
+		isPause = false;
+		next = null;
+	}
+
+	@Override
+	public boolean isPlaying() {
+		return feeding;
+	}
+
+	@Override
+	public boolean isPause() {
+		return isPause;
+	}
+
+	@Override
+	public long getPauseTime() {
+		WavHeader h = header;
+		if (h == null) {
+			return 0;
+		}
+		return currentFrame() * 1000 / h.getSampleRate();
+	}
+
+	@Override
+	public synchronized void release() {
+		stop();
+		releaseTrack();
+		data = null;
+		header = null;
+		dataSource = null;
+		isPause = false;
+		synchronized (prewarmed) {
+			prewarmed.clear();
+		}
+		callbacks.clear();
+	}
+
+	private void releaseTrack() {
+		if (audioTrack != null) {
+			stopFeeder();
+			audioTrack.release();
+			audioTrack = null;
+			stretcher = null;
+		}
+	}
+}
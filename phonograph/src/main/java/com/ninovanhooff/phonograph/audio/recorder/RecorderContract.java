@@ -50,6 +50,18 @@ public interface RecorderContract {
 		boolean isRecordingPaused();
 	}
 
+	/** Receives the raw captured PCM. Called on the capture thread, so implementations must not block. */
+	interface CaptureTap {
+		/** Called before the first {@link #onCapture(byte[], int, long)} of a capture session */
+		void onCaptureFormat(int sampleRate, int channelCount);
+		/**
+		 * @param pcm interleaved 16 bit little endian samples. Only valid during this call.
+		 * @param length number of valid bytes in pcm
+		 * @param timeMillis {@link android.os.SystemClock#uptimeMillis()} at the end of the block
+		 */
+		void onCapture(byte[] pcm, int length, long timeMillis);
+	}
+
 	/** Supports live playback of the input **/
 	interface Monitor {
 		// Unused because it duplicates Recorder method.
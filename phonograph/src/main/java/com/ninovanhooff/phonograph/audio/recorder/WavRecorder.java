@@ -21,6 +21,7 @@ import android.media.AudioManager;
 import android.media.AudioRecord;
 import android.media.AudioTrack;
 import android.media.MediaRecorder;
+import android.os.SystemClock;
 
 import com.ninovanhooff.phonograph.Phonograph;
 import com.ninovanhooff.phonograph.PhonographConstants;
@@ -32,6 +33,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -73,6 +77,9 @@ public class WavRecorder implements RecorderContract.Recorder, RecorderContract.
 
 	private RecorderContract.RecorderCallback recorderCallback;
 
+	/** Copy-on-write, so the capture loop can iterate without locking or allocating */
+	private volatile RecorderContract.CaptureTap[] captureTaps = new RecorderContract.CaptureTap[0];
+
 	private static class WavRecorderSingletonHolder {
 		private static WavRecorder singleton = new WavRecorder();
 
@@ -92,6 +99,23 @@ public class WavRecorder implements RecorderContract.Recorder, RecorderContract.
 		recorderCallback = callback;
 	}
 
+	/** Receive the captured PCM while capturing. Taps added during capture are informed of the format immediately. */
+	public synchronized void addCaptureTap(RecorderContract.CaptureTap tap) {
+		RecorderContract.CaptureTap[] taps = Arrays.copyOf(captureTaps, captureTaps.length + 1);
+		taps[taps.length - 1] = tap;
+		captureTaps = taps;
+		if (isCapturing) {
+			tap.onCaptureFormat(sampleRate, channelCount);
+		}
+	}
+
+	public synchronized void removeCaptureTap(RecorderContract.CaptureTap tap) {
+		List<RecorderContract.CaptureTap> taps = new ArrayList<>(Arrays.asList(captureTaps));
+		if (taps.remove(tap)) {
+			captureTaps = taps.toArray(new RecorderContract.CaptureTap[0]);
+		}
+	}
+
 	@Override
 	public void prepare(int channelCount, int sampleRate, int bitrate){
 		this.sampleRate = sampleRate;
@@ -288,6 +312,9 @@ public class WavRecorder implements RecorderContract.Recorder, RecorderContract.
 			}
 		} else {
 			recorder.startRecording();
+			for (RecorderContract.CaptureTap tap : captureTaps) {
+				tap.onCaptureFormat(sampleRate, channelCount);
+			}
 			isCapturing = true;
 
 			recordingThread = new Thread(new Runnable() {
@@ -352,6 +379,12 @@ public class WavRecorder implements RecorderContract.Recorder, RecorderContract.
 			if (isMonitoring){
 				audioTrack.write(data, 0, bufferSize);
 			}
+			if (bytesRead > 0) {
+				long captureTime = SystemClock.uptimeMillis();
+				for (RecorderContract.CaptureTap tap : captureTaps) {
+					tap.onCapture(data, bytesRead, captureTime);
+				}
+			}
 			if (AudioRecord.ERROR_INVALID_OPERATION != bytesRead) {
 				lastVal = 0;
 				int i;
@@ -0,0 +1,27 @@
+package com.ninovanhooff.phonograph.task;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tells a running task that its result is no longer wanted. Long tasks should check it between
+ * steps and return early; a task that never checks simply runs to the end.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled = false;
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || Thread.currentThread().isInterrupted();
+	}
+
+	/** @throws CancellationException when cancelled */
+	public void throwIfCancelled() {
+		if (isCancelled()) {
+			throw new CancellationException();
+		}
+	}
+}
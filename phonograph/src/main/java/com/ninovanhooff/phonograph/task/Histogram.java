@@ -0,0 +1,82 @@
+package com.ninovanhooff.phonograph.task;
+
+import java.util.Locale;
+
+/**
+ * Distribution of durations in power of two buckets of milliseconds: below 1 ms, 1-2 ms, 2-4 ms
+ * and so on, up to a last bucket of everything from about 4 minutes. Recording a value is cheap
+ * and takes no memory, so a histogram can record every task forever. Percentiles are estimated
+ * at the upper bound of their bucket, so they are never lower than the real value.
+ */
+public class Histogram {
+
+	static final int BUCKET_COUNT = 20;
+
+	private final long[] buckets = new long[BUCKET_COUNT];
+	private long count = 0;
+	private long sumNanos = 0;
+	private long maxNanos = 0;
+
+	synchronized void record(long nanos) {
+		long millis = Math.max(0, nanos) / 1000000;
+		int bucket = millis == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+		buckets[bucket]++;
+		count++;
+		sumNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	/** @return a copy that does not change anymore */
+	synchronized Histogram snapshot() {
+		Histogram copy = new Histogram();
+		System.arraycopy(buckets, 0, copy.buckets, 0, BUCKET_COUNT);
+		copy.count = count;
+		copy.sumNanos = sumNanos;
+		copy.maxNanos = maxNanos;
+		return copy;
+	}
+
+	/** Upper bound of a bucket in milliseconds */
+	public static long getBucketLimitMillis(int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	public synchronized long[] getBucketCounts() {
+		return buckets.clone();
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized float getMeanMillis() {
+		return count == 0 ? 0 : sumNanos / 1000000f / count;
+	}
+
+	public synchronized float getMaxMillis() {
+		return maxNanos / 1000000f;
+	}
+
+	/** @param fraction like 0.9 for the 90th percentile */
+	public synchronized float getPercentileMillis(double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.min(getMaxMillis(), getBucketLimitMillis(i));
+			}
+		}
+		return getMaxMillis();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "n=%d mean=%.1f p50=%.0f p90=%.0f p99=%.0f max=%.1f ms",
+				count, getMeanMillis(), getPercentileMillis(0.5), getPercentileMillis(0.9),
+				getPercentileMillis(0.99), getMaxMillis());
+	}
+}
@@ -0,0 +1,335 @@
+package com.ninovanhooff.phonograph.task;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+
+import timber.log.Timber;
+
+/**
+ * Runs tasks on its own threads, most important first.
+ *
+ * Waiting tasks are ordered by priority, then by deadline, earliest first, then in the order they
+ * were submitted. A deadline does not make a task run early, it only orders tasks of the same
+ * priority. Every submission returns a {@link TaskHandle} to wait for the result or to cancel
+ * the task, also while it runs.
+ *
+ * With one thread, the default, tasks never run concurrently, so an executor can guard state like
+ * a serial queue. It accepts the calls of {@link com.ninovanhooff.phonograph.BackgroundQueue},
+ * which post at {@link #PRIORITY_NORMAL}. Unlike that queue, posting never blocks.
+ *
+ * Wait and run times of all tasks are recorded in {@link TaskMetrics} by tag. Give tasks that
+ * matter a tag; others are tagged with the class name of their task or runnable.
+ *
+ * Work that only needs to happen once for a burst of requests, like reloading a list, can be
+ * posted with {@link #submitCoalesced(String, Runnable, int)}.
+ */
+public class TaskExecutor {
+
+	/** Work nobody is waiting for, like waveform processing */
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	/** Work the user is waiting for, like loading what is on screen */
+	public static final int PRIORITY_HIGH = 2;
+
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	public interface Task<T> {
+		/** @param token check it between steps of long work */
+		T run(CancellationToken token) throws Exception;
+	}
+
+	private static final Comparator<TaskHandle<?>> ORDER = new Comparator<TaskHandle<?>>() {
+		@Override
+		public int compare(TaskHandle<?> a, TaskHandle<?> b) {
+			if (a.priority != b.priority) {
+				return a.priority > b.priority ? -1 : 1;
+			}
+			if (a.deadline != b.deadline) {
+				return a.deadline < b.deadline ? -1 : 1;
+			}
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<TaskHandle<?>> START_ORDER = new Comparator<TaskHandle<?>>() {
+		@Override
+		public int compare(TaskHandle<?> a, TaskHandle<?> b) {
+			if (a.startAt != b.startAt) {
+				return a.startAt < b.startAt ? -1 : 1;
+			}
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private final String name;
+	private final Object lock = new Object();
+	private final PriorityQueue<TaskHandle<?>> ready = new PriorityQueue<>(16, ORDER);
+	private final PriorityQueue<TaskHandle<?>> delayed = new PriorityQueue<>(16, START_ORDER);
+	/** Waiting coalesced tasks by key */
+	private final Map<String, Coalesced> coalesced = new HashMap<>();
+	private long sequence = 0;
+	private int maxQueueSize = 0;
+	private boolean closed = false;
+
+	public TaskExecutor(String name) {
+		this(name, 1);
+	}
+
+	public TaskExecutor(String name, int threadCount) {
+		this.name = name;
+		for (int i = 0; i < threadCount; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, threadCount == 1 ? name : name + "-" + (i + 1));
+			worker.start();
+		}
+		TaskMetrics.getInstance().register(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param deadlineMillis time from now by which the result is wanted, or {@link #NO_DEADLINE}
+	 */
+	public <T> TaskHandle<T> submit(Task<T> task, int priority, long deadlineMillis, String tag) {
+		return enqueue(task, null, tag, priority, deadlineMillis, 0);
+	}
+
+	public <T> TaskHandle<T> submit(Task<T> task, int priority, long deadlineMillis) {
+		return enqueue(task, null, tagOf(task), priority, deadlineMillis, 0);
+	}
+
+	public <T> TaskHandle<T> submit(Task<T> task, int priority) {
+		return enqueue(task, null, tagOf(task), priority, NO_DEADLINE, 0);
+	}
+
+	public TaskHandle<Void> submit(Runnable runnable, int priority, String tag) {
+		return enqueue(wrap(runnable), runnable, tag, priority, NO_DEADLINE, 0);
+	}
+
+	public TaskHandle<Void> submit(Runnable runnable, int priority) {
+		return enqueue(wrap(runnable), runnable, tagOf(runnable), priority, NO_DEADLINE, 0);
+	}
+
+	/**
+	 * Run the runnable unless a task of the same key is still waiting. Then that task runs the
+	 * newest runnable instead, at its own priority, and no task is added. A task of the key
+	 * that already started does not count, so while it runs at most one more waits behind it.
+	 * The key is the tag of the task.
+	 */
+	public TaskHandle<Void> submitCoalesced(String key, Runnable runnable, int priority) {
+		TaskHandle<Void> handle;
+		boolean merged;
+		synchronized (lock) {
+			Coalesced waiting = coalesced.get(key);
+			merged = waiting != null && !waiting.handle.isCancelled();
+			if (merged) {
+				waiting.runnable = runnable;
+				handle = waiting.handle;
+			} else {
+				Coalesced entry = new Coalesced(key, runnable);
+				entry.handle = enqueue(entry, runnable, key, priority, NO_DEADLINE, 0);
+				coalesced.put(key, entry);
+				handle = entry.handle;
+			}
+		}
+		TaskMetrics.getInstance().recordCoalesced(this, key, merged);
+		return handle;
+	}
+
+	public void postRunnable(Runnable runnable) {
+		enqueue(wrap(runnable), runnable, tagOf(runnable), PRIORITY_NORMAL, NO_DEADLINE, 0);
+	}
+
+	public void postRunnable(Runnable runnable, long delay) {
+		enqueue(wrap(runnable), runnable, tagOf(runnable), PRIORITY_NORMAL, NO_DEADLINE, delay);
+	}
+
+	/** Cancel waiting tasks posted for the runnable */
+	public void cancelRunnable(Runnable runnable) {
+		synchronized (lock) {
+			cancelWaiting(ready, runnable);
+			cancelWaiting(delayed, runnable);
+		}
+	}
+
+	/** Cancel all waiting tasks. Running tasks continue. */
+	public void cleanupQueue() {
+		synchronized (lock) {
+			cancelWaiting(ready, null);
+			cancelWaiting(delayed, null);
+		}
+	}
+
+	/** Cancel all waiting tasks and stop the threads once their running tasks finish */
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			cancelWaiting(ready, null);
+			cancelWaiting(delayed, null);
+			lock.notifyAll();
+		}
+		TaskMetrics.getInstance().unregister(this);
+	}
+
+	/** @return the number of tasks waiting to run */
+	public int getQueueSize() {
+		synchronized (lock) {
+			return ready.size() + delayed.size();
+		}
+	}
+
+	/** @return the highest number of tasks that waited at once */
+	public int getMaxQueueSize() {
+		synchronized (lock) {
+			return maxQueueSize;
+		}
+	}
+
+	/** Name of the class without its package, like MainPresenter$3 */
+	private static String tagOf(Object task) {
+		String name = task.getClass().getName();
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+
+	/** A waiting task that runs the newest runnable posted for its key */
+	private class Coalesced implements Task<Void> {
+		final String key;
+		/** Guarded by lock */
+		Runnable runnable;
+		TaskHandle<Void> handle;
+
+		Coalesced(String key, Runnable runnable) {
+			this.key = key;
+			this.runnable = runnable;
+		}
+
+		@Override
+		public Void run(CancellationToken token) {
+			Runnable latest;
+			synchronized (lock) {
+				if (coalesced.get(key) == this) {
+					coalesced.remove(key);
+				}
+				latest = runnable;
+			}
+			latest.run();
+			return null;
+		}
+	}
+
+	private static Task<Void> wrap(final Runnable runnable) {
+		return new Task<Void>() {
+			@Override
+			public Void run(CancellationToken token) {
+				runnable.run();
+				return null;
+			}
+		};
+	}
+
+	private <T> TaskHandle<T> enqueue(Task<T> task, Runnable runnable, String tag, int priority,
+												 long deadlineMillis, long delay) {
+		long now = SystemClock.uptimeMillis();
+		long deadline = deadlineMillis == NO_DEADLINE ? NO_DEADLINE : now + deadlineMillis;
+		synchronized (lock) {
+			TaskHandle<T> handle = new TaskHandle<>(this, task, new CancellationToken(), runnable, tag,
+					priority, deadline, Math.max(0, delay), now + Math.max(0, delay), sequence++);
+			if (closed) {
+				Timber.w("%s is closed, task not run", name);
+				handle.cancel(false);
+			} else if (delay > 0) {
+				delayed.add(handle);
+				lock.notifyAll();
+			} else {
+				ready.add(handle);
+				lock.notify();
+			}
+			maxQueueSize = Math.max(maxQueueSize, ready.size() + delayed.size());
+			return handle;
+		}
+	}
+
+	/** Remove a cancelled task, so it does not count as waiting */
+	void discard(TaskHandle<?> handle) {
+		synchronized (lock) {
+			if (!ready.remove(handle)) {
+				delayed.remove(handle);
+			}
+		}
+	}
+
+	private static void cancelWaiting(PriorityQueue<TaskHandle<?>> queue, Runnable runnable) {
+		List<TaskHandle<?>> removed = new ArrayList<>();
+		for (Iterator<TaskHandle<?>> it = queue.iterator(); it.hasNext(); ) {
+			TaskHandle<?> handle = it.next();
+			if (runnable == null || handle.runnable == runnable) {
+				it.remove();
+				removed.add(handle);
+			}
+		}
+		for (TaskHandle<?> handle : removed) {
+			handle.cancel(false);
+		}
+	}
+
+	/** @return the next task to run, or null when closed */
+	private TaskHandle<?> take() {
+		synchronized (lock) {
+			while (!closed) {
+				long now = SystemClock.uptimeMillis();
+				while (!delayed.isEmpty() && delayed.peek().startAt <= now) {
+					ready.add(delayed.poll());
+				}
+				TaskHandle<?> next = ready.poll();
+				if (next != null) {
+					if (!next.isCancelled()) {
+						return next;
+					}
+					continue;
+				}
+				try {
+					if (delayed.isEmpty()) {
+						lock.wait();
+					} else {
+						lock.wait(Math.max(1, delayed.peek().startAt - now));
+					}
+				} catch (InterruptedException e) {
+					// a cancelled task interrupted this thread after it finished, keep working
+				}
+			}
+			return null;
+		}
+	}
+
+	private void work() {
+		TaskHandle<?> task;
+		while ((task = take()) != null) {
+			long started = System.nanoTime();
+			task.run();
+			TaskMetrics.getInstance().record(this, task.tag, started - task.dueNanos, System.nanoTime() - started);
+			// clear an interrupt of a cancel that came too late, it is not meant for the next task
+			Thread.interrupted();
+			if (task.runnable != null && !task.isCancelled()) {
+				try {
+					task.get();
+				} catch (ExecutionException | InterruptedException e) {
+					Timber.e(e.getCause() != null ? e.getCause() : e, "Task failed on %s", name);
+				}
+			}
+		}
+	}
+}
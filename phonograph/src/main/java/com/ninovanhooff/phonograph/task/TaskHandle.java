@@ -0,0 +1,75 @@
+package com.ninovanhooff.phonograph.task;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A task submitted to a {@link TaskExecutor}. Use it like any {@link java.util.concurrent.Future}:
+ * wait for the result with get() or cancel it. A cancelled task that waits is removed from its
+ * executor. Cancelling a running task cancels its {@link CancellationToken}, and the task stops at
+ * its next check of it. Only cancel(true) also interrupts its thread, which closes an interruptible
+ * channel like a FileChannel the task is using.
+ */
+public class TaskHandle<T> extends FutureTask<T> {
+
+	final int priority;
+	final long deadline;
+	/** Uptime at which the task may start */
+	final long startAt;
+	/** Submission order, keeps tasks of equal priority and deadline in order */
+	final long sequence;
+	/** The runnable this task was posted for, to find it again in cancelRunnable */
+	final Runnable runnable;
+	/** Type of the task in {@link TaskMetrics} */
+	final String tag;
+	/** Time at which the task was due, to measure its wait */
+	final long dueNanos;
+	private final CancellationToken token;
+	private final TaskExecutor executor;
+
+	TaskHandle(TaskExecutor executor, final TaskExecutor.Task<T> task, final CancellationToken token,
+				  Runnable runnable, String tag, int priority, long deadline, long delay, long startAt, long sequence) {
+		super(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return task.run(token);
+			}
+		});
+		this.executor = executor;
+		this.token = token;
+		this.runnable = runnable;
+		this.tag = tag;
+		this.priority = priority;
+		this.deadline = deadline;
+		this.startAt = startAt;
+		this.sequence = sequence;
+		this.dueNanos = System.nanoTime() + delay * 1000000;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		token.cancel();
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			executor.discard(this);
+		}
+		return cancelled;
+	}
+
+	/** Cancel without interrupting. A running task stops at its next check of its token. */
+	public boolean cancel() {
+		return cancel(false);
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+}
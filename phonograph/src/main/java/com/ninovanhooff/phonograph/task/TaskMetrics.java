@@ -0,0 +1,257 @@
+package com.ninovanhooff.phonograph.task;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Statistics of all {@link TaskExecutor}s, per executor and task tag: how long tasks waited
+ * between being submitted (or due, when delayed) and starting, how long they ran, and how many
+ * tasks are waiting now. Tasks posted without a tag are tagged with the name of their class,
+ * which for anonymous runnables points to the code that posted them.
+ */
+public class TaskMetrics {
+
+	/** Statistics of one tag of one executor */
+	public static class TaskStats {
+		private final String executor;
+		private final String tag;
+		private final Histogram wait;
+		private final Histogram run;
+
+		TaskStats(String executor, String tag, Histogram wait, Histogram run) {
+			this.executor = executor;
+			this.tag = tag;
+			this.wait = wait;
+			this.run = run;
+		}
+
+		public String getExecutor() {
+			return executor;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		/** Time from submission to start */
+		public Histogram getWait() {
+			return wait;
+		}
+
+		/** Time from start to end */
+		public Histogram getRun() {
+			return run;
+		}
+	}
+
+	/** Depth of the queue of one executor */
+	public static class QueueStats {
+		private final String executor;
+		private final int depth;
+		private final int maxDepth;
+
+		QueueStats(String executor, int depth, int maxDepth) {
+			this.executor = executor;
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+		}
+
+		public String getExecutor() {
+			return executor;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+	}
+
+	/** Requests of one key of {@link TaskExecutor#submitCoalesced(String, Runnable, int)} */
+	public static class CoalescedStats {
+		private final String executor;
+		private final String key;
+		private final long requests;
+		private final long merged;
+
+		CoalescedStats(String executor, String key, long requests, long merged) {
+			this.executor = executor;
+			this.key = key;
+			this.requests = requests;
+			this.merged = merged;
+		}
+
+		public String getExecutor() {
+			return executor;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		/** Requests that did not run a task of their own */
+		public long getMerged() {
+			return merged;
+		}
+	}
+
+	private static class Entry {
+		final Histogram wait = new Histogram();
+		final Histogram run = new Histogram();
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	/** Requests and merged requests by coalescing key */
+	private final Map<String, long[]> coalesced = new LinkedHashMap<>();
+	private final List<TaskExecutor> executors = new ArrayList<>();
+
+	private static class SingletonHolder {
+		private static TaskMetrics singleton = new TaskMetrics();
+
+		public static TaskMetrics getSingleton() {
+			return SingletonHolder.singleton;
+		}
+	}
+
+	public static TaskMetrics getInstance() {
+		return SingletonHolder.getSingleton();
+	}
+
+	private TaskMetrics() {
+	}
+
+	synchronized void register(TaskExecutor executor) {
+		executors.add(executor);
+	}
+
+	synchronized void unregister(TaskExecutor executor) {
+		executors.remove(executor);
+	}
+
+	void record(TaskExecutor executor, String tag, long waitNanos, long runNanos) {
+		Entry entry;
+		String key = executor.getName() + "\u0000" + tag;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(key, entry);
+			}
+		}
+		entry.wait.record(waitNanos);
+		entry.run.record(runNanos);
+	}
+
+	synchronized void recordCoalesced(TaskExecutor executor, String key, boolean merged) {
+		String name = executor.getName() + "\u0000" + key;
+		long[] counts = coalesced.get(name);
+		if (counts == null) {
+			counts = new long[2];
+			coalesced.put(name, counts);
+		}
+		counts[0]++;
+		if (merged) {
+			counts[1]++;
+		}
+	}
+
+	public synchronized List<CoalescedStats> getCoalescedStats() {
+		List<CoalescedStats> stats = new ArrayList<>(coalesced.size());
+		for (Map.Entry<String, long[]> e : coalesced.entrySet()) {
+			String[] key = e.getKey().split("\u0000", 2);
+			stats.add(new CoalescedStats(key[0], key[1], e.getValue()[0], e.getValue()[1]));
+		}
+		return stats;
+	}
+
+	/** @return snapshots of all tags, the tags with the most run time first */
+	public List<TaskStats> getTaskStats() {
+		List<TaskStats> stats = new ArrayList<>();
+		synchronized (this) {
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				String[] key = e.getKey().split("\u0000", 2);
+				stats.add(new TaskStats(key[0], key[1], e.getValue().wait.snapshot(), e.getValue().run.snapshot()));
+			}
+		}
+		Collections.sort(stats, new Comparator<TaskStats>() {
+			@Override
+			public int compare(TaskStats a, TaskStats b) {
+				return Float.compare(b.run.getMeanMillis() * b.run.getCount(), a.run.getMeanMillis() * a.run.getCount());
+			}
+		});
+		return stats;
+	}
+
+	public List<QueueStats> getQueueStats() {
+		List<TaskExecutor> registered;
+		synchronized (this) {
+			// executors are queried outside of this lock, they call into it while holding their own
+			registered = new ArrayList<>(executors);
+		}
+		List<QueueStats> stats = new ArrayList<>(registered.size());
+		for (TaskExecutor executor : registered) {
+			stats.add(new QueueStats(executor.getName(), executor.getQueueSize(), executor.getMaxQueueSize()));
+		}
+		return stats;
+	}
+
+	public synchronized void reset() {
+		entries.clear();
+		coalesced.clear();
+	}
+
+	/** @return a readable report of all statistics */
+	public String dump() {
+		StringBuilder report = new StringBuilder("Task queues:\n");
+		for (QueueStats queue : getQueueStats()) {
+			report.append(String.format(Locale.US, "  %s depth=%d max=%d\n",
+					queue.getExecutor(), queue.getDepth(), queue.getMaxDepth()));
+		}
+		List<CoalescedStats> coalescedStats = getCoalescedStats();
+		if (!coalescedStats.isEmpty()) {
+			report.append("Coalesced:\n");
+			for (CoalescedStats c : coalescedStats) {
+				report.append(String.format(Locale.US, "  %s %s requests=%d merged=%d\n",
+						c.getExecutor(), c.getKey(), c.getRequests(), c.getMerged()));
+			}
+		}
+		report.append("Tasks:\n");
+		for (TaskStats task : getTaskStats()) {
+			report.append("  ").append(task.getExecutor()).append(' ').append(task.getTag()).append('\n')
+					.append("    wait ").append(task.getWait()).append('\n')
+					.append("    run  ").append(task.getRun()).append('\n');
+		}
+		return report.toString();
+	}
+
+	public void dumpToLog() {
+		for (String line : dump().split("\n")) {
+			Timber.i(line);
+		}
+	}
+
+	public void dumpToFile(File file) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(dump());
+		} finally {
+			writer.close();
+		}
+	}
+}
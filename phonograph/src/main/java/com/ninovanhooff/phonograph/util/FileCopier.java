@@ -0,0 +1,221 @@
+package com.ninovanhooff.phonograph.util;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import timber.log.Timber;
+
+/**
+ * Copies a file, a file descriptor or a stream into a file.
+ *
+ * When the source is a regular file the data is copied with {@link FileChannel#transferTo(long,
+ * long, java.nio.channels.WritableByteChannel)}, so it never passes through the Java heap. Other
+ * sources, like the pipes some content providers return, are read into a large direct buffer.
+ * Both paths copy in chunks, between which progress is reported and cancellation is checked.
+ *
+ * A copy that is cancelled or fails deletes the partial output. A copy only succeeds when the
+ * output has the size of the source, or the number of bytes read when the size is not known.
+ *
+ * One instance copies one source at a time; {@link #cancel()} may be called from any thread.
+ */
+public class FileCopier {
+
+	/** Copied per transferTo call, so a large file still reports progress */
+	private static final long TRANSFER_CHUNK_SIZE = 4 * 1024 * 1024;
+	/** Size of the direct buffer for sources that are not regular files */
+	private static final int BUFFER_SIZE = 256 * 1024;
+	/** Minimum number of bytes between progress reports */
+	private static final long PROGRESS_STEP = 1024 * 1024;
+
+	public static final long UNKNOWN_SIZE = -1;
+
+	public interface ProgressListener {
+		/**
+		 * Called on the copying thread.
+		 * @param total size of the source or {@link #UNKNOWN_SIZE}
+		 */
+		void onProgress(long copied, long total);
+	}
+
+	/** Thrown by a copy that was stopped with {@link #cancel()} */
+	public static class CancelledException extends IOException {
+		public CancelledException() {
+			super("Copy cancelled");
+		}
+	}
+
+	private final ProgressListener listener;
+	private volatile boolean cancelled = false;
+	private long reported;
+
+	/** @param listener may be null */
+	public FileCopier(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** @return the number of bytes copied */
+	public long copy(File src, File dst) throws IOException {
+		FileInputStream in = new FileInputStream(src);
+		try {
+			return copy(in, true, dst);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copy from the current position of the descriptor to its end.
+	 * The descriptor is not closed.
+	 * @return the number of bytes copied
+	 */
+	public long copy(FileDescriptor src, File dst) throws IOException {
+		// not closed: that would close the descriptor of the caller
+		return copy(new FileInputStream(src), isRegularFile(src), dst);
+	}
+
+	/**
+	 * Copy a stream to its end. The stream is not closed.
+	 * @return the number of bytes copied
+	 */
+	public long copy(InputStream src, File dst) throws IOException {
+		if (src instanceof FileInputStream) {
+			FileInputStream in = (FileInputStream) src;
+			return copy(in, isRegularFile(in.getFD()), dst);
+		}
+		return copy(Channels.newChannel(src), UNKNOWN_SIZE, dst);
+	}
+
+	private long copy(FileInputStream in, boolean regularFile, File dst) throws IOException {
+		FileChannel source = in.getChannel();
+		if (!regularFile) {
+			return copy(source, UNKNOWN_SIZE, dst);
+		}
+		long started = System.nanoTime();
+		long position = source.position();
+		long total = Math.max(0, source.size() - position);
+		reported = 0;
+		FileOutputStream out = new FileOutputStream(dst);
+		boolean success = false;
+		long copied = 0;
+		try {
+			FileChannel target = out.getChannel();
+			while (copied < total) {
+				checkCancelled();
+				long transferred = source.transferTo(position + copied,
+						Math.min(TRANSFER_CHUNK_SIZE, total - copied), target);
+				if (transferred <= 0) {
+					throw new IOException("Unexpected end of " + total + " bytes at " + copied);
+				}
+				copied += transferred;
+				reportProgress(copied, total);
+			}
+			// keep the contract of a stream copy: the source is read to its end
+			source.position(position + copied);
+			success = true;
+		} finally {
+			out.close();
+			if (!success) {
+				deleteOutput(dst);
+			}
+		}
+		verify(dst, copied, total);
+		logThroughput("transferTo", copied, started);
+		return copied;
+	}
+
+	private long copy(ReadableByteChannel source, long total, File dst) throws IOException {
+		long started = System.nanoTime();
+		reported = 0;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		FileOutputStream out = new FileOutputStream(dst);
+		boolean success = false;
+		long copied = 0;
+		try {
+			FileChannel target = out.getChannel();
+			while (true) {
+				checkCancelled();
+				int read = source.read(buffer);
+				if (read < 0) {
+					break;
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					copied += target.write(buffer);
+				}
+				buffer.clear();
+				reportProgress(copied, total);
+			}
+			success = true;
+		} finally {
+			out.close();
+			if (!success) {
+				deleteOutput(dst);
+			}
+		}
+		verify(dst, copied, total == UNKNOWN_SIZE ? copied : total);
+		logThroughput("buffer", copied, started);
+		return copied;
+	}
+
+	private void checkCancelled() throws CancelledException {
+		if (cancelled) {
+			throw new CancelledException();
+		}
+	}
+
+	private void reportProgress(long copied, long total) {
+		if (listener != null && (copied - reported >= PROGRESS_STEP || copied == total)) {
+			reported = copied;
+			listener.onProgress(copied, total);
+		}
+	}
+
+	private static void verify(File dst, long copied, long expected) throws IOException {
+		long length = dst.length();
+		if (copied != expected || length != expected) {
+			deleteOutput(dst);
+			throw new IOException("Copied " + copied + " bytes, output has " + length + ", expected " + expected);
+		}
+	}
+
+	private static boolean isRegularFile(FileDescriptor fd) {
+		try {
+			return OsConstants.S_ISREG(Os.fstat(fd).st_mode);
+		} catch (ErrnoException e) {
+			Timber.w(e, "Can't stat descriptor, copying it as a stream");
+			return false;
+		}
+	}
+
+	private static void deleteOutput(File file) {
+		if (file.exists() && !file.delete()) {
+			Timber.e("Failed to delete incomplete copy %s", file);
+		}
+	}
+
+	private static void logThroughput(String method, long bytes, long startedNanos) {
+		long nanos = Math.max(1, System.nanoTime() - startedNanos);
+		Timber.d("Copied %d KB with %s in %d ms, %.1f MB/s", bytes / 1024, method,
+				nanos / 1000000, bytes * 1000f / nanos);
+	}
+}
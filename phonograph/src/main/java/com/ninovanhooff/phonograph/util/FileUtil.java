@@ -27,12 +27,9 @@ import com.ninovanhooff.phonograph.PhonographConstants;
 
 import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import timber.log.Timber;
 
@@ -40,14 +37,6 @@ public class FileUtil {
 
 	private static final String LOG_TAG = "FileUtil";
 
-	/** The default buffer size ({@value}) to use for
-	 * {@link #copyLarge(InputStream, OutputStream)} */
-	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
-
-	/** Represents the end-of-file (or stream).*/
-	public static final int EOF = -1;
-
-
 	private FileUtil() {
 	}
 
@@ -90,30 +79,6 @@ public class FileUtil {
 		return name;
 	}
 
-	/**
-	 *
-	 * @param input the <code>InputStream</code> to read from
-	 * @param output the <code>OutputStream</code> to write to
-	 * @return the number of bytes copied
-	 * @throws NullPointerException if the input or output is null
-	 * @throws IOException          if an I/O error occurs
-	 * */
-	public static long copyLarge(final InputStream input, final OutputStream output)
-			throws IOException {
-		return copyLarge(input, output, new byte[DEFAULT_BUFFER_SIZE]);
-	}
-
-	public static long copyLarge(final InputStream input, final OutputStream output, final byte[] buffer)
-			throws IOException {
-		long count = 0;
-		int n;
-		while (EOF != (n = input.read(buffer))) {
-			output.write(buffer, 0, n);
-			count += n;
-		}
-		return count;
-	}
-
 	/**
 	 * Copy file.
 	 * @param fileToCopy File to copy.
@@ -121,27 +86,11 @@ public class FileUtil {
 	 * @return true if copy succeed, otherwise - false.
 	 */
 	public static boolean copyFile(FileDescriptor fileToCopy, File newFile) throws IOException {
-		FileInputStream in = null;
-		FileOutputStream out = null;
 		try {
-			in = new FileInputStream(fileToCopy);
-			out = new FileOutputStream(newFile);
-
-			if (copyLarge(in, out) > 0) {
-				return true;
-			}  else {
-				Timber.e("Nothing was copied!");
-				return false;
-			}
-		} catch (Exception e) {
+			return checkCopied(new FileCopier(null).copy(fileToCopy, newFile));
+		} catch (IOException e) {
+			Timber.e(e);
 			return false;
-		} finally {
-			if (in != null) {
-				in.close();
-			}
-			if (out != null) {
-				out.close();
-			}
 		}
 	}
 
@@ -153,27 +102,20 @@ public class FileUtil {
 	 */
 	public static boolean copyFile(File fileToCopy, File newFile) throws IOException {
 		Timber.v("copyFile toCOpy = " + fileToCopy.getAbsolutePath() + " newFile = " + newFile.getAbsolutePath());
-		FileInputStream in = null;
-		FileOutputStream out = null;
 		try {
-			in = new FileInputStream(fileToCopy);
-			out = new FileOutputStream(newFile);
+			return checkCopied(new FileCopier(null).copy(fileToCopy, newFile));
+		} catch (IOException e) {
+			Timber.e(e);
+			return false;
+		}
+	}
 
-			if (copyLarge(in, out) > 0) {
-				return true;
-			}  else {
-				Timber.e("Nothing was copied!");
-				return false;
-			}
-		} catch (Exception e) {
+	private static boolean checkCopied(long count) {
+		if (count > 0) {
+			return true;
+		}  else {
+			Timber.e("Nothing was copied!");
 			return false;
-		} finally {
-			if (in != null) {
-				in.close();
-			}
-			if (out != null) {
-				out.close();
-			}
 		}
 	}
 
@@ -7,43 +7,36 @@ import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Shader;
+import android.os.SystemClock;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.ninovanhooff.phonograph.audio.LevelMeter;
 import com.ninovanhooff.phonograph.util.AndroidUtils;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import androidx.annotation.ColorInt;
 import androidx.annotation.Nullable;
 import androidx.core.graphics.ColorUtils;
 
-import static java.lang.Math.log10;
-
 public class LevelsView extends View {
-    /** Determines how slowly the meter level will decay after receiving a lower amplitude than the
-     * last observed. Higher values cause slower decay. */
+    /** @deprecated the decay is determined by the ballistics of the {@link LevelMeter} */
+    @Deprecated
     public static int DEFAULT_HOLD_FACTOR = 10;
     private static final int[] GRADIENT_COLORS = { Color.RED, Color.YELLOW, Color.GREEN}; //todo refine colors
     /** Strongest attenuation on the scale, considered silent. */
     private static final float DB_FLOOR = -48f;
-    private static final long PEAK_HOLD_MILLIS = 1500L;
     /** Limit above which clipping is assumed. The assumption here is that measurements are not
-     * accurate, so even levels below 0dB can be considered to clip */ 
+     * accurate, so even levels below 0dB can be considered to clip */
     private static final float CLIP_LIMIT = -3f;
-    /** For how long the clipping status should be shown after the signal stops clipping */
-    private static final long CLIP_HOLD_MILLIS = 3000L;
-
-    // per-channel properties
-    private float currentDb = DB_FLOOR;
-    private float peakDb = currentDb;
-    private boolean isClipping = false;
-    /** Fires when the peak level should not be maintained any more */
-    private Timer peakTimer;
-    /** Fires when the clipping status should not be maintained anymore */
-    private Timer clipTimer;
+    /** How often to look for new meter data while the meter shows silence */
+    private static final long IDLE_POLL_MILLIS = 100L;
+
+    /** Meter ballistics. Fed at audio rate by the recorder or through {@link #setAmplitude(int)},
+     * sampled here once per frame. */
+    private LevelMeter meter;
+    /** Meter update time seen by the last drawn frame */
+    private long drawnUpdateMillis = Long.MIN_VALUE;
 
     private Rect viewBounds = new Rect();
     /** Bounds of a dB label */
@@ -58,9 +51,16 @@ public class LevelsView extends View {
 
     private float oneDp = AndroidUtils.dpToPx(1);
 
-    /** Fires when no new level is set for some time */
-    private Timer decayTimer;
-    private int holdFactor = LevelsView.DEFAULT_HOLD_FACTOR;
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (meter.getLastUpdateMillis() != drawnUpdateMillis) {
+                invalidate();
+            } else {
+                postDelayed(this, IDLE_POLL_MILLIS);
+            }
+        }
+    };
 
     public LevelsView(Context context) {
         this(context, null, 0);
@@ -75,12 +75,27 @@ public class LevelsView extends View {
         initialize();
     }
 
+    /** Show the levels of the given meter, eg. one added as a capture tap to
+     * {@link com.ninovanhooff.phonograph.audio.recorder.WavRecorder} */
+    public void setLevelMeter(LevelMeter meter) {
+        this.meter = meter;
+        meter.setClipLevel(CLIP_LIMIT);
+        postInvalidateOnAnimation();
+    }
+
+    public LevelMeter getLevelMeter() {
+        return meter;
+    }
+
     public void setAmplitude(int amp) {
         setAmplitude(amp, true);
     }
 
     public void setAmplitude(int amp, boolean invalidate){
-        setCurrentDb(convertAmpToDb(amp), invalidate);
+        meter.onAmplitude(0, amp, SystemClock.uptimeMillis());
+        if (invalidate){
+            postInvalidateOnAnimation();
+        }
     }
 
     public void setCurrentDb(float db) {
@@ -88,39 +103,17 @@ public class LevelsView extends View {
     }
 
     public void setCurrentDb(float db, boolean invalidate) {
-        db = -Math.abs(db);
-        db = Math.min(0, Math.max(DB_FLOOR, db));
-        // smooth out short silences while keeping quick response to loudness
-        if (db > currentDb){
-            currentDb = db;
-        } else {
-            currentDb = (currentDb * holdFactor + db) / (holdFactor + 1);
-        }
-        if (currentDb > CLIP_LIMIT){
-            isClipping = true;
-        }
-        
-        if (currentDb > CLIP_LIMIT){
-            isClipping = true;
-            resetClipTimer();
-        }
-        
-        if (currentDb > peakDb) {
-            peakDb = currentDb;
-            resetPeakTimer();
-        }
-
+        meter.onPeakDb(0, -Math.abs(db), SystemClock.uptimeMillis());
         if (invalidate){
-            postInvalidate();
+            postInvalidateOnAnimation();
         }
     }
 
-
-    /** Determines how slowly the meter level will decay after receiving a lower amplitude than the
-     * last observed. Higher values cause slower decay. See {@link LevelsView#DEFAULT_HOLD_FACTOR}*/
+    /** @deprecated the decay is determined by the ballistics of the {@link LevelMeter},
+     * see {@link #setLevelMeter(LevelMeter)} */
+    @Deprecated
     @SuppressWarnings("unused") // API
     public void setHoldFactor(int holdFactor) {
-        this.holdFactor = holdFactor;
     }
 
     private void initialize() {
@@ -136,27 +129,46 @@ public class LevelsView extends View {
 
         // stereo
         barWidth = 40;
+        setLevelMeter(new LevelMeter(LevelMeter.BALLISTICS_PPM));
     }
 
-
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(idleCheck);
+    }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-
-        // fill bar area with clip color if clipping
-        if (isClipping){
-            textPaint.setColor(ColorUtils.setAlphaComponent(GRADIENT_COLORS[0], 127));
-            canvas.drawRect(getPaddingLeft(),dbYCoordinate(0f),getPaddingLeft() + barWidth,viewBounds.bottom - getPaddingBottom(), textPaint);
-            textPaint.setColor(textColor);
+        removeCallbacks(idleCheck);
+
+        long now = SystemClock.uptimeMillis();
+        drawnUpdateMillis = meter.getLastUpdateMillis();
+        int channelCount = meter.getChannelCount();
+        int channelWidth = barWidth / channelCount;
+        float bottom = viewBounds.bottom - getPaddingBottom();
+
+        for (int ch = 0; ch < channelCount; ch++) {
+            int left = getPaddingLeft() + ch * channelWidth;
+            int right = left + channelWidth;
+            float db = Math.max(DB_FLOOR, meter.getLevelDb(ch, now));
+            float peakDb = Math.max(DB_FLOOR, meter.getPeakDb(ch, now));
+
+            // fill bar area with clip color if clipping
+            if (meter.isClipping(ch, now)){
+                textPaint.setColor(ColorUtils.setAlphaComponent(GRADIENT_COLORS[0], 127));
+                canvas.drawRect(left, dbYCoordinate(0f), right, bottom, textPaint);
+                textPaint.setColor(textColor);
+            }
+
+            // level bar
+            canvas.drawRect(left, Math.round(dbYCoordinate(db)), right, bottom, barPaint);
+
+            //peak level bar
+            canvas.drawRect(left, dbYCoordinate(peakDb) - oneDp * 2, right + oneDp * 2, dbYCoordinate(peakDb), barPaint);
         }
 
-        // left level bar
-        canvas.drawRect(getPaddingLeft(),Math.round(dbYCoordinate(currentDb)),getPaddingLeft() + barWidth,viewBounds.bottom - getPaddingBottom(), barPaint);
-
-        //peak level bar
-        canvas.drawRect(getPaddingLeft(),dbYCoordinate(peakDb) - oneDp * 2,getPaddingLeft() + barWidth + oneDp * 2,dbYCoordinate(peakDb), barPaint);
-
         float stepHeight;
         for (int i = 0; i <= -DB_FLOOR; i += 6){
             String text = Integer.toString(i);
@@ -176,8 +188,11 @@ public class LevelsView extends View {
                     textPaint);
         }
 
-        if (currentDb > DB_FLOOR){
-            resetDecayTimer();
+        if (meter.isActive(now)){
+            // sample the meter again next frame
+            postInvalidateOnAnimation();
+        } else {
+            postDelayed(idleCheck, IDLE_POLL_MILLIS);
         }
     }
 
@@ -189,67 +204,7 @@ public class LevelsView extends View {
         barPaint.setShader(gradient);
     }
 
-    private float convertAmpToDb(int amp){
-        amp = Math.abs(amp);
-        return (float) (20 * log10(amp / 32767.0d));
-    }
-
     private float dbYCoordinate(float db) {
         return getPaddingTop() + db / DB_FLOOR * (viewBounds.height() - getPaddingTop() - getPaddingBottom());
     }
-
-    private void resetClipTimer() {
-        if (clipTimer != null) {
-            clipTimer.cancel();
-        }
-        clipTimer = new Timer();
-        clipTimer.schedule(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        isClipping = false;
-                        postInvalidate();
-                    }
-                }
-                , CLIP_HOLD_MILLIS);
-    }
-
-    private void resetPeakTimer() {
-        if (peakTimer != null) {
-            peakTimer.cancel();
-        }
-        peakTimer = new Timer();
-        peakTimer.schedule(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        peakDb = currentDb;
-                        postInvalidate();
-                    }
-                }
-                , PEAK_HOLD_MILLIS);
-    }
-
-    private void resetDecayTimer() {
-        if (decayTimer != null){
-            decayTimer.cancel();
-        }
-        decayTimer = new Timer();
-        decayTimer.schedule(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        if (currentDb == DB_FLOOR){
-                            return;
-                        }
-                        if (Math.abs(currentDb - DB_FLOOR) < 1f){
-                            currentDb = DB_FLOOR;
-                            peakDb = DB_FLOOR;
-                            return;
-                        }
-                        setCurrentDb(DB_FLOOR, false); // simulate a silent input, which causes decay
-                    }
-                }
-                , 12L); // fire before the next frame @60fps
-    }
 }
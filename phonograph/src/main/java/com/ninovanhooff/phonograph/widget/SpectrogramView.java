@@ -0,0 +1,192 @@
+package com.ninovanhooff.phonograph.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.View;
+
+import com.ninovanhooff.phonograph.PhonographConstants;
+import com.ninovanhooff.phonograph.audio.SpectrogramGenerator;
+import com.ninovanhooff.phonograph.util.AndroidUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Spectrogram of a stored recording, meant to be shown under a {@link WaveformView}.
+ *
+ * Like the waveform, the position of {@link #setPlaybackMills(long)} is shown at the horizontal
+ * center of the view. Only the visible tiles and their direct neighbours are requested from the
+ * {@link SpectrogramGenerator}. Rendered tiles are kept in a fixed size memory cache, so memory use
+ * does not depend on the length of the recording.
+ */
+public class SpectrogramView extends View {
+
+	/** Memory for rendered tiles, in kilobytes. About 32 tiles. */
+	private static final int TILE_CACHE_KB = 8 * 1024;
+	/** Colors from silent to full scale */
+	private static final int[] PALETTE_ANCHORS = { 0xff000004, 0xff420a68, 0xff932667, 0xffdd513a, 0xfffca50a, 0xfffcffa4 };
+	private static final int[] PALETTE = createPalette();
+
+	private volatile SpectrogramGenerator generator;
+	private float pxPerSecond = AndroidUtils.dpToPx(PhonographConstants.SHORT_RECORD_DP_PER_SECOND);
+	private long playbackMills = 0;
+
+	private final LruCache<Long, Bitmap> tiles = new LruCache<Long, Bitmap>(TILE_CACHE_KB) {
+		@Override
+		protected int sizeOf(Long key, Bitmap bitmap) {
+			return bitmap.getByteCount() / 1024;
+		}
+	};
+	/** Tiles which could not be generated, to avoid requesting them over and over */
+	private final Set<Long> failedTiles = Collections.synchronizedSet(new HashSet<Long>());
+
+	private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final RectF tileRect = new RectF();
+
+	public SpectrogramView(Context context) {
+		super(context);
+	}
+
+	public SpectrogramView(Context context, @Nullable AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	public SpectrogramView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+		super(context, attrs, defStyleAttr);
+	}
+
+	/** Show the spectrogram of another recording. Pass null to clear the view. */
+	public void setSpectrogramGenerator(@Nullable SpectrogramGenerator generator) {
+		if (this.generator != null) {
+			this.generator.setTileListener(null);
+			this.generator.cancel();
+		}
+		this.generator = generator;
+		tiles.evictAll();
+		failedTiles.clear();
+		if (generator != null) {
+			generator.setTileListener(createTileListener(generator));
+		}
+		invalidate();
+	}
+
+	public void setPxPerSecond(float pxPerSecond) {
+		this.pxPerSecond = pxPerSecond;
+		invalidate();
+	}
+
+	/** @param mills position shown at the horizontal center of the view */
+	public void setPlaybackMills(long mills) {
+		this.playbackMills = mills;
+		invalidate();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		if (generator != null) {
+			generator.cancel();
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (generator == null || getWidth() == 0) {
+			return;
+		}
+		float samplesPerPx = generator.getSampleRate() / pxPerSecond;
+		int level = SpectrogramGenerator.levelForSamplesPerColumn(samplesPerPx);
+		long samplesPerTile = (long) generator.getSamplesPerColumn(level) * SpectrogramGenerator.TILE_COLUMNS;
+		float tilePx = samplesPerTile / samplesPerPx;
+		double leftSample = playbackMills / 1000d * generator.getSampleRate() - getWidth() / 2f * samplesPerPx;
+
+		int tileCount = generator.getTileCount(level);
+		int firstVisible = (int) Math.max(0, Math.floor(leftSample / samplesPerTile));
+		int lastVisible = (int) Math.min(tileCount - 1, Math.floor((leftSample + getWidth() * samplesPerPx) / samplesPerTile));
+		// prefetch one tile on either side, drop requests for tiles that scrolled away
+		generator.retainTiles(level, firstVisible - 1, lastVisible + 1);
+		for (int index = firstVisible - 1; index <= lastVisible + 1; index++) {
+			if (index < 0 || index >= tileCount) {
+				continue;
+			}
+			long key = tileKey(level, index);
+			Bitmap bitmap = tiles.get(key);
+			if (bitmap == null) {
+				if (!failedTiles.contains(key)) {
+					generator.requestTile(level, index);
+				}
+			} else if (index >= firstVisible && index <= lastVisible) {
+				float left = (float) ((index * samplesPerTile - leftSample) / samplesPerPx);
+				tileRect.set(left, getPaddingTop(), left + tilePx, getHeight() - getPaddingBottom());
+				canvas.drawBitmap(bitmap, null, tileRect, tilePaint);
+			}
+		}
+	}
+
+	private SpectrogramGenerator.TileListener createTileListener(final SpectrogramGenerator gen) {
+		return new SpectrogramGenerator.TileListener() {
+			@Override
+			public void onTileReady(int level, int index) {
+				byte[] tile = new byte[SpectrogramGenerator.TILE_BYTES];
+				if (gen != generator || !gen.readTile(level, index, tile)) {
+					return;
+				}
+				tiles.put(tileKey(level, index), renderTile(tile));
+				postInvalidate();
+			}
+
+			@Override
+			public void onTileFailed(int level, int index, IOException e) {
+				failedTiles.add(tileKey(level, index));
+			}
+		};
+	}
+
+	/** Convert a tile to a bitmap with time on the x axis and the lowest frequency at the bottom */
+	private static Bitmap renderTile(byte[] tile) {
+		int width = SpectrogramGenerator.TILE_COLUMNS;
+		int height = SpectrogramGenerator.TILE_ROWS;
+		int[] pixels = new int[width * height];
+		for (int x = 0; x < width; x++) {
+			int column = x * height;
+			for (int y = 0; y < height; y++) {
+				pixels[y * width + x] = PALETTE[tile[column + height - 1 - y] & 0xff];
+			}
+		}
+		return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	private static long tileKey(int level, int index) {
+		return ((long) level << 32) | index;
+	}
+
+	private static int[] createPalette() {
+		int[] palette = new int[256];
+		int segments = PALETTE_ANCHORS.length - 1;
+		for (int i = 0; i < palette.length; i++) {
+			float position = i / 255f * segments;
+			int segment = Math.min(segments - 1, (int) position);
+			float fraction = position - segment;
+			int from = PALETTE_ANCHORS[segment];
+			int to = PALETTE_ANCHORS[segment + 1];
+			int color = 0xff000000;
+			for (int shift = 0; shift <= 16; shift += 8) {
+				int a = (from >> shift) & 0xff;
+				int b = (to >> shift) & 0xff;
+				color |= Math.round(a + (b - a) * fraction) << shift;
+			}
+			palette[i] = color;
+		}
+		return palette;
+	}
+}
@@ -0,0 +1,185 @@
+package com.ninovanhooff.phonograph.widget;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.ninovanhooff.phonograph.audio.SpectrumAnalyzer;
+import com.ninovanhooff.phonograph.util.AndroidUtils;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Spectrum analyzer display with logarithmically spaced frequency bands.
+ *
+ * The spectrum is sampled from a {@link SpectrumAnalyzer} once per frame. Bars rise immediately
+ * and fall at a fixed rate, which smooths out the frame to frame variance of the spectrum.
+ */
+public class SpectrumView extends View {
+
+	public static final int DEFAULT_BAND_COUNT = 32;
+	private static final int[] GRADIENT_COLORS = { Color.RED, Color.YELLOW, Color.GREEN}; //todo refine colors
+	private static final float MIN_FREQUENCY = 40f;
+	/** Strongest attenuation on the scale, considered silent. */
+	private static final float DB_FLOOR = -72f;
+	private static final float FALL_DB_PER_SECOND = 36f;
+	/** How often to look for a new spectrum while the bars show silence */
+	private static final long IDLE_POLL_MILLIS = 100L;
+
+	private SpectrumAnalyzer analyzer;
+	private int bandCount = DEFAULT_BAND_COUNT;
+
+	/** Scratch buffer for the spectrum copied from the analyzer */
+	private float[] spectrum;
+	/** First and last (inclusive) analyzer bin of each band */
+	private int[] bandStartBin;
+	private int[] bandEndBin;
+	/** Sample rate bandStartBin and bandEndBin were computed for */
+	private int bandSampleRate = 0;
+	/** Displayed level of each band, in dB */
+	private float[] bandDb;
+
+	/** Analyzer update time seen by the last drawn frame */
+	private long drawnUpdateMillis = Long.MIN_VALUE;
+	private long lastDrawMillis = Long.MIN_VALUE;
+
+	private Paint barPaint;
+	private float barGap = AndroidUtils.dpToPx(1);
+
+	private final Runnable idleCheck = new Runnable() {
+		@Override
+		public void run() {
+			if (analyzer != null && analyzer.getLastUpdateMillis() != drawnUpdateMillis) {
+				invalidate();
+			} else {
+				postDelayed(this, IDLE_POLL_MILLIS);
+			}
+		}
+	};
+
+	public SpectrumView(Context context) {
+		this(context, null, 0);
+	}
+
+	public SpectrumView(Context context, @Nullable AttributeSet attrs) {
+		this(context, attrs, 0);
+	}
+
+	public SpectrumView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+		super(context, attrs, defStyleAttr);
+		setFocusable(false);
+		barPaint = new Paint();
+		bandDb = new float[bandCount];
+		resetBands();
+	}
+
+	/** Show the spectrum of the given analyzer, eg. one added as a capture tap to
+	 * {@link com.ninovanhooff.phonograph.audio.recorder.WavRecorder} */
+	public void setSpectrumAnalyzer(SpectrumAnalyzer analyzer) {
+		this.analyzer = analyzer;
+		spectrum = new float[analyzer.getBinCount()];
+		bandSampleRate = 0;
+		resetBands();
+		invalidate();
+	}
+
+	public SpectrumAnalyzer getSpectrumAnalyzer() {
+		return analyzer;
+	}
+
+	public void setBandCount(int bandCount) {
+		this.bandCount = bandCount;
+		bandDb = new float[bandCount];
+		bandSampleRate = 0;
+		resetBands();
+		invalidate();
+	}
+
+	private void resetBands() {
+		for (int i = 0; i < bandDb.length; i++) {
+			bandDb[i] = DB_FLOOR;
+		}
+	}
+
+	/** Divide the range from MIN_FREQUENCY up to the Nyquist frequency into bands of equal width
+	 * on a log scale. Low bands narrower than a bin share that bin. */
+	private void computeBands(int sampleRate) {
+		bandStartBin = new int[bandCount];
+		bandEndBin = new int[bandCount];
+		int lastBin = analyzer.getBinCount() - 1;
+		float binWidth = analyzer.getBinFrequency(1);
+		double ratio = Math.log(sampleRate / 2f / MIN_FREQUENCY);
+		for (int i = 0; i < bandCount; i++) {
+			double low = MIN_FREQUENCY * Math.exp(ratio * i / bandCount);
+			double high = MIN_FREQUENCY * Math.exp(ratio * (i + 1) / bandCount);
+			int start = Math.min(lastBin, (int) Math.round(low / binWidth));
+			int end = Math.min(lastBin, (int) Math.round(high / binWidth) - 1);
+			bandStartBin[i] = start;
+			bandEndBin[i] = Math.max(start, end);
+		}
+		bandSampleRate = sampleRate;
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		removeCallbacks(idleCheck);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		LinearGradient gradient = new LinearGradient(0, 0, 0, h, GRADIENT_COLORS, null, Shader.TileMode.CLAMP); //todo positions
+		barPaint.setShader(gradient);
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		removeCallbacks(idleCheck);
+		if (analyzer == null) {
+			return;
+		}
+
+		long now = SystemClock.uptimeMillis();
+		float elapsedSeconds = lastDrawMillis == Long.MIN_VALUE ? 0f : (now - lastDrawMillis) / 1000f;
+		lastDrawMillis = now;
+		int sampleRate = analyzer.getSampleRate();
+		if (sampleRate != bandSampleRate) {
+			computeBands(sampleRate);
+		}
+		drawnUpdateMillis = analyzer.getSpectrum(spectrum);
+
+		float left = getPaddingLeft();
+		float bottom = getHeight() - getPaddingBottom();
+		float height = bottom - getPaddingTop();
+		float bandWidth = (getWidth() - getPaddingLeft() - getPaddingRight()) / (float) bandCount;
+		boolean active = false;
+		for (int i = 0; i < bandCount; i++) {
+			float power = 0;
+			for (int bin = bandStartBin[i]; bin <= bandEndBin[i]; bin++) {
+				power = Math.max(power, spectrum[bin]);
+			}
+			float db = power > 0 ? Math.max(DB_FLOOR, (float) (10 * Math.log10(power))) : DB_FLOOR;
+			bandDb[i] = Math.max(db, bandDb[i] - FALL_DB_PER_SECOND * elapsedSeconds);
+			if (bandDb[i] > DB_FLOOR) {
+				active = true;
+				float top = getPaddingTop() + Math.min(0f, bandDb[i]) / DB_FLOOR * height;
+				canvas.drawRect(left + i * bandWidth, top, left + (i + 1) * bandWidth - barGap, bottom, barPaint);
+			}
+		}
+
+		if (active) {
+			// sample the analyzer again next frame
+			postInvalidateOnAnimation();
+		} else {
+			lastDrawMillis = Long.MIN_VALUE;
+			postDelayed(idleCheck, IDLE_POLL_MILLIS);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.ninovanhooff.phonograph.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Readings of {@link LevelMeter} for known signals. Time is passed in, so the ballistics are
+ * checked against their specification without a clock.
+ */
+public class LevelMeterTest {
+
+	private static final int SAMPLE_RATE = 48000;
+	private static final int FULL_SCALE = 32767;
+	/** Fall rate of the PPM ballistics, 24 dB in 2.8 s */
+	private static final float PPM_FALL_DB_PER_SECOND = 24f / 2.8f;
+	private static final float DELTA = 0.01f;
+
+	@Test
+	public void ppmReadsFullScaleAsZeroDb() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(FULL_SCALE, 4800), 4800 * 2, 100);
+		assertEquals(0f, meter.getLevelDb(0, 100), DELTA);
+	}
+
+	@Test
+	public void ppmReadsHalfScaleAsMinusSixDb() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(16384, 4800), 4800 * 2, 100);
+		assertEquals(-6.02f, meter.getLevelDb(0, 100), DELTA);
+	}
+
+	@Test
+	public void ppmFallsTwentyFourDbInTwoPointEightSeconds() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(FULL_SCALE, 4800), 4800 * 2, 100);
+		assertEquals(-12f, meter.getLevelDb(0, 100 + 1400), DELTA);
+		assertEquals(-24f, meter.getLevelDb(0, 100 + 2800), DELTA);
+	}
+
+	@Test
+	public void ppmAttackTakesTenMilliseconds() {
+		LevelMeter meter = ppm(1);
+		// one time constant: 63% of the way up from the floor
+		meter.onCapture(constant(FULL_SCALE, 480), 480 * 2, 10);
+		float expected = LevelMeter.DB_FLOOR * (float) Math.exp(-1);
+		assertEquals(expected, meter.getLevelDb(0, 10), 0.1f);
+	}
+
+	@Test
+	public void vuReadsFullScaleSineAsZeroDb() {
+		LevelMeter meter = new LevelMeter(LevelMeter.BALLISTICS_VU);
+		meter.onCaptureFormat(SAMPLE_RATE, 1);
+		meter.onCapture(sine(FULL_SCALE, 1000, SAMPLE_RATE), SAMPLE_RATE * 2, 1000);
+		assertEquals(0f, meter.getLevelDb(0, 1000), 0.05f);
+	}
+
+	@Test
+	public void peakIsHeldThenFalls() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(FULL_SCALE, 4800), 4800 * 2, 100);
+		meter.onCapture(constant(0, 4800), 4800 * 2, 200);
+		assertTrue(meter.getLevelDb(0, 1200) < -9f);
+		assertEquals(0f, meter.getPeakDb(0, 1200), DELTA);
+		// released 1.5 s after the peak, then falls like the level
+		long released = 100 + LevelMeter.DEFAULT_PEAK_HOLD_MILLIS;
+		assertEquals(-PPM_FALL_DB_PER_SECOND, meter.getPeakDb(0, released + 1000), DELTA);
+	}
+
+	@Test
+	public void clipIsHeld() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(FULL_SCALE, 4800), 4800 * 2, 100);
+		assertTrue(meter.isClipping(0, 100));
+		assertTrue(meter.isClipping(0, 100 + LevelMeter.DEFAULT_CLIP_HOLD_MILLIS - 1));
+		assertFalse(meter.isClipping(0, 100 + LevelMeter.DEFAULT_CLIP_HOLD_MILLIS));
+	}
+
+	@Test
+	public void halfScaleDoesNotClip() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(16384, 4800), 4800 * 2, 100);
+		assertFalse(meter.isClipping(0, 100));
+	}
+
+	@Test
+	public void silenceIsInactive() {
+		LevelMeter meter = ppm(1);
+		meter.onCapture(constant(0, 4800), 4800 * 2, 100);
+		assertEquals(LevelMeter.DB_FLOOR, meter.getLevelDb(0, 100), DELTA);
+		assertFalse(meter.isActive(100));
+	}
+
+	@Test
+	public void channelsAreMeteredSeparately() {
+		LevelMeter meter = ppm(2);
+		byte[] pcm = new byte[4800 * 4];
+		for (int i = 0; i < pcm.length; i += 4) {
+			pcm[i] = (byte) FULL_SCALE;
+			pcm[i + 1] = (byte) (FULL_SCALE >> 8);
+		}
+		meter.onCapture(pcm, pcm.length, 100);
+		assertEquals(0f, meter.getLevelDb(0, 100), DELTA);
+		assertEquals(LevelMeter.DB_FLOOR, meter.getLevelDb(1, 100), DELTA);
+	}
+
+	@Test
+	public void amplitudeCoversTimeSinceLastUpdate() {
+		LevelMeter meter = ppm(1);
+		meter.onAmplitude(0, 0, 0);
+		meter.onAmplitude(0, FULL_SCALE, 100);
+		assertEquals(0f, meter.getLevelDb(0, 100), DELTA);
+	}
+
+	@Test
+	public void firstAmplitudeSetsTheLevel() {
+		LevelMeter meter = ppm(1);
+		meter.onAmplitude(0, FULL_SCALE, 100);
+		assertEquals(0f, meter.getLevelDb(0, 100), DELTA);
+		meter.reset();
+		meter.onAmplitude(0, 16384, 200);
+		assertEquals(-6.02f, meter.getLevelDb(0, 200), DELTA);
+	}
+
+	@Test
+	public void amplitudesOfChannelsKeepTheirOwnTime() {
+		LevelMeter meter = ppm(2);
+		meter.onAmplitude(0, FULL_SCALE, 100);
+		meter.onAmplitude(1, FULL_SCALE, 100);
+		assertEquals(0f, meter.getLevelDb(1, 100), DELTA);
+		// updates of channel 0 do not hold the decay of channel 1
+		meter.onAmplitude(0, FULL_SCALE, 100 + 1400);
+		meter.onAmplitude(0, FULL_SCALE, 100 + 2800);
+		assertEquals(0f, meter.getLevelDb(0, 100 + 2800), DELTA);
+		assertEquals(-24f, meter.getLevelDb(1, 100 + 2800), DELTA);
+		meter.onAmplitude(1, 0, 100 + 2800);
+		assertEquals(-24f, meter.getLevelDb(1, 100 + 2800), DELTA);
+	}
+
+	private static LevelMeter ppm(int channelCount) {
+		LevelMeter meter = new LevelMeter(LevelMeter.BALLISTICS_PPM);
+		meter.onCaptureFormat(SAMPLE_RATE, channelCount);
+		return meter;
+	}
+
+	/** Mono 16 bit little endian PCM of a constant sample value */
+	private static byte[] constant(int sample, int frames) {
+		byte[] pcm = new byte[frames * 2];
+		for (int i = 0; i < pcm.length; i += 2) {
+			pcm[i] = (byte) sample;
+			pcm[i + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+
+	/** Mono 16 bit little endian PCM of a sine of a whole number of periods */
+	private static byte[] sine(int amplitude, int frequency, int frames) {
+		byte[] pcm = new byte[frames * 2];
+		for (int i = 0; i < frames; i++) {
+			int sample = (int) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+			pcm[2 * i] = (byte) sample;
+			pcm[2 * i + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+}
@@ -0,0 +1,133 @@
+package com.dimowner.audiorecorder.data.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with the query planner of the device that the queries of the lists, their pages and the
+ * search use an index, and that no list is sorted in a temporary b-tree. The queries are written
+ * as {@link DataSource} and {@link RecordsDataSource} build them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLiteHelperQueryPlanTest {
+
+	private static final String DB = "query_plan_test.db";
+	private static final String COLUMNS = DataSource.SUMMARY_COLUMNS;
+	private static final String RECORDS = SQLiteHelper.TABLE_RECORDS;
+	private static final String TRASH = SQLiteHelper.TABLE_TRASH;
+	private static final String FTS = SQLiteHelper.TABLE_RECORDS_FTS;
+
+	private Context context;
+	private SQLiteHelper helper;
+	private SQLiteDatabase db;
+
+	@Before
+	public void setUp() {
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		context.deleteDatabase(DB);
+		helper = new SQLiteHelper(context, DB);
+		db = helper.getWritableDatabase();
+	}
+
+	@After
+	public void tearDown() {
+		helper.close();
+		context.deleteDatabase(DB);
+	}
+
+	@Test
+	public void recordsByDate() {
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_ADDED, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " ORDER BY added DESC, _id DESC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_ADDED, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " WHERE added <= 10 AND (added < 10 OR _id < 5) ORDER BY added DESC, _id DESC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_ADDED, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " ORDER BY added DESC");
+	}
+
+	@Test
+	public void recordsByName() {
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_NAME, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " ORDER BY name ASC, _id ASC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_NAME, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " WHERE name >= 'a' AND (name > 'a' OR _id > 5) ORDER BY name ASC, _id ASC LIMIT 50");
+	}
+
+	@Test
+	public void recordsByDuration() {
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_DURATION, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " ORDER BY duration DESC, _id DESC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_DURATION, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " WHERE duration <= 10 AND (duration < 10 OR _id < 5) ORDER BY duration DESC, _id DESC LIMIT 50");
+	}
+
+	@Test
+	public void bookmarks() {
+		assertUsesIndex(SQLiteHelper.INDEX_RECORDS_BOOKMARK, "SELECT " + COLUMNS + " FROM " + RECORDS
+				+ " WHERE bookmark = 1 ORDER BY created DESC");
+	}
+
+	@Test
+	public void trash() {
+		assertUsesIndex(SQLiteHelper.INDEX_TRASH_ADDED, "SELECT " + COLUMNS + " FROM " + TRASH
+				+ " ORDER BY added DESC, _id DESC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_TRASH_ADDED, "SELECT " + COLUMNS + " FROM " + TRASH
+				+ " WHERE added <= 10 AND (added < 10 OR _id < 5) ORDER BY added DESC, _id DESC LIMIT 50");
+		assertUsesIndex(SQLiteHelper.INDEX_TRASH_REMOVED, "SELECT " + COLUMNS + " FROM " + TRASH
+				+ " WHERE removed < 10 ORDER BY removed");
+	}
+
+	/** Search pages read the full-text index and then the records by id, never a scan of the records. */
+	@Test
+	public void search() {
+		String[] queries = {
+				"SELECT " + COLUMNS + " FROM " + RECORDS + " WHERE _id IN (SELECT docid FROM " + FTS
+						+ " WHERE " + FTS + " MATCH '^meet*' AND docid < 100 ORDER BY docid DESC LIMIT 50)"
+						+ " ORDER BY _id DESC",
+				"SELECT " + COLUMNS + " FROM " + RECORDS + " WHERE _id IN (SELECT docid FROM " + FTS
+						+ " WHERE " + FTS + " MATCH 'meet*' AND docid NOT IN (SELECT docid FROM " + FTS
+						+ " WHERE " + FTS + " MATCH '^meet*') AND docid < 100 ORDER BY docid DESC LIMIT 50)"
+						+ " ORDER BY _id DESC"
+		};
+		for (String query : queries) {
+			String plan = explainQueryPlan(query);
+			assertTrue(query + "\n" + plan, plan.contains("VIRTUAL TABLE INDEX"));
+			assertTrue(query + "\n" + plan, plan.contains("INTEGER PRIMARY KEY"));
+			assertFalse(query + "\n" + plan, plan.contains("SCAN TABLE " + RECORDS + "\n")
+					|| plan.contains("SCAN " + RECORDS + "\n"));
+		}
+	}
+
+	private void assertUsesIndex(String index, String query) {
+		String plan = explainQueryPlan(query);
+		assertTrue("Query does not use " + index + ": " + query + "\n" + plan, plan.contains(index));
+		assertFalse("Query sorts in a temporary b-tree: " + query + "\n" + plan, plan.contains("TEMP B-TREE"));
+	}
+
+	/** @return the steps of the plan of the query, one per line */
+	private String explainQueryPlan(String query) {
+		StringBuilder plan = new StringBuilder();
+		Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+		try {
+			int detail = c.getColumnIndex("detail");
+			while (c.moveToNext()) {
+				plan.append(c.getString(detail)).append('\n');
+			}
+		} finally {
+			c.close();
+		}
+		return plan.toString();
+	}
+}
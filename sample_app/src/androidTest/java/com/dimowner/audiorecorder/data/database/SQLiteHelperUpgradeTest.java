@@ -0,0 +1,143 @@
+package com.dimowner.audiorecorder.data.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades a database of every old version to the current one and compares it with a new
+ * database. Old databases start from the records table of version 1 and take the upgrade steps
+ * up to their version, as the app of that version left them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLiteHelperUpgradeTest {
+
+	private static final String FRESH_DB = "upgrade_test_fresh.db";
+
+	/** Records table as version 1 created it. */
+	private static final String CREATE_RECORDS_TABLE_V1_SCRIPT =
+			"CREATE TABLE records (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+					+ "duration LONG NOT NULL, created LONG NOT NULL, added LONG NOT NULL, path TEXT NOT NULL, "
+					+ "data BLOB NOT NULL, bookmark INTEGER NOT NULL DEFAULT 0, "
+					+ "waveform_processed INTEGER NOT NULL DEFAULT 0, data_str BLOB NOT NULL);";
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		context.deleteDatabase(FRESH_DB);
+	}
+
+	@After
+	public void tearDown() {
+		context.deleteDatabase(FRESH_DB);
+		for (int version = 1; version < SQLiteHelper.DATABASE_VERSION; version++) {
+			context.deleteDatabase(oldDbName(version));
+		}
+	}
+
+	@Test
+	public void upgradeFromEveryOldVersion() {
+		SQLiteHelper freshHelper = new SQLiteHelper(context, FRESH_DB);
+		SQLiteDatabase fresh = freshHelper.getWritableDatabase();
+		Set<String> recordColumns = columnsOf(fresh, SQLiteHelper.TABLE_RECORDS);
+		Set<String> trashColumns = columnsOf(fresh, SQLiteHelper.TABLE_TRASH);
+		freshHelper.close();
+
+		for (int version = 1; version < SQLiteHelper.DATABASE_VERSION; version++) {
+			createOldDatabase(version);
+			SQLiteHelper helper = new SQLiteHelper(context, oldDbName(version));
+			SQLiteDatabase db = helper.getWritableDatabase();
+			try {
+				assertEquals("Records columns from version " + version,
+						recordColumns, columnsOf(db, SQLiteHelper.TABLE_RECORDS));
+				assertEquals("Trash columns from version " + version,
+						trashColumns, columnsOf(db, SQLiteHelper.TABLE_TRASH));
+				assertEquals("Records from version " + version, 2,
+						count(db, "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_RECORDS));
+				assertEquals("Statistics from version " + version, 2,
+						count(db, "SELECT " + SQLiteHelper.COLUMN_COUNT + " FROM " + SQLiteHelper.TABLE_STATS
+								+ " WHERE " + SQLiteHelper.COLUMN_DAY + " = " + SQLiteHelper.STATS_ALL));
+				assertEquals("Search from version " + version, 1,
+						count(db, "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_RECORDS_FTS
+								+ " WHERE " + SQLiteHelper.TABLE_RECORDS_FTS + " MATCH 'meet*'"));
+				if (version >= 2) {
+					assertEquals("Trash from version " + version, 1,
+							count(db, "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_TRASH));
+				}
+				//New rows get the columns of the new version.
+				db.execSQL("INSERT INTO " + SQLiteHelper.TABLE_RECORDS + " (name, duration, created, added, path, "
+						+ "data, data_str, size, waveform) VALUES ('Interview', 1000, 0, 0, '/x.m4a', x'', x'', 10, x'')");
+				assertEquals("Statistics of a new record from version " + version, 3,
+						count(db, "SELECT " + SQLiteHelper.COLUMN_COUNT + " FROM " + SQLiteHelper.TABLE_STATS
+								+ " WHERE " + SQLiteHelper.COLUMN_DAY + " = " + SQLiteHelper.STATS_ALL));
+			} finally {
+				helper.close();
+			}
+		}
+	}
+
+	private static String oldDbName(int version) {
+		return "upgrade_test_v" + version + ".db";
+	}
+
+	/** A database of an old version with two records, and one in the trash when it has a trash. */
+	private void createOldDatabase(int version) {
+		String name = oldDbName(version);
+		context.deleteDatabase(name);
+		SQLiteDatabase db = context.openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+		try {
+			db.execSQL(CREATE_RECORDS_TABLE_V1_SCRIPT);
+			db.execSQL("INSERT INTO records (name, duration, created, added, path, data, data_str) "
+					+ "VALUES ('Meeting notes', 60000000, 1500000000000, 1500000000000, '/missing/a.m4a', x'0102', x'')");
+			db.execSQL("INSERT INTO records (name, duration, created, added, path, data, data_str) "
+					+ "VALUES ('Lecture', 30000000, 1500086400000, 1500086400000, '/missing/b.m4a', x'0304', x'')");
+			for (int step = 2; step <= version; step++) {
+				SQLiteHelper.upgradeTo(db, step);
+			}
+			if (version >= 2) {
+				db.execSQL("INSERT INTO trash (name, duration, created, added, removed, path, data, data_str) "
+						+ "VALUES ('Old', 1000000, 0, 0, 0, '/missing/c.m4a', x'05', x'')");
+			}
+			db.setVersion(version);
+		} finally {
+			db.close();
+		}
+	}
+
+	private static Set<String> columnsOf(SQLiteDatabase db, String table) {
+		Set<String> columns = new HashSet<>();
+		Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+		try {
+			while (c.moveToNext()) {
+				columns.add(c.getString(c.getColumnIndex("name")));
+			}
+		} finally {
+			c.close();
+		}
+		return columns;
+	}
+
+	private static int count(SQLiteDatabase db, String query) {
+		Cursor c = db.rawQuery(query, null);
+		try {
+			return c.moveToFirst() ? c.getInt(0) : -1;
+		} finally {
+			c.close();
+		}
+	}
+}
@@ -17,13 +17,23 @@
 package com.dimowner.audiorecorder;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Handler;
 
 import com.dimowner.audiorecorder.app.main.MainActivity;
+import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.phonograph.BuildConfig;
 import com.ninovanhooff.phonograph.Phonograph;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
+import com.ninovanhooff.phonograph.task.TaskMetrics;
 import com.ninovanhooff.phonograph.util.AndroidUtils;
 
+import java.io.File;
+import java.io.IOException;
+
 import timber.log.Timber;
 
 //import com.crashlytics.android.Crashlytics;
@@ -31,6 +41,9 @@ import timber.log.Timber;
 
 public class ARApplication extends Application {
 
+	/** Debug builds dump task statistics on: adb shell am broadcast -a {applicationId}.DUMP_TASK_METRICS */
+	private static final String ACTION_DUMP_TASK_METRICS = ".DUMP_TASK_METRICS";
+
 	private static String PACKAGE_NAME ;
 	public static volatile Handler applicationHandler;
 
@@ -64,7 +77,47 @@ public class ARApplication extends Application {
 		injector = new Injector(getApplicationContext());
 		Phonograph.initialize(getApplicationContext(), MainActivity.class, injector.provideAppRecorder(), null);
 		Phonograph.setScreenWidthDp(AndroidUtils.pxToDp(AndroidUtils.getScreenWidth(getApplicationContext())));
+		final LocalRepository localRepository = injector.provideLocalRepository();
+		convertWaveforms(localRepository, injector.provideProcessingTasksQueue());
+		//On the queue of the trash actions, so a record restored meanwhile keeps its file.
+		injector.provideRecordingTasksQueue().submit(new Runnable() {
+			@Override
+			public void run() {
+				localRepository.removeOutdatedTrashRecords();
+			}
+		}, TaskExecutor.PRIORITY_LOW, "removeOutdatedTrash");
+		injector.provideLibraryReconciler().reconcile();
 
+		if (BuildConfig.DEBUG) {
+			registerReceiver(new BroadcastReceiver() {
+				@Override
+				public void onReceive(Context context, Intent intent) {
+					TaskMetrics.getInstance().dumpToLog();
+					File file = new File(context.getExternalCacheDir(), "task_metrics.txt");
+					try {
+						TaskMetrics.getInstance().dumpToFile(file);
+						Timber.i("Task metrics written to %s", file);
+					} catch (IOException e) {
+						Timber.e(e);
+					}
+				}
+			}, new IntentFilter(PACKAGE_NAME + ACTION_DUMP_TASK_METRICS));
+		}
+	}
+
+	/**
+	 * One batch per task, the next batch is submitted at the end of each, so waveforms of new
+	 * records queued meanwhile do not wait for the whole library.
+	 */
+	private static void convertWaveforms(final LocalRepository localRepository, final TaskExecutor queue) {
+		queue.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (localRepository.convertWaveformsBatch()) {
+					convertWaveforms(localRepository, queue);
+				}
+			}
+		}, TaskExecutor.PRIORITY_LOW, "convertWaveforms");
 	}
 
 	@Override
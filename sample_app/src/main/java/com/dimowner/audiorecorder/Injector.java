@@ -19,6 +19,7 @@ package com.dimowner.audiorecorder;
 import android.content.Context;
 
 import com.dimowner.audiorecorder.app.AppRecorderImpl;
+import com.dimowner.audiorecorder.app.LibraryReconciler;
 import com.dimowner.audiorecorder.app.lostrecords.LostRecordsContract;
 import com.dimowner.audiorecorder.app.lostrecords.LostRecordsPresenter;
 import com.dimowner.audiorecorder.app.main.MainContract;
@@ -36,24 +37,26 @@ import com.dimowner.audiorecorder.data.database.LocalRepositoryImpl;
 import com.dimowner.audiorecorder.data.database.RecordsDataSource;
 import com.dimowner.audiorecorder.data.database.TrashDataSource;
 import com.ninovanhooff.phonograph.AppRecorder;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.Phonograph;
-import com.ninovanhooff.phonograph.audio.player.AudioPlayer;
+import com.ninovanhooff.phonograph.audio.player.DelegatingPlayer;
 import com.ninovanhooff.phonograph.audio.player.PlayerContract;
 import com.ninovanhooff.phonograph.audio.recorder.AudioRecorder;
 import com.ninovanhooff.phonograph.audio.recorder.RecorderContract;
 import com.ninovanhooff.phonograph.audio.recorder.WavRecorder;
 import com.ninovanhooff.phonograph.data.FileRepository;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
 
 public class Injector {
 
 	private Context context;
 
-	private BackgroundQueue loadingTasks;
-	private BackgroundQueue recordingTasks;
-	private BackgroundQueue importTasks;
-	private BackgroundQueue processingTasks;
-	private BackgroundQueue copyTasks;
+	private TaskExecutor loadingTasks;
+	private TaskExecutor recordingTasks;
+	private TaskExecutor importTasks;
+	private TaskExecutor processingTasks;
+	private TaskExecutor copyTasks;
+
+	private LibraryReconciler libraryReconciler;
 
 	private MainContract.UserActionsListener mainPresenter;
 	private RecordsContract.UserActionsListener recordsPresenter;
@@ -90,47 +93,55 @@ public class Injector {
 				provideLoadingTasksQueue(), provideProcessingTasksQueue(), providePrefs());
 	}
 
-	public BackgroundQueue provideLoadingTasksQueue() {
+	public TaskExecutor provideLoadingTasksQueue() {
 		if (loadingTasks == null) {
-			loadingTasks = new BackgroundQueue("LoadingTasks");
+			loadingTasks = new TaskExecutor("LoadingTasks");
 		}
 		return loadingTasks;
 	}
 
-	public BackgroundQueue provideRecordingTasksQueue() {
+	public TaskExecutor provideRecordingTasksQueue() {
 		if (recordingTasks == null) {
-			recordingTasks = new BackgroundQueue("RecordingTasks");
+			recordingTasks = new TaskExecutor("RecordingTasks");
 		}
 		return recordingTasks;
 	}
 
-	public BackgroundQueue provideImportTasksQueue() {
+	public TaskExecutor provideImportTasksQueue() {
 		if (importTasks == null) {
-			importTasks = new BackgroundQueue("ImportTasks");
+			importTasks = new TaskExecutor("ImportTasks");
 		}
 		return importTasks;
 	}
 
-	public BackgroundQueue provideProcessingTasksQueue() {
+	public TaskExecutor provideProcessingTasksQueue() {
 		if (processingTasks == null) {
-			processingTasks = new BackgroundQueue("ProcessingTasks");
+			processingTasks = new TaskExecutor("ProcessingTasks");
 		}
 		return processingTasks;
 	}
 
-	public BackgroundQueue provideCopyTasksQueue() {
+	public TaskExecutor provideCopyTasksQueue() {
 		if (copyTasks == null) {
-			copyTasks = new BackgroundQueue("CopyTasks");
+			copyTasks = new TaskExecutor("CopyTasks");
 		}
 		return copyTasks;
 	}
 
+	public LibraryReconciler provideLibraryReconciler() {
+		if (libraryReconciler == null) {
+			libraryReconciler = new LibraryReconciler(provideFileRepository(), provideLocalRepository(),
+					provideAppRecorder(), providePrefs(), provideImportTasksQueue(), provideProcessingTasksQueue());
+		}
+		return libraryReconciler;
+	}
+
 	public ColorMap provideColorMap() {
 		return ColorMap.getInstance(providePrefs());
 	}
 
 	public PlayerContract.Player provideAudioPlayer() {
-		return AudioPlayer.getInstance();
+		return DelegatingPlayer.getInstance();
 	}
 
 	public RecorderContract.Recorder provideAudioRecorder() {
@@ -145,7 +156,8 @@ public class Injector {
 		if (mainPresenter == null) {
 			mainPresenter = new MainPresenter(providePrefs(), provideFileRepository(),
 					provideLocalRepository(), provideAudioPlayer(), provideAppRecorder(),
-					provideLoadingTasksQueue(), provideRecordingTasksQueue(), provideImportTasksQueue());
+					provideLoadingTasksQueue(), provideRecordingTasksQueue(), provideImportTasksQueue(),
+					provideProcessingTasksQueue());
 		}
 		return mainPresenter;
 	}
@@ -154,7 +166,7 @@ public class Injector {
 		if (recordsPresenter == null) {
 			recordsPresenter = new RecordsPresenter(provideLocalRepository(), provideFileRepository(),
 					provideLoadingTasksQueue(), provideRecordingTasksQueue(), provideCopyTasksQueue(),
-					provideAudioPlayer(), provideAppRecorder(), providePrefs());
+					provideAudioPlayer(), provideAppRecorder(), providePrefs(), context.getCacheDir());
 		}
 		return recordsPresenter;
 	}
@@ -227,5 +239,9 @@ public class Injector {
 		processingTasks.close();
 		recordingTasks.cleanupQueue();
 		recordingTasks.close();
+		if (copyTasks != null) {
+			copyTasks.cleanupQueue();
+			copyTasks.close();
+		}
 	}
 }
@@ -2,6 +2,7 @@ package com.dimowner.audiorecorder;
 
 import com.dimowner.audiorecorder.app.records.ListItem;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.data.database.RecordSummary;
 import com.dimowner.audiorecorder.util.TimeUtils;
 
 import java.util.ArrayList;
@@ -32,4 +33,27 @@ public class Mapper {
 		return items;
 	}
 
+	/** The item has no waveform yet, it is loaded when the item is shown */
+	public static ListItem summaryToListItem(RecordSummary record) {
+		return new ListItem(
+				record.getId(),
+				ListItem.ITEM_TYPE_NORMAL,
+				record.getName().substring(0, record.getName().length()-4),
+				TimeUtils.formatTimeIntervalMinSec(record.getDuration()/1000),
+				record.getDuration()/1000,
+				record.getCreated(),
+				record.getAdded(),
+				record.getPath(),
+				record.isBookmarked(),
+				null);
+	}
+
+	public static List<ListItem> summariesToListItems(List<RecordSummary> records) {
+		List<ListItem> items = new ArrayList<>(records.size());
+		for (int i = 0; i < records.size(); i++) {
+			items.add(summaryToListItem(records.get(i)));
+		}
+		return items;
+	}
+
 }
@@ -6,11 +6,11 @@ import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.ninovanhooff.phonograph.AppRecorder;
 import com.ninovanhooff.phonograph.AppRecorderCallback;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.Phonograph;
 import com.ninovanhooff.phonograph.audio.recorder.RecorderContract;
 import com.ninovanhooff.phonograph.exception.AppException;
 import com.ninovanhooff.phonograph.exception.CantProcessRecord;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
 
 import java.io.File;
 import java.io.IOException;
@@ -22,9 +22,9 @@ import timber.log.Timber;
 public class AppRecorderImpl implements AppRecorder {
 
 	private RecorderContract.Recorder audioRecorder;
-	private final BackgroundQueue recordingsTasks;
+	private final TaskExecutor recordingsTasks;
 
-	private final BackgroundQueue processingTasks;
+	private final TaskExecutor processingTasks;
 	private final LocalRepository localRepository;
 	private final RecorderContract.RecorderCallback recorderCallback;
 	private final List<AppRecorderCallback> appCallbacks;
@@ -35,8 +35,8 @@ public class AppRecorderImpl implements AppRecorder {
 	private volatile static AppRecorderImpl instance;
 
 	public static AppRecorderImpl getInstance(RecorderContract.Recorder recorder,
-															LocalRepository localRep, BackgroundQueue tasks,
-															BackgroundQueue processingTasks, Prefs prefs) {
+															LocalRepository localRep, TaskExecutor tasks,
+															TaskExecutor processingTasks, Prefs prefs) {
 		if (instance == null) {
 			synchronized (AppRecorderImpl.class) {
 				if (instance == null) {
@@ -48,8 +48,8 @@ public class AppRecorderImpl implements AppRecorder {
 	}
 
 	private AppRecorderImpl(RecorderContract.Recorder recorder,
-									LocalRepository localRep, BackgroundQueue tasks,
-									final BackgroundQueue processingTasks, Prefs pr) {
+									LocalRepository localRep, TaskExecutor tasks,
+									final TaskExecutor processingTasks, Prefs pr) {
 		this.audioRecorder = recorder;
 		this.localRepository = localRep;
 		this.recordingsTasks = tasks;
@@ -101,7 +101,7 @@ public class AppRecorderImpl implements AppRecorder {
 							public void run() {
 								onRecordingStopped(id, output);
 								if ((float)recordingData.size()/(float)Phonograph.getLongWaveformSampleCount() > 1) {
-									processingTasks.postRunnable(new Runnable() {
+									processingTasks.submit(new Runnable() {
 										@Override
 										public void run() {
 											try {
@@ -120,7 +120,7 @@ public class AppRecorderImpl implements AppRecorder {
 												Timber.e(e);
 											}
 										}
-									});
+									}, TaskExecutor.PRIORITY_LOW, "updateWaveform");
 								} else {
 									onRecordFinishProcessing();
 								}
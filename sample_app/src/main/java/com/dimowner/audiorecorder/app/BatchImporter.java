@@ -0,0 +1,417 @@
+package com.dimowner.audiorecorder.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+
+import com.dimowner.audiorecorder.data.database.LocalRepository;
+import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.util.AndroidUtils;
+import com.ninovanhooff.phonograph.Phonograph;
+import com.ninovanhooff.phonograph.audio.SoundFile;
+import com.ninovanhooff.phonograph.data.FileRepository;
+import com.ninovanhooff.phonograph.exception.CantCreateFileException;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
+import com.ninovanhooff.phonograph.util.FileCopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Imports a list of audio files in a pipeline of stages: copy, probe, insert and waveform.
+ *
+ * Files are copied and probed for their duration on a copy pool. Probed files are inserted into
+ * the database in batches, each in one transaction, on the serial database queue. Inserted
+ * records get their waveform decoded on a decode pool, and the waveforms are written in batches
+ * as well. So while one file is decoded the next ones are already being copied.
+ *
+ * Copying is bound by storage, so the copy pool is small. Decoding is bound by CPU and memory:
+ * {@link SoundFile} keeps all decoded audio in memory, so besides the core count, decodes are
+ * limited by an estimate of the memory they need against a budget of half the heap.
+ *
+ * Listener methods are called on the worker threads.
+ */
+public class BatchImporter {
+
+	public static final int STAGE_COPY = 0;
+	public static final int STAGE_PROBE = 1;
+	public static final int STAGE_INSERT = 2;
+	public static final int STAGE_WAVEFORM = 3;
+	public static final int STAGE_DONE = 4;
+
+	/** More parallel copies do not make flash storage faster */
+	private static final int MAX_COPY_THREADS = 3;
+	private static final int MAX_DECODE_THREADS = 4;
+	/** Records inserted or updated per transaction */
+	private static final int BATCH_SIZE = 20;
+	/** Decoded size per second of audio of 16 bit 44.1 kHz stereo, plus 20% of buffer growth */
+	private static final long DECODED_BYTES_PER_SECOND = 44100 * 2 * 2 * 6 / 5;
+	/** Decoded size of a typical record of a few minutes, to size the decode pool */
+	private static final long TYPICAL_DECODED_BYTES = 180 * DECODED_BYTES_PER_SECOND;
+
+	public interface Listener {
+		/**
+		 * A file entered a stage.
+		 * @param percent copy progress in {@link #STAGE_COPY}, 0 in other stages
+		 */
+		void onFileProgress(int index, int stage, int percent);
+
+		void onFileFailed(int index, Exception e);
+
+		/** @param finished files that passed all stages or failed */
+		void onProgress(int finished, int total);
+
+		void onFinished(int imported, int failed, boolean cancelled);
+	}
+
+	private static class Item {
+		final int index;
+		final File file;
+		final long duration;
+		Record record;
+		/** Why the waveform was not decoded, null when it was */
+		Exception error;
+
+		Item(int index, File file, long duration) {
+			this.index = index;
+			this.file = file;
+			this.duration = duration;
+		}
+	}
+
+	private final Context context;
+	private final FileRepository fileRepository;
+	private final LocalRepository localRepository;
+	private final TaskExecutor databaseTasks;
+	private final Listener listener;
+
+	private final ExecutorService copyPool;
+	private final ExecutorService decodePool;
+	/** Decode memory budget in KB */
+	private final Semaphore decodeBudget;
+	private final int decodeBudgetKb;
+
+	private final Set<FileCopier> copiers = new HashSet<>();
+	private final List<Item> probed = new ArrayList<>();
+	private final List<Item> decoded = new ArrayList<>();
+	private final AtomicInteger copiesLeft = new AtomicInteger();
+	private final AtomicInteger filesLeft = new AtomicInteger();
+	private final AtomicInteger imported = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile boolean cancelled = false;
+	private int total;
+
+	/** @param databaseTasks serial queue for all database writes */
+	public BatchImporter(Context context, FileRepository fileRepository, LocalRepository localRepository,
+								TaskExecutor databaseTasks, Listener listener) {
+		this.context = context;
+		this.fileRepository = fileRepository;
+		this.localRepository = localRepository;
+		this.databaseTasks = databaseTasks;
+		this.listener = listener;
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		long budget = Runtime.getRuntime().maxMemory() / 2;
+		decodeBudgetKb = (int) Math.min(Integer.MAX_VALUE, budget / 1024);
+		decodeBudget = new Semaphore(decodeBudgetKb);
+		int copyThreads = Math.max(1, Math.min(MAX_COPY_THREADS, cores / 2));
+		int decodeThreads = (int) Math.max(1, Math.min(Math.min(MAX_DECODE_THREADS, cores - 1),
+				budget / TYPICAL_DECODED_BYTES));
+		copyPool = Executors.newFixedThreadPool(copyThreads, new WorkerFactory("ImportCopy"));
+		decodePool = Executors.newFixedThreadPool(decodeThreads, new WorkerFactory("ImportDecode"));
+		Timber.d("Batch import with %d copy and %d decode threads, decode budget %d MB",
+				copyThreads, decodeThreads, budget / (1024 * 1024));
+	}
+
+	/** Start importing. May be called once. */
+	public void start(List<Uri> uris) {
+		total = uris.size();
+		copiesLeft.set(total);
+		filesLeft.set(total);
+		if (total == 0) {
+			finish();
+			return;
+		}
+		for (int i = 0; i < total; i++) {
+			final int index = i;
+			final Uri uri = uris.get(i);
+			copyPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					copyAndProbe(index, uri);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stop copying and decoding. Records that were inserted already are kept, without a waveform
+	 * when it was not decoded yet.
+	 */
+	public void cancel() {
+		cancelled = true;
+		synchronized (copiers) {
+			for (FileCopier copier : copiers) {
+				copier.cancel();
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Runs on the copy pool */
+	private void copyAndProbe(final int index, Uri uri) {
+		File file = null;
+		try {
+			if (cancelled) {
+				throw new FileCopier.CancelledException();
+			}
+			listener.onFileProgress(index, STAGE_COPY, 0);
+			String name = AndroidUtils.extractFileName(context, uri);
+			// the repository picks a free name, which is not safe to do in parallel
+			synchronized (fileRepository) {
+				file = fileRepository.provideRecordFile(name);
+			}
+			FileCopier copier = new FileCopier(new FileCopier.ProgressListener() {
+				int percent = 0;
+
+				@Override
+				public void onProgress(long copied, long total) {
+					if (total > 0 && copied * 100 / total != percent) {
+						percent = (int) (copied * 100 / total);
+						listener.onFileProgress(index, STAGE_COPY, percent);
+					}
+				}
+			});
+			ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+			if (descriptor == null) {
+				throw new IOException("Can't open " + uri);
+			}
+			synchronized (copiers) {
+				copiers.add(copier);
+				if (cancelled) {
+					copier.cancel();
+				}
+			}
+			try {
+				copier.copy(descriptor.getFileDescriptor(), file);
+			} finally {
+				synchronized (copiers) {
+					copiers.remove(copier);
+				}
+				descriptor.close();
+			}
+
+			listener.onFileProgress(index, STAGE_PROBE, 0);
+			long duration = AndroidUtils.readRecordDuration(file);
+			if (duration <= 0) {
+				throw new IOException("Unable to read duration of " + uri);
+			}
+			synchronized (probed) {
+				probed.add(new Item(index, file, duration));
+			}
+		} catch (IOException | SecurityException | IllegalStateException | CantCreateFileException e) {
+			if (file != null && file.exists() && !file.delete()) {
+				Timber.e("Failed to delete %s", file);
+			}
+			onFailed(index, e);
+		}
+		int left = copiesLeft.decrementAndGet();
+		if (left == 0 || probedCount() >= BATCH_SIZE) {
+			databaseTasks.submit(new Runnable() {
+				@Override
+				public void run() {
+					insertProbed();
+				}
+			}, TaskExecutor.PRIORITY_NORMAL, "batchInsert");
+		}
+	}
+
+	/** Runs on the database queue */
+	private void insertProbed() {
+		List<Item> batch;
+		synchronized (probed) {
+			batch = new ArrayList<>(probed);
+			probed.clear();
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Record> records = new ArrayList<>(batch.size());
+		for (Item item : batch) {
+			listener.onFileProgress(item.index, STAGE_INSERT, 0);
+			records.add(new Record(
+					Record.NO_ID,
+					item.file.getName(),
+					item.duration,
+					item.file.lastModified(),
+					new Date().getTime(),
+					0,
+					item.file.getAbsolutePath(),
+					false,
+					false,
+					new int[Phonograph.getLongWaveformSampleCount()]));
+		}
+		long[] ids = localRepository.insertRecords(records);
+		for (int i = 0; i < batch.size(); i++) {
+			final Item item = batch.get(i);
+			if (ids[i] < 0) {
+				if (!item.file.delete()) {
+					Timber.e("Failed to delete %s", item.file);
+				}
+				onFailed(item.index, new IOException("Failed to insert " + item.file));
+				continue;
+			}
+			Record r = records.get(i);
+			item.record = new Record((int) ids[i], r.getName(), r.getDuration(), r.getCreated(), r.getAdded(),
+					r.getRemoved(), r.getPath(), r.isBookmarked(), r.isWaveformProcessed(), r.getAmps());
+			decodePool.execute(new Runnable() {
+				@Override
+				public void run() {
+					decode(item);
+				}
+			});
+		}
+	}
+
+	/** Runs on the decode pool */
+	private void decode(Item item) {
+		if (cancelled) {
+			item.error = new IOException("Import cancelled before decoding " + item.file);
+		} else {
+			listener.onFileProgress(item.index, STAGE_WAVEFORM, 0);
+			long estimate = item.duration / 1000000 * DECODED_BYTES_PER_SECOND;
+			int permits = (int) Math.max(1, Math.min(decodeBudgetKb, estimate / 1024));
+			decodeBudget.acquireUninterruptibly(permits);
+			try {
+				SoundFile soundFile = SoundFile.create(item.file.getAbsolutePath());
+				if (soundFile != null) {
+					Record r = item.record;
+					item.record = new Record(r.getId(), r.getName(), r.getDuration(), r.getCreated(), r.getAdded(),
+							r.getRemoved(), r.getPath(), r.isBookmarked(), true, soundFile.getFrameGains());
+				} else {
+					item.error = new IOException("Unsupported format of " + item.file);
+				}
+			} catch (IOException | IllegalStateException e) {
+				item.error = e;
+			} catch (OutOfMemoryError e) {
+				item.error = new IOException("Out of memory decoding " + item.file, e);
+			} finally {
+				decodeBudget.release(permits);
+			}
+		}
+		int batchSize;
+		synchronized (decoded) {
+			decoded.add(item);
+			batchSize = decoded.size();
+		}
+		final boolean last = filesLeft.decrementAndGet() == 0;
+		if (last || batchSize >= BATCH_SIZE) {
+			databaseTasks.submit(new Runnable() {
+				@Override
+				public void run() {
+					updateDecoded();
+					if (last) {
+						finish();
+					}
+				}
+			}, TaskExecutor.PRIORITY_NORMAL, "batchUpdate");
+		}
+	}
+
+	/**
+	 * Runs on the database queue. Files whose waveform was not decoded count as failed, their
+	 * records stay with the waveform still to be processed.
+	 */
+	private void updateDecoded() {
+		List<Item> batch;
+		synchronized (decoded) {
+			batch = new ArrayList<>(decoded);
+			decoded.clear();
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Record> records = new ArrayList<>(batch.size());
+		for (Item item : batch) {
+			if (item.error == null) {
+				records.add(item.record);
+			}
+		}
+		localRepository.updateRecords(records);
+		for (Item item : batch) {
+			if (item.error == null) {
+				imported.incrementAndGet();
+				listener.onFileProgress(item.index, STAGE_DONE, 0);
+			} else {
+				Timber.e(item.error, "Failed to import file %d", item.index);
+				failed.incrementAndGet();
+				listener.onFileFailed(item.index, item.error);
+			}
+		}
+		listener.onProgress(imported.get() + failed.get(), total);
+	}
+
+	private void onFailed(int index, Exception e) {
+		Timber.e(e, "Failed to import file %d", index);
+		failed.incrementAndGet();
+		listener.onFileFailed(index, e);
+		listener.onProgress(imported.get() + failed.get(), total);
+		if (filesLeft.decrementAndGet() == 0) {
+			databaseTasks.submit(new Runnable() {
+				@Override
+				public void run() {
+					updateDecoded();
+					finish();
+				}
+			}, TaskExecutor.PRIORITY_NORMAL, "batchUpdate");
+		}
+	}
+
+	private int probedCount() {
+		synchronized (probed) {
+			return probed.size();
+		}
+	}
+
+	private void finish() {
+		copyPool.shutdown();
+		decodePool.shutdown();
+		listener.onFinished(imported.get(), failed.get(), cancelled);
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		WorkerFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, name + "-" + count.incrementAndGet());
+		}
+	}
+}
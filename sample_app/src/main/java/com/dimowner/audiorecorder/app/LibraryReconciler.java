@@ -0,0 +1,241 @@
+package com.dimowner.audiorecorder.app;
+
+import com.dimowner.audiorecorder.data.Prefs;
+import com.dimowner.audiorecorder.data.database.LocalRepository;
+import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.util.AndroidUtils;
+import com.ninovanhooff.phonograph.AppRecorder;
+import com.ninovanhooff.phonograph.Phonograph;
+import com.ninovanhooff.phonograph.data.FileRepository;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Adds the files that other apps put in the recording directory, like sync tools or adb, to the
+ * records.
+ *
+ * A scan lists the directory once and compares the names with the paths in the database. New
+ * files are probed for their duration from their headers and inserted in batches, each in one
+ * transaction. Their waveforms are queued on the processing queue, so they are decoded while the
+ * next batch is probed. Scan and batches run on the import queue, after and between the
+ * transactions of {@link BatchImporter}.
+ *
+ * The modification time of the directory is kept when a scan took in all files, and the next scan
+ * stops when it did not change: no file was created, deleted or renamed. Files changed in place
+ * do not change it, but the records do not depend on their content. Files modified just before a
+ * scan may still be written and are left for the next one, the directory is not marked as scanned
+ * then. Records of deleted files are not removed, those are reported by
+ * {@link com.dimowner.audiorecorder.data.database.OnRecordsLostListener} as before.
+ */
+public class LibraryReconciler {
+
+	/** Records inserted per transaction */
+	private static final int BATCH_SIZE = 50;
+	/** Files modified more recently than this before a scan may still be written */
+	private static final long SETTLE_MILLIS = 5000;
+	/** Modification times are this coarse on some file systems, 2 seconds on FAT */
+	private static final long MODIFIED_RESOLUTION_MILLIS = 2000;
+
+	/** State of one scan, used on the import queue only */
+	private static class Scan {
+		final String dir;
+		final long modified;
+		final long start;
+		boolean complete;
+		int added = 0;
+
+		Scan(String dir, long modified, long start) {
+			this.dir = dir;
+			this.modified = modified;
+			this.start = start;
+		}
+	}
+
+	private static class Item {
+		final File file;
+		final long duration;
+
+		Item(File file, long duration) {
+			this.file = file;
+			this.duration = duration;
+		}
+	}
+
+	private final FileRepository fileRepository;
+	private final LocalRepository localRepository;
+	private final AppRecorder appRecorder;
+	private final Prefs prefs;
+	private final TaskExecutor importTasks;
+	private final TaskExecutor processingTasks;
+
+	public LibraryReconciler(FileRepository fileRepository, LocalRepository localRepository, AppRecorder appRecorder,
+									 Prefs prefs, TaskExecutor importTasks, TaskExecutor processingTasks) {
+		this.fileRepository = fileRepository;
+		this.localRepository = localRepository;
+		this.appRecorder = appRecorder;
+		this.prefs = prefs;
+		this.importTasks = importTasks;
+		this.processingTasks = processingTasks;
+	}
+
+	/** Scan the recording directory in the background, unless it did not change since the last scan. */
+	public void reconcile() {
+		importTasks.submitCoalesced("reconcileLibrary", new Runnable() {
+			@Override
+			public void run() {
+				scan();
+			}
+		}, TaskExecutor.PRIORITY_LOW);
+	}
+
+	/** Runs on the import queue */
+	private void scan() {
+		if (appRecorder.isRecording() || appRecorder.isPaused() || appRecorder.isProcessing()) {
+			//The file of the recording is not a record yet.
+			Timber.d("Library scan skipped while recording");
+			return;
+		}
+		File dir = fileRepository.getRecordingDir();
+		if (dir == null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		String path = dir.getAbsolutePath();
+		long modified = dir.lastModified();
+		if (modified != 0 && modified == prefs.getLibraryCheckpoint(path)) {
+			Timber.d("Library unchanged, checked in %d ms", System.currentTimeMillis() - start);
+			return;
+		}
+		File[] files = dir.listFiles();
+		if (files == null) {
+			Timber.e("Can't list %s", dir);
+			return;
+		}
+		final Scan scan = new Scan(path, modified, start);
+		//A change in the same tick as the listing would not change the time.
+		scan.complete = modified != 0 && modified < start - MODIFIED_RESOLUTION_MILLIS;
+
+		//Files of records in the trash stay until the records are deleted, they are known too.
+		Set<String> known = localRepository.getRecordPaths();
+		Set<String> listed = new HashSet<>(files.length * 2);
+		List<File> found = new ArrayList<>();
+		for (File file : files) {
+			String filePath = file.getAbsolutePath();
+			listed.add(filePath);
+			if (known.contains(filePath) || file.getName().startsWith(".") || !file.isFile()) {
+				continue;
+			}
+			if (file.lastModified() > start - SETTLE_MILLIS) {
+				scan.complete = false;
+			} else if (file.length() > 0) {
+				found.add(file);
+			}
+		}
+		int lost = 0;
+		for (String knownPath : known) {
+			if (knownPath != null && path.equals(new File(knownPath).getParent()) && !listed.contains(knownPath)) {
+				lost++;
+			}
+		}
+		Timber.d("Library scan of %d files found %d new and %d lost in %d ms",
+				files.length, found.size(), lost, System.currentTimeMillis() - start);
+
+		for (int i = 0; i < found.size(); i += BATCH_SIZE) {
+			final List<File> batch = found.subList(i, Math.min(found.size(), i + BATCH_SIZE));
+			importTasks.submit(new Runnable() {
+				@Override
+				public void run() {
+					insert(scan, batch);
+				}
+			}, TaskExecutor.PRIORITY_LOW, "reconcileInsert");
+		}
+		importTasks.submit(new Runnable() {
+			@Override
+			public void run() {
+				finish(scan);
+			}
+		}, TaskExecutor.PRIORITY_LOW, "reconcileFinish");
+	}
+
+	/** Runs on the import queue */
+	private void insert(Scan scan, List<File> files) {
+		List<Item> probed = new ArrayList<>(files.size());
+		for (File file : files) {
+			long duration;
+			try {
+				duration = AndroidUtils.readRecordDuration(file);
+			} catch (IllegalStateException | IllegalArgumentException e) {
+				Timber.e(e);
+				duration = -1;
+			}
+			if (duration > 0) {
+				probed.add(new Item(file, duration));
+			} else {
+				//Not audio, it is probed again only after the directory changes.
+				Timber.w("Library scan skipped %s", file);
+			}
+		}
+		//Files may have been imported or renamed by the app since the listing.
+		Set<String> known = localRepository.getRecordPaths();
+		List<Record> records = new ArrayList<>(probed.size());
+		for (Item item : probed) {
+			if (!known.contains(item.file.getAbsolutePath()) && item.file.exists()) {
+				records.add(new Record(
+						Record.NO_ID,
+						item.file.getName(),
+						item.duration,
+						item.file.lastModified(),
+						new Date().getTime(),
+						0,
+						item.file.getAbsolutePath(),
+						false,
+						false,
+						new int[Phonograph.getLongWaveformSampleCount()]));
+			}
+		}
+		if (records.isEmpty()) {
+			return;
+		}
+		long[] ids = localRepository.insertRecords(records);
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] < 0) {
+				Timber.e("Failed to insert %s", records.get(i).getPath());
+				scan.complete = false;
+			} else {
+				scan.added++;
+				updateWaveform((int) ids[i]);
+			}
+		}
+	}
+
+	private void updateWaveform(final int id) {
+		processingTasks.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					localRepository.updateWaveform(id);
+				} catch (IOException | OutOfMemoryError | IllegalStateException e) {
+					//The record stays, with the waveform still to be processed.
+					Timber.e(e);
+				}
+			}
+		}, TaskExecutor.PRIORITY_LOW, "updateWaveform");
+	}
+
+	/** Runs on the import queue, after all batches of the scan */
+	private void finish(Scan scan) {
+		if (scan.complete) {
+			prefs.setLibraryCheckpoint(scan.dir, scan.modified);
+		}
+		Timber.i("Library scan added %d records in %d ms", scan.added, System.currentTimeMillis() - scan.start);
+	}
+}
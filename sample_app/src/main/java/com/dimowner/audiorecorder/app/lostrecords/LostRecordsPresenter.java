@@ -7,7 +7,7 @@ import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.OnRecordsLostListener;
 import com.dimowner.audiorecorder.data.database.Record;
 import com.dimowner.audiorecorder.util.AndroidUtils;
-import com.ninovanhooff.phonograph.BackgroundQueue;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
 import com.ninovanhooff.phonograph.util.FileUtil;
 
 import java.io.File;
@@ -21,12 +21,12 @@ import java.util.List;
 public class LostRecordsPresenter implements LostRecordsContract.UserActionsListener {
 
 	private LostRecordsContract.View view;
-	private final BackgroundQueue loadingTasks;
-	private final BackgroundQueue recordingsTasks;
+	private final TaskExecutor loadingTasks;
+	private final TaskExecutor recordingsTasks;
 	private final LocalRepository localRepository;
 	private final Prefs prefs;
 
-	public LostRecordsPresenter(BackgroundQueue loadingTasks, BackgroundQueue recordingsTasks,
+	public LostRecordsPresenter(TaskExecutor loadingTasks, TaskExecutor recordingsTasks,
 										 LocalRepository localRepository, Prefs prefs) {
 		this.loadingTasks = loadingTasks;
 		this.recordingsTasks = recordingsTasks;
@@ -63,7 +63,7 @@ public class LostRecordsPresenter implements LostRecordsContract.UserActionsList
 		loadingTasks.postRunnable(new Runnable() {
 			@Override
 			public void run() {
-				localRepository.getAllRecords();
+				localRepository.getAllRecordSummaries();
 			}
 		});
 	}
@@ -84,13 +84,15 @@ public class LostRecordsPresenter implements LostRecordsContract.UserActionsList
 		recordingsTasks.postRunnable(new Runnable() {
 			@Override
 			public void run() {
+				List<Integer> ids = new ArrayList<>(list.size());
 				for (RecordItem rec : list) {
-					localRepository.deleteRecord(rec.getId());
+					ids.add(rec.getId());
 //					fileRepository.deleteRecordFile(rec.getPath());
 					if (prefs.getActiveRecord() == rec.getId()) {
 						prefs.setActiveRecord(-1);
 					}
 				}
+				localRepository.deleteRecords(ids);
 				AndroidUtils.runOnUIThread(new Runnable() {
 					@Override
 					public void run() {
@@ -20,6 +20,7 @@ import android.Manifest;
 import android.animation.Animator;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ClipData;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -27,6 +28,7 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -64,10 +66,14 @@ import com.dimowner.audiorecorder.util.TimeUtils;
 import com.ninovanhooff.phonograph.Phonograph;
 import com.ninovanhooff.phonograph.PlaybackService;
 import com.ninovanhooff.phonograph.RecordingService;
+import com.ninovanhooff.phonograph.audio.recorder.RecorderContract;
+import com.ninovanhooff.phonograph.audio.recorder.WavRecorder;
 import com.ninovanhooff.phonograph.util.FileUtil;
+import com.ninovanhooff.phonograph.widget.LevelsView;
 import com.ninovanhooff.phonograph.widget.WaveformView;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -95,6 +101,9 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	public static final int REQ_CODE_IMPORT_AUDIO = 11;
 
 	private WaveformView waveformView;
+	private LevelsView levelsView;
+	/** Recorder that feeds the level meter with the captured audio, null when it only reports amplitudes */
+	private WavRecorder tappedRecorder;
 	private TextView txtProgress;
 	private TextView txtDuration;
 	private TextView txtZeroTime;
@@ -111,6 +120,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	private ProgressBar progressBar;
 	private SeekBar playProgress;
 	private LinearLayout pnlImportProgress;
+	private TextView txtImportProgress;
 	private LinearLayout pnlRecordProcessing;
 
 	private MainContract.UserActionsListener presenter;
@@ -128,6 +138,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		setContentView(R.layout.activity_main);
 
 		waveformView = findViewById(R.id.record);
+		levelsView = findViewById(R.id.levels);
 		txtProgress = findViewById(R.id.txt_progress);
 		txtDuration = findViewById(R.id.txt_duration);
 		txtZeroTime = findViewById(R.id.txt_zero_time);
@@ -144,6 +155,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		progressBar = findViewById(R.id.progress);
 		playProgress = findViewById(R.id.play_progress);
 		pnlImportProgress = findViewById(R.id.pnl_import_progress);
+		txtImportProgress = findViewById(R.id.txt_import_progress);
 		pnlRecordProcessing = findViewById(R.id.pnl_record_processing);
 
 		txtProgress.setText(TimeUtils.formatTimeIntervalHourMinSec2(0));
@@ -162,6 +174,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		btnSettings.setOnClickListener(this);
 		btnShare.setOnClickListener(this);
 		btnImport.setOnClickListener(this);
+		pnlImportProgress.setOnClickListener(this);
 		txtName.setOnClickListener(this);
 		playProgress.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
 			@Override
@@ -225,7 +238,12 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	protected void onStart() {
 		super.onStart();
 		presenter.bindView(this);
-		presenter.setAudioRecorder(ARApplication.getInjector().provideAudioRecorder());
+		RecorderContract.Recorder recorder = ARApplication.getInjector().provideAudioRecorder();
+		presenter.setAudioRecorder(recorder);
+		if (recorder instanceof WavRecorder) {
+			tappedRecorder = (WavRecorder) recorder;
+			tappedRecorder.addCaptureTap(levelsView.getLevelMeter());
+		}
 		presenter.updateRecordingDir(getApplicationContext());
 		presenter.loadActiveRecord();
 	}
@@ -237,6 +255,10 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 			presenter.unbindView();
 			waveformView.setPlayback(-1);
 		}
+		if (tappedRecorder != null) {
+			tappedRecorder.removeCaptureTap(levelsView.getLevelMeter());
+			tappedRecorder = null;
+		}
 	}
 
 	@Override
@@ -290,6 +312,9 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 					startFileSelector();
 				}
 				break;
+			case R.id.pnl_import_progress:
+				presenter.cancelImport();
+				break;
 			case R.id.txt_name:
 				if (presenter.getActiveRecordId() != -1) {
 					setRecordName(presenter.getActiveRecordId(), new File(presenter.getActiveRecordPath()), false);
@@ -304,6 +329,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		intent_upload.addCategory(Intent.CATEGORY_OPENABLE);
 //		intent_upload.setAction(Intent.ACTION_GET_CONTENT);
 		intent_upload.setAction(Intent.ACTION_OPEN_DOCUMENT);
+		intent_upload.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
 		startActivityForResult(intent_upload, REQ_CODE_IMPORT_AUDIO);
 	}
 
@@ -311,7 +337,18 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
 		if (requestCode == REQ_CODE_IMPORT_AUDIO && resultCode == RESULT_OK){
-			presenter.importAudioFile(getApplicationContext(), data.getData());
+			ClipData clipData = data.getClipData();
+			if (clipData != null && clipData.getItemCount() > 1) {
+				List<Uri> uris = new ArrayList<>(clipData.getItemCount());
+				for (int i = 0; i < clipData.getItemCount(); i++) {
+					uris.add(clipData.getItemAt(i).getUri());
+				}
+				presenter.importAudioFiles(getApplicationContext(), uris);
+			} else if (data.getData() != null) {
+				presenter.importAudioFile(getApplicationContext(), data.getData());
+			} else if (clipData != null && clipData.getItemCount() == 1) {
+				presenter.importAudioFile(getApplicationContext(), clipData.getItemAt(0).getUri());
+			}
 		}
 	}
 
@@ -372,6 +409,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		playProgress.setEnabled(false);
 		txtDuration.setText(R.string.zero_time);
 		waveformView.showRecording();
+		levelsView.setVisibility(View.VISIBLE);
 	}
 
 	@Override
@@ -394,6 +432,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 		btnRecordingStop.setEnabled(false);
 		waveformView.hideRecording();
 		waveformView.clearRecordingData();
+		levelsView.setVisibility(View.INVISIBLE);
 	}
 
 	@Override
@@ -415,6 +454,9 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	public void onRecordingProgress(long mills, int amp) {
 		txtProgress.setText(TimeUtils.formatTimeIntervalHourMinSec2(mills));
 		waveformView.addRecordAmp(amp);
+		if (tappedRecorder == null) {
+			levelsView.setAmplitude(amp);
+		}
 	}
 
 	@Override
@@ -570,9 +612,25 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	@Override
 	public void showImportStart() {
 		btnImport.setVisibility(View.INVISIBLE);
+		txtImportProgress.setText(R.string.import_progress);
 		pnlImportProgress.setVisibility(View.VISIBLE);
 	}
 
+	@Override
+	public void showImportProgress(int percent) {
+		txtImportProgress.setText(getString(R.string.import_progress_percent, percent));
+	}
+
+	@Override
+	public void showBatchImportProgress(int finished, int total) {
+		txtImportProgress.setText(getString(R.string.import_batch_progress, finished, total));
+	}
+
+	@Override
+	public void showImportResult(int imported, int failed) {
+		Toast.makeText(getApplicationContext(), getString(R.string.import_result, imported, failed), Toast.LENGTH_LONG).show();
+	}
+
 	@Override
 	public void hideImportProgress() {
 		pnlImportProgress.setVisibility(View.INVISIBLE);
@@ -51,6 +51,9 @@ public interface MainContract {
 		void onPlayProgress(long mills, int px, int percent);
 
 		void showImportStart();
+		void showImportProgress(int percent);
+		void showBatchImportProgress(int finished, int total);
+		void showImportResult(int imported, int failed);
 		void hideImportProgress();
 
 		void showOptionsMenu();
@@ -94,6 +97,10 @@ public interface MainContract {
 
 		void importAudioFile(Context context, Uri uri);
 
+		void importAudioFiles(Context context, List<Uri> uris);
+
+		void cancelImport();
+
 		void updateRecordingDir(Context context);
 
 		void setStoragePrivate(Context context);
@@ -17,13 +17,12 @@
 package com.dimowner.audiorecorder.app.main;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
-import android.provider.OpenableColumns;
 
 import com.dimowner.audiorecorder.AppConstants;
 import com.dimowner.audiorecorder.R;
+import com.dimowner.audiorecorder.app.BatchImporter;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
@@ -33,7 +32,6 @@ import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.dimowner.audiorecorder.util.TimeUtils;
 import com.ninovanhooff.phonograph.AppRecorder;
 import com.ninovanhooff.phonograph.AppRecorderCallback;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.Phonograph;
 import com.ninovanhooff.phonograph.PhonographConstants;
 import com.ninovanhooff.phonograph.audio.player.PlayerContract;
@@ -42,6 +40,8 @@ import com.ninovanhooff.phonograph.data.FileRepository;
 import com.ninovanhooff.phonograph.exception.AppException;
 import com.ninovanhooff.phonograph.exception.CantCreateFileException;
 import com.ninovanhooff.phonograph.exception.ErrorParser;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
+import com.ninovanhooff.phonograph.util.FileCopier;
 import com.ninovanhooff.phonograph.util.FileUtil;
 
 import java.io.File;
@@ -59,36 +59,42 @@ public class MainPresenter implements MainContract.UserActionsListener {
 	private final PlayerContract.Player audioPlayer;
 	private PlayerContract.PlayerCallback playerCallback;
 	private AppRecorderCallback appRecorderCallback;
-	private final BackgroundQueue loadingTasks;
-	private final BackgroundQueue recordingsTasks;
-	private final BackgroundQueue importTasks;
+	private final TaskExecutor loadingTasks;
+	private final TaskExecutor recordingsTasks;
+	private final TaskExecutor importTasks;
+	private final TaskExecutor processingTasks;
 	private final FileRepository fileRepository;
 	private final LocalRepository localRepository;
 	private final Prefs prefs;
 	private long songDuration = 0;
 	private float dpPerSecond = AppConstants.SHORT_RECORD_DP_PER_SECOND;
 	private Record record;
-	private boolean isProcessing = false;
+	private volatile boolean isProcessing = false;
 	private boolean deleteRecord = false;
 	private boolean listenPlaybackProgress = true;
 
 	/** Flag true defines that presenter called to show import progress when view was not bind.
 	 * And after view bind we need to show import progress.*/
 	private boolean showImportProgress = false;
+	/** Copier of the running import, null when no file is copied */
+	private volatile FileCopier importCopier;
+	private volatile BatchImporter batchImporter;
 
 	public MainPresenter(final Prefs prefs, final FileRepository fileRepository,
 								final LocalRepository localRepository,
 								PlayerContract.Player audioPlayer,
 								AppRecorder appRecorder,
-								final BackgroundQueue recordingTasks,
-								final BackgroundQueue loadingTasks,
-								final BackgroundQueue importTasks) {
+								final TaskExecutor recordingTasks,
+								final TaskExecutor loadingTasks,
+								final TaskExecutor importTasks,
+								final TaskExecutor processingTasks) {
 		this.prefs = prefs;
 		this.fileRepository = fileRepository;
 		this.localRepository = localRepository;
 		this.loadingTasks = loadingTasks;
 		this.recordingsTasks = recordingTasks;
 		this.importTasks = importTasks;
+		this.processingTasks = processingTasks;
 		this.audioPlayer = audioPlayer;
 		this.appRecorder = appRecorder;
 	}
@@ -220,18 +226,13 @@ public class MainPresenter implements MainContract.UserActionsListener {
 				}
 
 				@Override
-				public void onPlayProgress(final long mills) {
+				public void onPlayProgress(long mills) {
 					if (view != null && listenPlaybackProgress) {
-						AndroidUtils.runOnUIThread(new Runnable() {
-							@Override public void run() {
-								if (view != null) {
-									long duration = songDuration/1000;
-									if (duration > 0) {
-										view.onPlayProgress(mills, AndroidUtils.convertMillsToPx(mills,
-												AndroidUtils.dpToPx(dpPerSecond)), (int) (1000 * mills / duration));
-									}
-								}
-							}});
+						long duration = songDuration/1000;
+						if (duration > 0) {
+							view.onPlayProgress(mills, AndroidUtils.convertMillsToPx(mills,
+									AndroidUtils.dpToPx(dpPerSecond)), (int) (1000 * mills / duration));
+						}
 					}
 				}
 
@@ -254,6 +255,11 @@ public class MainPresenter implements MainContract.UserActionsListener {
 				public void onSeek(long mills) {
 				}
 
+				@Override
+				public void onNextData(String data) {
+					// Only the records list queues next data
+				}
+
 				@Override
 				public void onError(AppException throwable) {
 					Timber.e(throwable);
@@ -323,7 +329,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 		if (view != null) {
 			unbindView();
 		}
-		localRepository.close();
+		//The database stays open, other screens and queues share it.
 		audioPlayer.release();
 		appRecorder.release();
 		loadingTasks.close();
@@ -508,7 +514,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 	public void loadActiveRecord() {
 		if (!appRecorder.isRecording()) {
 			view.showProgress();
-			loadingTasks.postRunnable(new Runnable() {
+			loadingTasks.submit(new Runnable() {
 				@Override
 				public void run() {
 					final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
@@ -529,39 +535,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 							}
 						});
 						if (!rec.isWaveformProcessed() && !isProcessing) {
-							try {
-								if (view != null) {
-									AndroidUtils.runOnUIThread(new Runnable() {
-										@Override
-										public void run() {
-											if (view != null) {
-												view.showRecordProcessing();
-											}
-										}
-									});
-									isProcessing = true;
-									localRepository.updateWaveform(rec.getId());
-									AndroidUtils.runOnUIThread(new Runnable() {
-										@Override
-										public void run() {
-											if (view != null) {
-												view.hideRecordProcessing();
-											}
-										}
-									});
-								}
-							} catch (IOException | OutOfMemoryError | IllegalStateException e) {
-								Timber.e(e);
-								AndroidUtils.runOnUIThread(new Runnable() {
-									@Override
-									public void run() {
-										if (view != null) {
-											view.showError(R.string.error_process_waveform);
-										}
-									}
-								});
-							}
-							isProcessing = false;
+							processWaveform(rec);
 						}
 					} else {
 						AndroidUtils.runOnUIThread(new Runnable() {
@@ -578,10 +552,52 @@ public class MainPresenter implements MainContract.UserActionsListener {
 						});
 					}
 				}
-			});
+			}, TaskExecutor.PRIORITY_HIGH, "loadActiveRecord");
 		}
 	}
 
+	/** Decode the waveform of a record in the background, it may take minutes for long records */
+	private void processWaveform(final Record rec) {
+		isProcessing = true;
+		processingTasks.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (view != null) {
+						AndroidUtils.runOnUIThread(new Runnable() {
+							@Override
+							public void run() {
+								if (view != null) {
+									view.showRecordProcessing();
+								}
+							}
+						});
+						localRepository.updateWaveform(rec.getId());
+						AndroidUtils.runOnUIThread(new Runnable() {
+							@Override
+							public void run() {
+								if (view != null) {
+									view.hideRecordProcessing();
+								}
+							}
+						});
+					}
+				} catch (IOException | OutOfMemoryError | IllegalStateException e) {
+					Timber.e(e);
+					AndroidUtils.runOnUIThread(new Runnable() {
+						@Override
+						public void run() {
+							if (view != null) {
+								view.showError(R.string.error_process_waveform);
+							}
+						}
+					});
+				}
+				isProcessing = false;
+			}
+		}, TaskExecutor.PRIORITY_LOW, "processWaveform");
+	}
+
 	@Override
 	public void dontAskRename() {
 		prefs.setAskToRenameAfterStopRecording(false);
@@ -696,6 +712,65 @@ public class MainPresenter implements MainContract.UserActionsListener {
 		listenPlaybackProgress = true;
 	}
 
+	@Override
+	public void cancelImport() {
+		FileCopier copier = importCopier;
+		if (copier != null) {
+			copier.cancel();
+		}
+		BatchImporter importer = batchImporter;
+		if (importer != null) {
+			importer.cancel();
+		}
+	}
+
+	@Override
+	public void importAudioFiles(Context context, List<Uri> uris) {
+		if (batchImporter != null) {
+			return;
+		}
+		if (view != null) {
+			view.showImportStart();
+		}
+		showImportProgress = true;
+		batchImporter = new BatchImporter(context.getApplicationContext(), fileRepository, localRepository,
+				importTasks, new BatchImporter.Listener() {
+			@Override
+			public void onFileProgress(int index, int stage, int percent) {
+				Timber.v("Import file %d stage %d %d%%", index, stage, percent);
+			}
+
+			@Override
+			public void onFileFailed(int index, Exception e) {
+				//Failures are logged by the importer and counted in the result.
+			}
+
+			@Override
+			public void onProgress(final int finished, final int total) {
+				AndroidUtils.runOnUIThread(new Runnable() {
+					@Override public void run() {
+						if (view != null && showImportProgress) {
+							view.showBatchImportProgress(finished, total);
+						}
+					}});
+			}
+
+			@Override
+			public void onFinished(final int imported, final int failed, boolean cancelled) {
+				batchImporter = null;
+				showImportProgress = false;
+				AndroidUtils.runOnUIThread(new Runnable() {
+					@Override public void run() {
+						if (view != null) {
+							view.hideImportProgress();
+							view.showImportResult(imported, failed);
+						}
+					}});
+			}
+		});
+		batchImporter.start(uris);
+	}
+
 	@Override
 	public void importAudioFile(final Context context, final Uri uri) {
 		if (view != null) {
@@ -703,7 +778,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 		}
 		showImportProgress = true;
 
-		importTasks.postRunnable(new Runnable() {
+		importTasks.submit(new Runnable() {
 			long id = -1;
 
 			@Override
@@ -711,10 +786,35 @@ public class MainPresenter implements MainContract.UserActionsListener {
 				try {
 					ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
 					FileDescriptor fileDescriptor = parcelFileDescriptor.getFileDescriptor();
-					String name = extractFileName(context, uri);
+					String name = AndroidUtils.extractFileName(context, uri);
 
 					File newFile = fileRepository.provideRecordFile(name);
-					if (FileUtil.copyFile(fileDescriptor, newFile)) {
+					FileCopier copier = new FileCopier(new FileCopier.ProgressListener() {
+						int percent = -1;
+
+						@Override
+						public void onProgress(long copied, long total) {
+							if (total > 0 && copied * 100 / total != percent) {
+								percent = (int) (copied * 100 / total);
+								final int p = percent;
+								AndroidUtils.runOnUIThread(new Runnable() {
+									@Override public void run() {
+										if (view != null && showImportProgress) {
+											view.showImportProgress(p);
+										}
+									}});
+							}
+						}
+					});
+					importCopier = copier;
+					long copied;
+					try {
+						copied = copier.copy(fileDescriptor, newFile);
+					} finally {
+						importCopier = null;
+						parcelFileDescriptor.close();
+					}
+					if (copied > 0) {
 						long duration = AndroidUtils.readRecordDuration(newFile);
 						if (duration/1000000 < AppConstants.LONG_RECORD_THRESHOLD_SECONDS) {
 							//Do simple import for short records.
@@ -806,6 +906,11 @@ public class MainPresenter implements MainContract.UserActionsListener {
 							isProcessing = false;
 						}
 					}
+				} catch (FileCopier.CancelledException e) {
+					Timber.d("Import of %s cancelled", uri);
+					AndroidUtils.runOnUIThread(new Runnable() {
+						@Override public void run() { if (view != null) view.showMessage(R.string.import_cancelled); }
+					});
 				} catch (SecurityException e) {
 					Timber.e(e);
 					AndroidUtils.runOnUIThread(new Runnable() {
@@ -827,23 +932,6 @@ public class MainPresenter implements MainContract.UserActionsListener {
 					}});
 				showImportProgress = false;
 			}
-		});
-	}
-
-	private String extractFileName(Context context, Uri uri) {
-		Cursor cursor = context.getContentResolver().query(uri, null, null, null, null, null);
-		try {
-			if (cursor != null && cursor.moveToFirst()) {
-				String name = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
-//				TODO: find a better way to extract file extension.
-				if (!name.contains(".")) {
-					return name + ".m4a";
-				}
-				return name;
-			}
-		} finally {
-			cursor.close();
-		}
-		return null;
+		}, TaskExecutor.PRIORITY_NORMAL, "importAudioFile");
 	}
 }
@@ -7,13 +7,9 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.StaggeredGridLayoutManager;
 
 public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnScrollListener {
-	// Sets the starting page index
-    private static final int STARTING_PAGE_INDEX = 1;
     // The minimum amount of items to have below your current scroll position
     // before loading more.
     private int visibleThreshold = 5;
-    // The current offset index of data you have loaded
-    private int currentPage = 1;
     // The total number of items in the dataset after the last load
     private int previousTotalItemCount = 0;
     // True if we are still waiting for the last set of data to load.
@@ -63,15 +59,13 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
         // If the total item count is zero and the previous isn't, assume the
         // list is invalidated and should be reset back to initial state
         if (totalItemCount < previousTotalItemCount) {
-            this.currentPage = STARTING_PAGE_INDEX;
             this.previousTotalItemCount = totalItemCount;
             if (totalItemCount == 0) {
                 this.loading = true;
             }
         }
         // If it’s still loading, we check to see if the dataset count has
-        // changed, if so we conclude it has finished loading and update the current page
-        // number and total item count.
+        // changed, if so we conclude it has finished loading and update the total item count.
         if (loading && (totalItemCount > previousTotalItemCount+1)) {
             loading = false;
             previousTotalItemCount = totalItemCount;
@@ -82,18 +76,17 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
         // If we do need to reload some more data, we execute onLoadMore to fetch the data.
         // threshold should reflect how many total columns there are too
         if (!loading && (lastVisibleItemPosition + visibleThreshold) > totalItemCount && totalItemCount > visibleThreshold) {
-            currentPage++;
-            onLoadMore(currentPage, totalItemCount);
+            onLoadMore(totalItemCount);
             loading = true;
         }
     }
 
-    // Defines the process for actually loading more data based on page
-    public abstract void onLoadMore(int page, int totalItemsCount);
+    // Defines the process for actually loading more data. Pages are keyed by the last item
+    // that is loaded, not numbered, so the next page follows the list even when it changed.
+    public abstract void onLoadMore(int totalItemsCount);
 
     //Used to reset inner state, if adapter data was fully changed
     public void reset() {
-        currentPage = 1;
         previousTotalItemCount = 0;
         loading = true;
     }
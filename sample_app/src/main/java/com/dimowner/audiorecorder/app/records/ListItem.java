@@ -208,7 +208,7 @@ public class ListItem implements Parcelable {
 				", addedTime='" + addedTime + '\'' +
 				", bookmarked='" + bookmarked + '\'' +
 				", avatar_url='" + avatar_url + '\'' +
-				", amps length='" + amps.length+ '\'' +
+				", amps length='" + (amps != null ? amps.length : 0) + '\'' +
 				'}';
 	}
 }
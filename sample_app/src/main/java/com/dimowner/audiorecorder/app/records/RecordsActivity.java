@@ -59,8 +59,10 @@ import com.dimowner.audiorecorder.util.AnimationUtil;
 import com.dimowner.audiorecorder.util.TimeUtils;
 import com.ninovanhooff.phonograph.Phonograph;
 import com.ninovanhooff.phonograph.PlaybackService;
+import com.ninovanhooff.phonograph.audio.SpectrogramGenerator;
 import com.ninovanhooff.phonograph.util.FileUtil;
 import com.ninovanhooff.phonograph.widget.SimpleWaveformView;
+import com.ninovanhooff.phonograph.widget.SpectrogramView;
 import com.ninovanhooff.phonograph.widget.TouchLayout;
 import com.ninovanhooff.phonograph.widget.WaveformView;
 
@@ -98,9 +100,15 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 	private TextView txtEmpty;
 	private TextView txtTitle;
 	private TextView txtSubTitle;
+	private LinearLayout title;
+	private EditText txtSearch;
+	private ImageButton btnSearch;
 	private TouchLayout touchLayout;
 	private WaveformView waveformView;
+	private SpectrogramView spectrogramView;
 	private ProgressBar panelProgress;
+	private LinearLayout pnlCopyProgress;
+	private TextView txtCopyProgress;
 	private SeekBar playProgress;
 
 	private RecordsContract.UserActionsListener presenter;
@@ -146,6 +154,11 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		txtEmpty = findViewById(R.id.txtEmpty);
 		txtTitle = findViewById(R.id.txt_title);
 		txtSubTitle = findViewById(R.id.txt_sub_title);
+		title = findViewById(R.id.title);
+		txtSearch = findViewById(R.id.txt_search);
+		btnSearch = findViewById(R.id.btn_search);
+		pnlCopyProgress = findViewById(R.id.pnl_copy_progress);
+		txtCopyProgress = findViewById(R.id.txt_copy_progress);
 		btnPlay.setOnClickListener(this);
 		btnStop.setOnClickListener(this);
 		btnNext.setOnClickListener(this);
@@ -154,12 +167,24 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		btnBookmarks.setOnClickListener(this);
 		btnCheckBookmark.setOnClickListener(this);
 		btnSort.setOnClickListener(this);
+		btnSearch.setOnClickListener(this);
+		pnlCopyProgress.setOnClickListener(this);
+		txtSearch.addTextChangedListener(new TextWatcher() {
+			@Override public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+			@Override public void afterTextChanged(Editable s) {
+				if (txtSearch.getVisibility() == View.VISIBLE) {
+					presenter.searchRecords(s.toString());
+				}
+			}
+			@Override public void onTextChanged(CharSequence s, int start, int before, int count) { }
+		});
 
 		playProgress = findViewById(R.id.play_progress);
 		txtProgress = findViewById(R.id.txt_progress);
 		txtDuration = findViewById(R.id.txt_duration);
 		txtName = findViewById(R.id.txt_name);
 		waveformView = findViewById(R.id.record);
+		spectrogramView = findViewById(R.id.spectrogram);
 
 		txtName.setOnClickListener(this);
 
@@ -254,6 +279,14 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 				presenter.removeFromBookmarks(id);
 			}
 		});
+		adapter.setWaveformLoader(new RecordsAdapter.WaveformLoader() {
+			@Override public void loadWaveform(long id) {
+				presenter.loadWaveform(id);
+			}
+			@Override public void cancelWaveform(long id) {
+				presenter.cancelWaveform(id);
+			}
+		});
 		adapter.setOnItemOptionListener(new RecordsAdapter.OnItemOptionListener() {
 			@Override
 			public void onItemOptionSelected(int menuId, final ListItem item) {
@@ -308,6 +341,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 			public void onSeek(int px, long mills) {
 				presenter.enablePlaybackProgressListener();
 				presenter.seekPlayback(px);
+				spectrogramView.setPlaybackMills(mills);
 
 				if (waveformView.getWaveformLength() > 0) {
 					playProgress.setProgress(1000 * (int) AndroidUtils.pxToDp(px) / waveformView.getWaveformLength());
@@ -316,6 +350,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 			}
 			@Override
 			public void onSeeking(int px, long mills) {
+				spectrogramView.setPlaybackMills(mills);
 				if (waveformView.getWaveformLength() > 0) {
 					playProgress.setProgress(1000 * (int) AndroidUtils.pxToDp(px) / waveformView.getWaveformLength());
 				}
@@ -500,11 +535,21 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 			case R.id.btn_sort:
 				showMenu(view);
 				break;
+			case R.id.btn_search:
+				if (txtSearch.getVisibility() == View.VISIBLE) {
+					closeSearch();
+				} else {
+					openSearch();
+				}
+				break;
 			case R.id.txt_name:
 				if (presenter.getActiveRecordId() != -1) {
 					setRecordName(presenter.getActiveRecordId(), new File(presenter.getActiveRecordPath()));
 				}
 				break;
+			case R.id.pnl_copy_progress:
+				presenter.cancelCopy();
+				break;
 		}
 	}
 
@@ -549,8 +594,27 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		stopPlaybackService();
 	}
 
+	private void openSearch() {
+		title.setVisibility(View.GONE);
+		txtSearch.setVisibility(View.VISIBLE);
+		txtSearch.requestFocus();
+		showKeyboard();
+	}
+
+	private void closeSearch() {
+		hideKeyboard();
+		txtSearch.setVisibility(View.GONE);
+		txtSearch.setText("");
+		title.setVisibility(View.VISIBLE);
+		presenter.searchRecords("");
+	}
+
 	@Override
 	public void onBackPressed() {
+		if (txtSearch.getVisibility() == View.VISIBLE) {
+			closeSearch();
+			return;
+		}
 		super.onBackPressed();
 		ARApplication.getInjector().releaseRecordsPresenter();
 	}
@@ -600,6 +664,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 	@Override
 	public void showPlayStop() {
 		waveformView.moveToStart();
+		spectrogramView.setPlaybackMills(0);
 		btnPlay.setImageResource(R.drawable.ic_play_64);
 		playProgress.setProgress(0);
 		adapter.setActiveItem(-1);
@@ -607,7 +672,10 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 
 	@Override
 	public void showNextRecord() {
-
+		int pos = adapter.findPositionById(presenter.getActiveRecordId());
+		if (pos >= 0) {
+			recyclerView.scrollToPosition(pos);
+		}
 	}
 
 	@Override
@@ -618,7 +686,15 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 	@Override
 	public void showWaveForm(int[] waveForm, long duration) {
 		waveformView.setWaveform(waveForm);
-		waveformView.setPxPerSecond(AndroidUtils.dpToPx(Phonograph.getWaveformDpPerSecond((float)duration/1000000f)));
+		float pxPerSecond = AndroidUtils.dpToPx(Phonograph.getWaveformDpPerSecond((float)duration/1000000f));
+		waveformView.setPxPerSecond(pxPerSecond);
+		spectrogramView.setPxPerSecond(pxPerSecond);
+	}
+
+	@Override
+	public void showSpectrogram(SpectrogramGenerator generator) {
+		spectrogramView.setSpectrogramGenerator(generator);
+		spectrogramView.setVisibility(generator != null ? View.VISIBLE : View.GONE);
 	}
 
 	@Override
@@ -633,6 +709,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 			@Override
 			public void run() {
 				waveformView.setPlayback(px);
+				spectrogramView.setPlaybackMills(mills);
 				txtProgress.setText(TimeUtils.formatTimeIntervalHourMinSec2(mills));
 				playProgress.setProgress(percent);
 			}
@@ -659,6 +736,11 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		txtEmpty.setVisibility(View.GONE);
 	}
 
+	@Override
+	public void showRecordWaveform(long id, int[] amps) {
+		adapter.setWaveform(id, amps);
+	}
+
 	@Override
 	public void showEmptyList() {
 		txtEmpty.setText(R.string.no_records);
@@ -681,6 +763,17 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		panelProgress.setVisibility(View.GONE);
 	}
 
+	@Override
+	public void showCopyProgress(int percent) {
+		txtCopyProgress.setText(getString(R.string.copy_progress_percent, percent));
+		pnlCopyProgress.setVisibility(View.VISIBLE);
+	}
+
+	@Override
+	public void hideCopyProgress() {
+		pnlCopyProgress.setVisibility(View.GONE);
+	}
+
 	@Override
 	public void showRecordName(String name) {
 		txtName.setText(name);
@@ -903,9 +996,9 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		}
 
 		@Override
-		public void onLoadMore(int page, int totalItemsCount) {
-//			Timber.v("onLoadMore page = " + page + " count = " + totalItemsCount);
-			presenter.loadRecordsPage(page);
+		public void onLoadMore(int totalItemsCount) {
+//			Timber.v("onLoadMore count = " + totalItemsCount);
+			presenter.loadRecordsPage(adapter.getLastRecordId());
 		}
 	}
 }
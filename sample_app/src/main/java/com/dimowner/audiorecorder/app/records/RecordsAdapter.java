@@ -17,6 +17,7 @@
 package com.dimowner.audiorecorder.app.records;
 
 import android.graphics.Typeface;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -37,14 +38,22 @@ import com.ninovanhooff.phonograph.widget.SimpleWaveformView;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
+	/** Waveforms of items loaded without one, enough for a few screens */
+	private static final int WAVEFORM_CACHE_SIZE = 100;
+
 	private List<ListItem> data;
+	private final LruCache<Long, int[]> waveforms = new LruCache<>(WAVEFORM_CACHE_SIZE);
+	/** Ids of items whose waveform is being loaded */
+	private final Set<Long> waveformRequests = new HashSet<>();
 
 	private boolean showDateHeaders = true;
 	private int activeItem = -1;
@@ -52,6 +61,7 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 	private ItemClickListener itemClickListener;
 	private OnAddToBookmarkListener onAddToBookmarkListener = null;
 	private OnItemOptionListener onItemOptionListener = null;
+	private WaveformLoader waveformLoader = null;
 
 	RecordsAdapter() {
 		this.data = new ArrayList<>();
@@ -141,7 +151,7 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 					showMenu(v, p);
 				}
 			});
-			holder.waveformView.setWaveform(data.get(p).getAmps());
+			holder.waveformView.setWaveform(getWaveform(data.get(p)));
 
 			holder.view.setOnClickListener(new View.OnClickListener() {
 				@Override public void onClick(View v) {
@@ -156,6 +166,44 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 		}
 	}
 
+	@Override
+	public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+		super.onViewRecycled(holder);
+		int pos = holder.getAdapterPosition();
+		if (holder.getItemViewType() == ListItem.ITEM_TYPE_NORMAL && pos != RecyclerView.NO_POSITION) {
+			long id = data.get(pos).getId();
+			if (waveformRequests.remove(id) && waveformLoader != null) {
+				waveformLoader.cancelWaveform(id);
+			}
+		}
+	}
+
+	/** @return the waveform of the item, or null while it loads */
+	private int[] getWaveform(ListItem item) {
+		if (item.getAmps() != null) {
+			return item.getAmps();
+		}
+		int[] amps = waveforms.get(item.getId());
+		if (amps == null && waveformLoader != null && waveformRequests.add(item.getId())) {
+			waveformLoader.loadWaveform(item.getId());
+		}
+		return amps;
+	}
+
+	/** Show a waveform requested from the {@link WaveformLoader} */
+	void setWaveform(long id, int[] amps) {
+		waveformRequests.remove(id);
+		if (amps == null) {
+			return;
+		}
+		waveforms.put(id, amps);
+		for (int i = 0; i < data.size(); i++) {
+			if (data.get(i).getId() == id && data.get(i).getType() == ListItem.ITEM_TYPE_NORMAL) {
+				notifyItemChanged(i);
+			}
+		}
+	}
+
 	private void showMenu(View v, final int pos) {
 		PopupMenu popup = new PopupMenu(v.getContext(), v);
 		popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
@@ -209,6 +257,9 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 	}
 
 	void setData(List<ListItem> d, int order) {
+		//Waveforms may have been processed since they were loaded.
+		waveforms.evictAll();
+		waveformRequests.clear();
 		updateShowHeader(order);
 		if (showDateHeaders) {
 			data = addDateHeaders(d);
@@ -314,6 +365,16 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 		}
 	}
 
+	/** @return id of the last record in the list, or -1 when it has none */
+	long getLastRecordId() {
+		for (int i = data.size() - 1; i >= 0; i--) {
+			if (data.get(i).getType() == ListItem.ITEM_TYPE_NORMAL) {
+				return data.get(i).getId();
+			}
+		}
+		return -1;
+	}
+
 	long getNextTo(long id) {
 		if (id >= 0) {
 			for (int i = 0; i < data.size() - 1; i++) {
@@ -394,6 +455,10 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 		this.onAddToBookmarkListener = onAddToBookmarkListener;
 	}
 
+	void setWaveformLoader(WaveformLoader waveformLoader) {
+		this.waveformLoader = waveformLoader;
+	}
+
 	public interface ItemClickListener{
 		void onItemClick(View view, long id, String path, int position);
 	}
@@ -411,6 +476,12 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 		void onItemOptionSelected(int menuId, ListItem item);
 	}
 
+	/** Loads waveforms of items shown without one and passes them to {@link #setWaveform(long, int[])} */
+	public interface WaveformLoader {
+		void loadWaveform(long id);
+		void cancelWaveform(long id);
+	}
+
 	public class ItemViewHolder extends RecyclerView.ViewHolder {
 		TextView name;
 		TextView description;
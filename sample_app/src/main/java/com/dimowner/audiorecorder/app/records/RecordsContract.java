@@ -19,6 +19,7 @@ package com.dimowner.audiorecorder.app.records;
 import com.dimowner.audiorecorder.Contract;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.ninovanhooff.phonograph.audio.SpectrogramGenerator;
 
 import java.util.List;
 
@@ -40,17 +41,26 @@ public interface RecordsContract {
 		void stopPlaybackService();
 
 		void showWaveForm(int[] waveForm, long duration);
+		/** Show the spectrogram of the active record under its waveform, or hide it for null */
+		void showSpectrogram(SpectrogramGenerator generator);
 		void showDuration(String duration);
 
 		void showRecords(List<ListItem> records, int order);
 		void addRecords(List<ListItem> records, int order);
 
+		/** Show the waveform of a list item requested with loadWaveform */
+		void showRecordWaveform(long id, int[] amps);
+
 		void showEmptyList();
 		void showEmptyBookmarksList();
 
 		void showPanelProgress();
 		void hidePanelProgress();
 
+		/** Show the progress of a copy to Downloads, a tap on it cancels the copy */
+		void showCopyProgress(int percent);
+		void hideCopyProgress();
+
 		void showRecordName(String name);
 
 		void onDeleteRecord(long id);
@@ -93,12 +103,20 @@ public interface RecordsContract {
 		void renameRecord(long id, String name);
 
 		void copyToDownloads(String path, String name);
+		void cancelCopy();
 
 		void loadRecords();
 
 		void updateRecordsOrder(int order);
 
-		void loadRecordsPage(int page);
+		/** Load the records that follow the record with id afterId */
+		void loadRecordsPage(long afterId);
+
+		/** Show the records that match the query as it is typed, all records when it is empty */
+		void searchRecords(String query);
+
+		void loadWaveform(long id);
+		void cancelWaveform(long id);
 
 		void applyBookmarksFilter();
 		void checkBookmarkActiveRecord();
@@ -26,46 +26,105 @@ import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.OnRecordsLostListener;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.data.database.RecordSummary;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.dimowner.audiorecorder.util.TimeUtils;
 import com.ninovanhooff.phonograph.AppRecorder;
 import com.ninovanhooff.phonograph.AppRecorderCallback;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.Phonograph;
+import com.ninovanhooff.phonograph.audio.SpectrogramGenerator;
 import com.ninovanhooff.phonograph.audio.player.PlayerContract;
 import com.ninovanhooff.phonograph.data.FileRepository;
 import com.ninovanhooff.phonograph.exception.AppException;
 import com.ninovanhooff.phonograph.exception.ErrorParser;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
+import com.ninovanhooff.phonograph.task.TaskHandle;
+import com.ninovanhooff.phonograph.util.FileCopier;
 import com.ninovanhooff.phonograph.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
 public class RecordsPresenter implements RecordsContract.UserActionsListener {
 
+	/** Time to wait for the next key stroke before searching */
+	private static final long SEARCH_DELAY_MILLIS = 200;
+
 	private RecordsContract.View view;
 	private final PlayerContract.Player audioPlayer;
 	private AppRecorder appRecorder;
 	private PlayerContract.PlayerCallback playerCallback;
 	private AppRecorderCallback appRecorderCallback;
-	private final BackgroundQueue loadingTasks;
-	private final BackgroundQueue recordingsTasks;
-	private final BackgroundQueue copyTasks;
+	private final TaskExecutor loadingTasks;
+	private final TaskExecutor recordingsTasks;
+	private final TaskExecutor copyTasks;
 	private final FileRepository fileRepository;
 	private final LocalRepository localRepository;
 	private final Prefs prefs;
+	private final File spectrogramCacheDir;
 
 	private Record activeRecord;
+	/** Path of the record whose spectrogram is shown or loading. Used on the UI thread only. */
+	private String spectrogramPath = null;
+	/** Records in the order they are shown, to queue the record after the active one */
+	private volatile List<RecordSummary> playlist = Collections.emptyList();
+	/** Waveforms of list items being loaded, by record id. Used on the UI thread only. */
+	private final Map<Long, TaskHandle<Void>> waveformLoads = new HashMap<>();
 	private float dpPerSecond = AppConstants.SHORT_RECORD_DP_PER_SECOND;
 	private boolean showBookmarks = false;
 	private boolean listenPlaybackProgress = true;
+	/** Query of the records shown, or null when not searching */
+	private volatile String searchQuery = null;
+	/**
+	 * Number of the latest request that replaces the list: all records, bookmarks or a search.
+	 * Loads run by priority, so an older one can finish last; it does not show its list then.
+	 */
+	private volatile int listRequest = 0;
+	/** Copies to Downloads that are queued or running. Guarded by itself. */
+	private final Set<FileCopier> downloadCopiers = new HashSet<>();
+
+	private final Runnable searchTask = new Runnable() {
+		@Override
+		public void run() {
+			final String query = searchQuery;
+			final int request = listRequest;
+			if (query == null) {
+				return;
+			}
+			final List<RecordSummary> recordList = localRepository.searchRecords(query, null);
+			if (!query.equals(searchQuery) || request != listRequest) {
+				//Typed on while searching, the newer query is on its way.
+				return;
+			}
+			playlist = recordList;
+			AndroidUtils.runOnUIThread(new Runnable() {
+				@Override
+				public void run() {
+					if (view != null && query.equals(searchQuery) && request == listRequest) {
+						view.showRecords(Mapper.summariesToListItems(recordList), AppConstants.SORT_NAME);
+						view.hideProgress();
+						if (recordList.size() == 0) {
+							view.showEmptyList();
+						}
+					}
+				}
+			});
+		}
+	};
 
 	public RecordsPresenter(final LocalRepository localRepository, FileRepository fileRepository,
-									BackgroundQueue loadingTasks, BackgroundQueue recordingsTasks, BackgroundQueue copyTasks,
-									PlayerContract.Player player, AppRecorder appRecorder, Prefs prefs) {
+									TaskExecutor loadingTasks, TaskExecutor recordingsTasks, TaskExecutor copyTasks,
+									PlayerContract.Player player, AppRecorder appRecorder, Prefs prefs,
+									File spectrogramCacheDir) {
 		this.localRepository = localRepository;
 		this.fileRepository = fileRepository;
 		this.loadingTasks = loadingTasks;
@@ -75,6 +134,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 		this.appRecorder = appRecorder;
 		this.playerCallback = null;
 		this.prefs = prefs;
+		this.spectrogramCacheDir = spectrogramCacheDir;
 	}
 
 	@Override
@@ -121,22 +181,54 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 						view.showPlayStart();
 						view.startPlaybackService();
 					}
+					queueNextRecord();
 				}
 
 				@Override
-				public void onPlayProgress(final long mills) {
-					if (view != null && listenPlaybackProgress) {
-						AndroidUtils.runOnUIThread(new Runnable() {
-							@Override public void run() {
-								Record rec = activeRecord;
-								if (view != null && rec != null) {
-									long duration = rec.getDuration()/1000;
-									if (duration > 0) {
-										view.onPlayProgress(mills, AndroidUtils.convertMillsToPx(mills,
-												AndroidUtils.dpToPx(dpPerSecond)), (int) (1000 * mills / duration));
+				public void onNextData(String data) {
+					final RecordSummary next = findRecordByPath(data);
+					if (next == null) {
+						return;
+					}
+					prefs.setActiveRecord(next.getId());
+					//The playlist has no waveforms, load the full record.
+					loadingTasks.submit(new Runnable() {
+						@Override
+						public void run() {
+							final Record rec = localRepository.getRecord(next.getId());
+							if (rec == null) {
+								return;
+							}
+							activeRecord = rec;
+							dpPerSecond = Phonograph.getWaveformDpPerSecond((float) rec.getDuration() / 1000000f);
+							AndroidUtils.runOnUIThread(new Runnable() {
+								@Override
+								public void run() {
+									//The player is used on the main thread only.
+									queueNextRecord();
+									loadSpectrogram(rec);
+									if (view != null) {
+										view.showWaveForm(rec.getAmps(), rec.getDuration());
+										view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
+										view.showRecordName(FileUtil.removeFileExtension(rec.getName()));
+										view.showActiveRecord(rec.getId());
+										view.showNextRecord();
 									}
 								}
-							}});
+							});
+						}
+					}, TaskExecutor.PRIORITY_HIGH, "loadActiveRecord");
+				}
+
+				@Override
+				public void onPlayProgress(long mills) {
+					Record rec = activeRecord;
+					if (view != null && listenPlaybackProgress && rec != null) {
+						long duration = rec.getDuration()/1000;
+						if (duration > 0) {
+							view.onPlayProgress(mills, AndroidUtils.convertMillsToPx(mills,
+									AndroidUtils.dpToPx(dpPerSecond)), (int) (1000 * mills / duration));
+						}
 					}
 				}
 
@@ -193,6 +285,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 			appRecorder.removeRecordingCallback(appRecorderCallback);
 			this.localRepository.setOnRecordsLostListener(null);
 			this.view = null;
+			spectrogramPath = null;
 		}
 	}
 
@@ -240,6 +333,93 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	public void playPrev() {
 	}
 
+	/** Let the player prepare the record after the active one, so it continues without a gap */
+	private void queueNextRecord() {
+		Record rec = activeRecord;
+		List<RecordSummary> list = playlist;
+		String next = null;
+		if (rec != null) {
+			for (int i = 0; i < list.size() - 1; i++) {
+				if (list.get(i).getId() == rec.getId()) {
+					next = list.get(i + 1).getPath();
+					break;
+				}
+			}
+		}
+		audioPlayer.setNextData(next);
+	}
+
+	/**
+	 * Show the spectrogram of the active record. The generator reads the format of the file, so it
+	 * is created on the loading queue, after the lists. Runs on the UI thread.
+	 */
+	private void loadSpectrogram(Record rec) {
+		final String path = rec.getPath();
+		if (path == null || path.equals(spectrogramPath)) {
+			return;
+		}
+		spectrogramPath = path;
+		loadingTasks.submit(new Runnable() {
+			@Override
+			public void run() {
+				SpectrogramGenerator generator = null;
+				try {
+					generator = new SpectrogramGenerator(new File(path), spectrogramCacheDir);
+				} catch (IOException | IllegalArgumentException | IllegalStateException e) {
+					Timber.e(e, "No spectrogram of %s", path);
+				}
+				final SpectrogramGenerator result = generator;
+				AndroidUtils.runOnUIThread(new Runnable() {
+					@Override
+					public void run() {
+						if (view != null && path.equals(spectrogramPath)) {
+							view.showSpectrogram(result);
+						}
+					}
+				});
+			}
+		}, TaskExecutor.PRIORITY_NORMAL, "loadSpectrogram");
+	}
+
+	/**
+	 * Prewarm the records the user is likely to play next: the neighbours of the active record.
+	 * The player keeps two, and the active record is its data already.
+	 */
+	private void prewarmAround(Record rec) {
+		List<RecordSummary> list = playlist;
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).getId() == rec.getId()) {
+				if (i > 0) {
+					audioPlayer.prewarm(list.get(i - 1).getPath());
+				}
+				if (i < list.size() - 1) {
+					audioPlayer.prewarm(list.get(i + 1).getPath());
+				}
+				break;
+			}
+		}
+	}
+
+	private RecordSummary findRecordById(long id) {
+		List<RecordSummary> list = playlist;
+		for (int i = list.size() - 1; i >= 0; i--) {
+			if (list.get(i).getId() == id) {
+				return list.get(i);
+			}
+		}
+		return null;
+	}
+
+	private RecordSummary findRecordByPath(String path) {
+		List<RecordSummary> list = playlist;
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).getPath().equals(path)) {
+				return list.get(i);
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public void deleteActiveRecord() {
 		if (activeRecord != null) {
@@ -270,6 +450,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 							view.showMessage(R.string.record_moved_into_trash);
 							if (rec != null && rec.getId() == id) {
 								view.hidePlayPanel();
+								view.showSpectrogram(null);
+								spectrogramPath = null;
 								activeRecord = null;
 							}
 						}
@@ -390,33 +572,125 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	@Override
 	public void copyToDownloads(final String path, final String name) {
 		if (view != null) {
-			//TODO: show copy progress
-			copyTasks.postRunnable(new Runnable() {
+			view.showCopyProgress(0);
+			final FileCopier copier = new FileCopier(new FileCopier.ProgressListener() {
+				int percent = 0;
+
+				@Override
+				public void onProgress(long copied, long total) {
+					if (total > 0 && copied * 100 / total != percent) {
+						percent = (int) (copied * 100 / total);
+						final int p = percent;
+						AndroidUtils.runOnUIThread(new Runnable() {
+							@Override public void run() {
+								if (view != null) {
+									view.showCopyProgress(p);
+								}
+							}});
+					}
+				}
+			});
+			synchronized (downloadCopiers) {
+				downloadCopiers.add(copier);
+			}
+			copyTasks.submit(new Runnable() {
 				@Override
 				public void run() {
+					boolean copied = false;
+					boolean cancelled = copier.isCancelled();
 					try {
-						FileUtil.copyFile(new File(path), FileUtil.createFile(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), name));
-						//TODO: show success result
+						if (!cancelled) {
+							File target = FileUtil.createFile(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), name);
+							if (target != null) {
+								copied = copier.copy(new File(path), target) > 0;
+							}
+						}
+					} catch (FileCopier.CancelledException e) {
+						Timber.d("Copy of %s cancelled", path);
+						cancelled = true;
 					} catch (IOException e) {
-						Timber.v(e);
-						//TODO: show copy error
+						Timber.e(e);
+					}
+					final boolean finished;
+					synchronized (downloadCopiers) {
+						downloadCopiers.remove(copier);
+						finished = downloadCopiers.isEmpty();
 					}
-					//TODO:hide progress
+					final boolean success = copied;
+					final boolean wasCancelled = cancelled;
+					AndroidUtils.runOnUIThread(new Runnable() {
+						@Override
+						public void run() {
+							if (view != null) {
+								if (finished) {
+									view.hideCopyProgress();
+								}
+								if (success) {
+									view.showMessage(R.string.record_copied_to_downloads);
+								} else if (wasCancelled) {
+									view.showMessage(R.string.copy_cancelled);
+								} else {
+									view.showError(R.string.error_copy_failed);
+								}
+							}
+						}
+					});
 				}
-			});
+			}, TaskExecutor.PRIORITY_NORMAL, "copyToDownloads");
+		}
+	}
+
+	@Override
+	public void cancelCopy() {
+		synchronized (downloadCopiers) {
+			for (FileCopier copier : downloadCopiers) {
+				copier.cancel();
+			}
+		}
+	}
+
+	@Override
+	public void searchRecords(String query) {
+		String trimmed = query.trim();
+		searchQuery = trimmed.isEmpty() ? null : trimmed;
+		loadingTasks.cancelRunnable(searchTask);
+		if (searchQuery != null) {
+			listRequest++;
+			if (view != null) {
+				view.showProgress();
+			}
+			//Wait for a pause in typing, every key stroke would start a search otherwise.
+			loadingTasks.postRunnable(searchTask, SEARCH_DELAY_MILLIS);
+		} else {
+			loadBookmarks();
 		}
 	}
 
 	@Override
 	public void loadRecords() {
+		if (searchQuery != null) {
+			//Reload the search results instead, for example after a rename.
+			listRequest++;
+			loadingTasks.cancelRunnable(searchTask);
+			loadingTasks.postRunnable(searchTask);
+			return;
+		}
 		if (view != null) {
 			view.showProgress();
 			view.showPanelProgress();
-			loadingTasks.postRunnable(new Runnable() {
+			final int request = ++listRequest;
+			loadingTasks.submitCoalesced("loadRecords", new Runnable() {
 				@Override
 				public void run() {
+					if (request != listRequest) {
+						return;
+					}
 					final int order = prefs.getRecordsOrder();
-					final List<Record> recordList = localRepository.getRecords(0, order);
+					final List<RecordSummary> recordList = localRepository.getRecordSummaries(null, order);
+					if (request != listRequest) {
+						return;
+					}
+					playlist = recordList;
 					final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
 					activeRecord = rec;
 					if (rec != null) {
@@ -425,8 +699,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 					AndroidUtils.runOnUIThread(new Runnable() {
 						@Override
 						public void run() {
-							if (view != null) {
-								view.showRecords(Mapper.recordsToListItems(recordList), order);
+							if (view != null && request == listRequest) {
+								view.showRecords(Mapper.summariesToListItems(recordList), order);
 								if (rec != null) {
 									view.showWaveForm(rec.getAmps(), rec.getDuration());
 									view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
@@ -439,6 +713,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 									if (audioPlayer.isPlaying() || audioPlayer.isPause()) {
 										view.showActiveRecord(rec.getId());
 									}
+									prewarmAround(rec);
+									loadSpectrogram(rec);
 								}
 
 								//Set player position is audio player is paused.
@@ -463,7 +739,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 						}
 					});
 				}
-			});
+			}, TaskExecutor.PRIORITY_HIGH);
 		}
 	}
 
@@ -475,15 +751,32 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	}
 
 	@Override
-	public void loadRecordsPage(final int page) {
-		if (view != null) {
+	public void loadRecordsPage(final long afterId) {
+		//Bookmarks are loaded at once, search results by page like all records.
+		final String query = searchQuery;
+		final int request = listRequest;
+		if (view != null && (!showBookmarks || query != null)) {
 			view.showProgress();
 			view.showPanelProgress();
-			loadingTasks.postRunnable(new Runnable() {
+			loadingTasks.submit(new Runnable() {
 				@Override
 				public void run() {
-					final int order = prefs.getRecordsOrder();
-					final List<Record> recordList = localRepository.getRecords(page, order);
+					final int order = query != null ? AppConstants.SORT_NAME : prefs.getRecordsOrder();
+					RecordSummary after = findRecordById(afterId);
+					String current = searchQuery;
+					final List<RecordSummary> recordList;
+					if (after == null || request != listRequest
+							|| (query != null ? !query.equals(current) : current != null)) {
+						//The list shows other records now.
+						recordList = Collections.emptyList();
+					} else if (query != null) {
+						recordList = localRepository.searchRecords(query, after);
+					} else {
+						recordList = localRepository.getRecordSummaries(after, order);
+					}
+					List<RecordSummary> appended = new ArrayList<>(playlist);
+					appended.addAll(recordList);
+					playlist = appended;
 					final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
 					activeRecord = rec;
 					if (rec != null) {
@@ -493,8 +786,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 						@Override
 						public void run() {
 							if (view != null) {
+								view.addRecords(Mapper.summariesToListItems(recordList), order);
 								if (rec != null) {
-									view.addRecords(Mapper.recordsToListItems(recordList), order);
 									view.showWaveForm(rec.getAmps(), rec.getDuration());
 									view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
 									view.showRecordName(FileUtil.removeFileExtension(rec.getName()));
@@ -511,7 +804,38 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 						}
 					});
 				}
-			});
+			}, TaskExecutor.PRIORITY_HIGH, "loadRecordsPage");
+		}
+	}
+
+	@Override
+	public void loadWaveform(final long id) {
+		if (waveformLoads.containsKey(id)) {
+			return;
+		}
+		waveformLoads.put(id, loadingTasks.submit(new Runnable() {
+			@Override
+			public void run() {
+				final int[] amps = localRepository.getWaveform((int) id);
+				AndroidUtils.runOnUIThread(new Runnable() {
+					@Override
+					public void run() {
+						waveformLoads.remove(id);
+						if (view != null) {
+							view.showRecordWaveform(id, amps);
+						}
+					}
+				});
+			}
+		}, TaskExecutor.PRIORITY_NORMAL, "loadWaveform"));
+	}
+
+	/** The item scrolled out of view before its waveform was loaded */
+	@Override
+	public void cancelWaveform(long id) {
+		TaskHandle<Void> load = waveformLoads.remove(id);
+		if (load != null) {
+			load.cancel(false);
 		}
 	}
 
@@ -522,10 +846,18 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 			if (view != null) {
 				view.showProgress();
 				view.showPanelProgress();
-				loadingTasks.postRunnable(new Runnable() {
+				final int request = ++listRequest;
+				loadingTasks.submit(new Runnable() {
 					@Override
 					public void run() {
-						final List<Record> recordList = localRepository.getBookmarks();
+						if (request != listRequest) {
+							return;
+						}
+						final List<RecordSummary> recordList = localRepository.getBookmarkSummaries();
+						if (request != listRequest) {
+							return;
+						}
+						playlist = recordList;
 						final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
 						activeRecord = rec;
 						if (rec != null) {
@@ -534,8 +866,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 						AndroidUtils.runOnUIThread(new Runnable() {
 							@Override
 							public void run() {
-								if (view != null) {
-									view.showRecords(Mapper.recordsToListItems(recordList), AppConstants.SORT_DATE);
+								if (view != null && request == listRequest) {
+									view.showRecords(Mapper.summariesToListItems(recordList), AppConstants.SORT_DATE);
 									if (rec != null) {
 										view.showWaveForm(rec.getAmps(), rec.getDuration());
 										view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
@@ -551,7 +883,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 							}
 						});
 					}
-				});
+				}, TaskExecutor.PRIORITY_HIGH, "loadBookmarks");
 			}
 		}
 	}
@@ -668,7 +1000,9 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 									}
 									view.hidePanelProgress();
 									view.showPlayerPanel();
+									loadSpectrogram(rec);
 								}
+								prewarmAround(rec);
 							}
 						});
 					} else {
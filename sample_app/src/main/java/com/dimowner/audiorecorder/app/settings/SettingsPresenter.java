@@ -2,27 +2,26 @@ package com.dimowner.audiorecorder.app.settings;
 
 import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
+import com.dimowner.audiorecorder.data.database.RecordStats;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.dimowner.audiorecorder.util.TimeUtils;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.PhonographConstants;
 import com.ninovanhooff.phonograph.data.FileRepository;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
 import com.ninovanhooff.phonograph.util.FileUtil;
 
-import java.util.List;
-
 public class SettingsPresenter implements SettingsContract.UserActionsListener {
 
 	private SettingsContract.View view;
 
-	private final BackgroundQueue recordingsTasks;
+	private final TaskExecutor recordingsTasks;
 	private final FileRepository fileRepository;
 	private final LocalRepository localRepository;
-	private final BackgroundQueue loadingTasks;
+	private final TaskExecutor loadingTasks;
 	private final Prefs prefs;
 
 	public SettingsPresenter(final LocalRepository localRepository, FileRepository fileRepository,
-									 BackgroundQueue recordingsTasks, final BackgroundQueue loadingTasks, Prefs prefs) {
+									 TaskExecutor recordingsTasks, final TaskExecutor loadingTasks, Prefs prefs) {
 		this.localRepository = localRepository;
 		this.fileRepository = fileRepository;
 		this.recordingsTasks = recordingsTasks;
@@ -38,17 +37,12 @@ public class SettingsPresenter implements SettingsContract.UserActionsListener {
 		loadingTasks.postRunnable(new Runnable() {
 			@Override
 			public void run() {
-				final List<Long> durations = localRepository.getRecordsDurations();
-				long totalDuration = 0;
-				for (int i = 0; i < durations.size(); i++) {
-					totalDuration += durations.get(i);
-				}
-				final long finalTotalDuration = totalDuration;
+				final RecordStats stats = localRepository.getRecordStats();
 				AndroidUtils.runOnUIThread(new Runnable() {
 					@Override public void run() {
 						if (view != null) {
-							view.showTotalRecordsDuration(TimeUtils.formatTimeIntervalHourMinSec(finalTotalDuration / 1000));
-							view.showRecordsCount(durations.size());
+							view.showTotalRecordsDuration(TimeUtils.formatTimeIntervalHourMinSec(stats.getDuration() / 1000));
+							view.showRecordsCount(stats.getCount());
 							updateAvailableSpace();
 							view.hideProgress();
 						}
@@ -16,6 +16,7 @@ import com.dimowner.audiorecorder.R;
 import com.dimowner.audiorecorder.app.info.ActivityInformation;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.app.lostrecords.RecordItem;
+import com.dimowner.audiorecorder.app.records.EndlessRecyclerViewScrollListener;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.ninovanhooff.phonograph.util.FileUtil;
 
@@ -77,7 +78,14 @@ public class TrashActivity extends Activity implements TrashContract.View {
 
 		txtEmpty = findViewById(R.id.txtEmpty);
 		RecyclerView recyclerView = findViewById(R.id.recycler_view);
-		recyclerView.setLayoutManager(new LinearLayoutManager(getApplicationContext()));
+		LinearLayoutManager layoutManager = new LinearLayoutManager(getApplicationContext());
+		recyclerView.setLayoutManager(layoutManager);
+		recyclerView.addOnScrollListener(new EndlessRecyclerViewScrollListener(layoutManager) {
+			@Override
+			public void onLoadMore(int totalItemsCount) {
+				presenter.loadNextPage();
+			}
+		});
 		adapter = new TrashAdapter();
 		adapter.setOnItemClickListener(new TrashAdapter.OnItemClickListener() {
 			@Override
@@ -165,6 +173,11 @@ public class TrashActivity extends Activity implements TrashContract.View {
 		adapter.setData(items);
 	}
 
+	@Override
+	public void addRecords(List<RecordItem> items) {
+		adapter.addData(items);
+	}
+
 	@Override
 	public void showRecordInfo(RecordInfo info) {
 		startActivity(ActivityInformation.getStartIntent(getApplicationContext(), info));
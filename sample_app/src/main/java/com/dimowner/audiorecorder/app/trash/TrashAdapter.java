@@ -37,6 +37,12 @@ public class TrashAdapter extends RecyclerView.Adapter<TrashAdapter.ItemViewHold
 		notifyDataSetChanged();
 	}
 
+	void addData(List<RecordItem> list) {
+		int start = data.size();
+		data.addAll(list);
+		notifyItemRangeInserted(start, list.size());
+	}
+
 	void removeItem(int id) {
 		int pos = -1;
 		for (int i = 0; i < data.size(); i++) {
@@ -25,6 +25,7 @@ public interface TrashContract {
 
 	interface View extends Contract.View {
 		void showRecords(List<RecordItem> items);
+		void addRecords(List<RecordItem> items);
 		void showRecordInfo(RecordInfo info);
 		void recordDeleted(int resId);
 		void recordRestored(int resId);
@@ -38,5 +39,7 @@ public interface TrashContract {
 		void deleteRecordFromTrash(final int id, final String path);
 		void deleteAllRecordsFromTrash();
 		void restoreRecordFromTrash(final int id);
+		/** Load the records that follow the loaded ones */
+		void loadNextPage();
 	}
 }
@@ -6,9 +6,10 @@ import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.app.lostrecords.RecordItem;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.data.database.RecordSummary;
 import com.dimowner.audiorecorder.util.AndroidUtils;
-import com.ninovanhooff.phonograph.BackgroundQueue;
 import com.ninovanhooff.phonograph.data.FileRepository;
+import com.ninovanhooff.phonograph.task.TaskExecutor;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -21,12 +22,14 @@ import java.util.List;
 public class TrashPresenter implements TrashContract.UserActionsListener {
 
 	private TrashContract.View view;
-	private final BackgroundQueue loadingTasks;
-	private final BackgroundQueue recordingsTasks;
+	private final TaskExecutor loadingTasks;
+	private final TaskExecutor recordingsTasks;
 	private final FileRepository fileRepository;
 	private final LocalRepository localRepository;
+	/** Last record of the loaded pages, the key of the next page */
+	private volatile RecordSummary lastLoaded = null;
 
-	public TrashPresenter(BackgroundQueue loadingTasks, BackgroundQueue recordingsTasks,
+	public TrashPresenter(TaskExecutor loadingTasks, TaskExecutor recordingsTasks,
 								 FileRepository fileRepository, LocalRepository localRepository) {
 		this.loadingTasks = loadingTasks;
 		this.recordingsTasks = recordingsTasks;
@@ -40,14 +43,13 @@ public class TrashPresenter implements TrashContract.UserActionsListener {
 
 		loadingTasks.postRunnable(new Runnable() {
 			@Override public void run() {
-				List<Record> records = localRepository.getTrashRecords();
-				final ArrayList<RecordItem> list = new ArrayList<>();
-				for (Record r : records) {
-					list.add(new RecordItem(r.getId(), r.getName(), r.getDuration(), r.getPath(), r.getCreated()));
-				}
+				final List<RecordItem> list = toRecordItems(localRepository.getTrashSummaries(null));
 				AndroidUtils.runOnUIThread(new Runnable() {
 					@Override
 					public void run() {
+						if (view == null) {
+							return;
+						}
 						if (list.isEmpty()) {
 							view.showEmpty();
 						} else {
@@ -60,6 +62,39 @@ public class TrashPresenter implements TrashContract.UserActionsListener {
 		});
 	}
 
+	@Override
+	public void loadNextPage() {
+		loadingTasks.postRunnable(new Runnable() {
+			@Override public void run() {
+				RecordSummary after = lastLoaded;
+				if (after == null) {
+					return;
+				}
+				final List<RecordItem> list = toRecordItems(localRepository.getTrashSummaries(after));
+				AndroidUtils.runOnUIThread(new Runnable() {
+					@Override
+					public void run() {
+						if (view != null && !list.isEmpty()) {
+							view.addRecords(list);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/** Remembers the last summary as key of the next page */
+	private List<RecordItem> toRecordItems(List<RecordSummary> records) {
+		List<RecordItem> list = new ArrayList<>(records.size());
+		for (RecordSummary r : records) {
+			list.add(new RecordItem(r.getId(), r.getName(), r.getDuration(), r.getPath(), r.getCreated()));
+		}
+		if (!records.isEmpty()) {
+			lastLoaded = records.get(records.size() - 1);
+		}
+		return list;
+	}
+
 	@Override
 	public void unbindView() {
 		this.view = null;
@@ -88,8 +123,9 @@ public class TrashPresenter implements TrashContract.UserActionsListener {
 		recordingsTasks.postRunnable(new Runnable() {
 			@Override
 			public void run() {
-				localRepository.removeFromTrash(id);
+				//The file goes first, so it is never in the directory without a record.
 				fileRepository.deleteRecordFile(path);
+				localRepository.removeFromTrash(id);
 				AndroidUtils.runOnUIThread(new Runnable() {
 					@Override
 					public void run() {
@@ -0,0 +1,176 @@
+package com.dimowner.audiorecorder.data;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Names of the files in the directories of the records, to check that a record file exists
+ * without a file system call per record. A directory is listed once, when a file in it is first
+ * looked up, and then kept up to date by a {@link FileObserver}.
+ *
+ * A file that is not in the index is checked on disk before it is reported missing: the
+ * observer sees its event a moment after a file is created, and on some storage it misses
+ * changes by other apps. So only lost records cost a file system call.
+ *
+ * A file deleted by another app unseen by the observer would stay in the index, so a listing is
+ * trusted only while the modification time of its directory does not change. That time is
+ * checked at most once per {@link #CHECK_INTERVAL_MILLIS}, one call per directory, and the
+ * directory is listed again when it changed.
+ */
+public class FilePresenceIndex {
+
+	/** Directories watched at most, files in other directories are checked on disk */
+	private static final int MAX_DIRECTORIES = 16;
+	/** Time between checks of the modification time of a listed directory */
+	private static final long CHECK_INTERVAL_MILLIS = 1000;
+	/** Modification times are this coarse on some file systems, 2 seconds on FAT */
+	private static final long MODIFIED_RESOLUTION_MILLIS = 2000;
+	/** Events were dropped, inotify IN_Q_OVERFLOW */
+	private static final int Q_OVERFLOW = 0x4000;
+	private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+			| FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+	/** Files of one directory. Observers have to stay referenced, or they stop watching. */
+	private class Directory extends FileObserver {
+		final String path;
+		/** Guarded by the index */
+		final Set<String> names;
+		/** Modification time of the directory and the time it was listed and last checked, guarded by the index */
+		long modified;
+		long listed;
+		long checked;
+
+		Directory(String path, Set<String> names) {
+			super(path, EVENTS);
+			this.path = path;
+			this.names = names;
+		}
+
+		@Override
+		public void onEvent(int event, String name) {
+			onDirectoryEvent(this, event, name);
+		}
+	}
+
+	/** Guarded by this */
+	private final Map<String, Directory> directories = new HashMap<>();
+
+	private static class SingletonHolder {
+		private static FilePresenceIndex singleton = new FilePresenceIndex();
+
+		public static FilePresenceIndex getSingleton() {
+			return SingletonHolder.singleton;
+		}
+	}
+
+	public static FilePresenceIndex getInstance() {
+		return SingletonHolder.getSingleton();
+	}
+
+	private FilePresenceIndex() {
+	}
+
+	public boolean exists(String path) {
+		if (path == null) {
+			return false;
+		}
+		File file = new File(path);
+		String parent = file.getParent();
+		if (parent == null) {
+			return file.exists();
+		}
+		synchronized (this) {
+			Directory directory = directories.get(parent);
+			if (directory != null && isChanged(directory)) {
+				directory.stopWatching();
+				directories.remove(parent);
+				directory = null;
+			}
+			if (directory == null) {
+				directory = watch(parent);
+			}
+			if (directory != null && directory.names.contains(file.getName())) {
+				return true;
+			}
+		}
+		boolean exists = file.exists();
+		if (exists) {
+			synchronized (this) {
+				Directory directory = directories.get(parent);
+				if (directory != null) {
+					directory.names.add(file.getName());
+				}
+			}
+		}
+		return exists;
+	}
+
+	/** Stop watching all directories. The next lookup lists its directory again. */
+	public synchronized void clear() {
+		for (Directory directory : directories.values()) {
+			directory.stopWatching();
+		}
+		directories.clear();
+	}
+
+	/** @return the listed directory, or null when it can not be listed or too many are watched */
+	private Directory watch(String path) {
+		if (directories.size() >= MAX_DIRECTORIES) {
+			return null;
+		}
+		Directory directory = new Directory(path, new HashSet<String>());
+		//Watch before listing, so no change falls in between. Events wait for this lock.
+		directory.startWatching();
+		File dir = new File(path);
+		//Read before listing, a change while listing changes it again.
+		directory.listed = System.currentTimeMillis();
+		directory.checked = directory.listed;
+		directory.modified = dir.lastModified();
+		String[] names = dir.list();
+		if (names == null) {
+			directory.stopWatching();
+			return null;
+		}
+		Collections.addAll(directory.names, names);
+		directories.put(path, directory);
+		Timber.v("Watching %d files in %s", names.length, path);
+		return directory;
+	}
+
+	/** Whether the directory was modified since it was listed, checked at most once per interval */
+	private static boolean isChanged(Directory directory) {
+		long now = System.currentTimeMillis();
+		if (now - directory.checked < CHECK_INTERVAL_MILLIS && now >= directory.checked) {
+			return false;
+		}
+		directory.checked = now;
+		long modified = new File(directory.path).lastModified();
+		//A change in the same tick as the listing would not change the time.
+		return modified != directory.modified || modified >= directory.listed - MODIFIED_RESOLUTION_MILLIS;
+	}
+
+	private synchronized void onDirectoryEvent(Directory directory, int event, String name) {
+		if (directories.get(directory.path) != directory) {
+			return;
+		}
+		if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF | Q_OVERFLOW)) != 0) {
+			//List it again on the next lookup.
+			directory.stopWatching();
+			directories.remove(directory.path);
+		} else if (name != null) {
+			if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+				directory.names.add(name);
+			} else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+				directory.names.remove(name);
+			}
+		}
+	}
+}
@@ -57,4 +57,8 @@ public interface Prefs extends PhonographPrefs {
 
 	void setNamingFormat(int format);
 	int getNamingFormat();
+
+	/** @return modification time of the directory at its last complete library scan, or -1 */
+	long getLibraryCheckpoint(String dir);
+	void setLibraryCheckpoint(String dir, long modified);
 }
@@ -43,6 +43,8 @@ public class PrefsImpl implements Prefs {
 	private static final String PREF_KEY_SAMPLE_RATE = "pref_sample_rate";
 	private static final String PREF_KEY_RECORDS_ORDER = "pref_records_order";
 	private static final String PREF_KEY_NAMING_FORMAT = "pref_naming_format";
+	private static final String PREF_KEY_LIBRARY_SCAN_DIR = "library_scan_dir";
+	private static final String PREF_KEY_LIBRARY_SCAN_MODIFIED = "library_scan_modified";
 
 	//Recording prefs.
 	private static final String PREF_KEY_RECORD_CHANNEL_COUNT = "record_channel_count";
@@ -237,4 +239,20 @@ public class PrefsImpl implements Prefs {
 	public int getNamingFormat() {
 		return sharedPreferences.getInt(PREF_KEY_NAMING_FORMAT, AppConstants.NAMING_COUNTED);
 	}
+
+	@Override
+	public long getLibraryCheckpoint(String dir) {
+		if (dir.equals(sharedPreferences.getString(PREF_KEY_LIBRARY_SCAN_DIR, null))) {
+			return sharedPreferences.getLong(PREF_KEY_LIBRARY_SCAN_MODIFIED, -1);
+		}
+		return -1;
+	}
+
+	@Override
+	public void setLibraryCheckpoint(String dir, long modified) {
+		SharedPreferences.Editor editor = sharedPreferences.edit();
+		editor.putString(PREF_KEY_LIBRARY_SCAN_DIR, dir);
+		editor.putLong(PREF_KEY_LIBRARY_SCAN_MODIFIED, modified);
+		editor.apply();
+	}
 }
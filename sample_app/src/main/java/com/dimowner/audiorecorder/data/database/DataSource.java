@@ -19,15 +19,21 @@ package com.dimowner.audiorecorder.data.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.dimowner.audiorecorder.AppConstants;
 import com.dimowner.audiorecorder.BuildConfig;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Base class to communicate with some table T in database.
@@ -35,15 +41,22 @@ import java.util.List;
  */
 public abstract class DataSource<T> {
 
-	/** SQLite database manager. */
+	/** SQLite database manager, shared by all tables. */
 	protected SQLiteHelper dbHelper;
 
-	/** Class provides access to database. */
-	protected SQLiteDatabase db;
-
 	/** Source table name. */
 	protected String tableName;
 
+	/** All columns of {@link RecordSummary}, everything but the waveform BLOBs. */
+	protected static final String SUMMARY_COLUMNS = SQLiteHelper.COLUMN_ID + ", "
+			+ SQLiteHelper.COLUMN_NAME + ", "
+			+ SQLiteHelper.COLUMN_DURATION + ", "
+			+ SQLiteHelper.COLUMN_CREATION_DATE + ", "
+			+ SQLiteHelper.COLUMN_DATE_ADDED + ", "
+			+ SQLiteHelper.COLUMN_PATH + ", "
+			+ SQLiteHelper.COLUMN_BOOKMARK + ", "
+			+ SQLiteHelper.COLUMN_WAVEFORM_PROCESSED;
+
 	/** Tag for logging messages. */
 	private final String LOG_TAG = getClass().getSimpleName();
 
@@ -54,27 +67,24 @@ public abstract class DataSource<T> {
 	 * @param tableName Table name.
 	 */
 	public DataSource (Context context, String tableName) {
-		dbHelper = new SQLiteHelper(context);
+		dbHelper = SQLiteHelper.getInstance(context);
 		this.tableName = tableName;
 	}
 
 	/**
-	 * Open connection to SQLite database.
+	 * Database of the table, opened on first use. Can be used from any thread: writes take turns
+	 * on the one writer connection, reads run on pooled connections next to them. Fetch it once
+	 * per operation or transaction. It is never closed, it is shared by all tables and queues.
 	 */
-	public void open() {
-		db = dbHelper.getWritableDatabase();
+	protected SQLiteDatabase db() {
+		return dbHelper.getWritableDatabase();
 	}
 
 	/**
-	 * Close connection to SQLite database.
+	 * Open connection to SQLite database, creating or upgrading it when needed.
 	 */
-	public void close() {
-		db.close();
-		dbHelper.close();
-	}
-
-	public boolean isOpen() {
-		return db != null && db.isOpen();
+	public void open() {
+		db();
 	}
 
 	/**
@@ -84,15 +94,174 @@ public abstract class DataSource<T> {
 	public T insertItem(T item) {
 		ContentValues values = itemToContentValues(item);
 		if (values != null) {
-			int insertId = (int) db.insert(tableName, null, values);
+			int insertId = (int) db().insert(tableName, null, values);
 			Log.d(LOG_TAG, "Insert into " + tableName + " id = " + insertId);
-			return getItem(insertId);
+			return insertId >= 0 ? insertedItem(item, insertId) : null;
 		} else {
 			Log.e(LOG_TAG, "Unable to write empty item!");
 			return null;
 		}
 	}
 
+	/**
+	 * The item as inserted with its new id. Reads it back from the table, override when the
+	 * item can be copied instead.
+	 * @param item Item that was inserted.
+	 * @param id Id of the inserted row.
+	 */
+	protected T insertedItem(T item, int id) {
+		return getItem(id);
+	}
+
+	/**
+	 * Insert items into database for table T in one transaction. All items are inserted with
+	 * one compiled statement, as long as they have the same columns.
+	 * @param items Items that will be inserted into database.
+	 * @return Ids of the inserted items in the order of items, -1 for an item that failed.
+	 */
+	public long[] insertItems(List<T> items) {
+		SQLiteDatabase db = db();
+		long[] ids = new long[items.size()];
+		Arrays.fill(ids, -1);
+		String[] columns = null;
+		SQLiteStatement insert = null;
+		db.beginTransactionNonExclusive();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				ContentValues values = itemToContentValues(items.get(i));
+				if (values == null) {
+					continue;
+				}
+				if (insert == null || !hasColumns(values, columns)) {
+					if (insert != null) {
+						insert.close();
+					}
+					columns = values.keySet().toArray(new String[0]);
+					insert = db.compileStatement(insertStatement(columns));
+				}
+				bindValues(insert, values, columns);
+				try {
+					ids[i] = insert.executeInsert();
+				} catch (SQLiteException e) {
+					Log.e(LOG_TAG, "Unable to insert item " + i, e);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			if (insert != null) {
+				insert.close();
+			}
+			db.endTransaction();
+		}
+		Log.d(LOG_TAG, "Inserted " + ids.length + " items into " + tableName);
+		return ids;
+	}
+
+	/**
+	 * Update items in database for table T in one transaction. All items are updated with
+	 * one compiled statement, as long as they have the same columns.
+	 * @param items Items that will be updated.
+	 * @return Updated records count.
+	 */
+	public int updateItems(List<T> items) {
+		SQLiteDatabase db = db();
+		int count = 0;
+		String[] columns = null;
+		SQLiteStatement update = null;
+		db.beginTransactionNonExclusive();
+		try {
+			for (T item : items) {
+				ContentValues values = itemToContentValues(item);
+				if (values == null || !values.containsKey(SQLiteHelper.COLUMN_ID)) {
+					continue;
+				}
+				Object id = values.get(SQLiteHelper.COLUMN_ID);
+				values.remove(SQLiteHelper.COLUMN_ID);
+				if (update == null || !hasColumns(values, columns)) {
+					if (update != null) {
+						update.close();
+					}
+					columns = values.keySet().toArray(new String[0]);
+					update = db.compileStatement(updateStatement(columns));
+				}
+				bindValues(update, values, columns);
+				DatabaseUtils.bindObjectToProgram(update, columns.length + 1, id);
+				count += update.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			if (update != null) {
+				update.close();
+			}
+			db.endTransaction();
+		}
+		Log.d(LOG_TAG, "Updated records count = " + count);
+		return count;
+	}
+
+	/**
+	 * Delete items from database for table T in one transaction.
+	 * @param ids Ids of the items to delete.
+	 * @return Deleted items count.
+	 */
+	public int deleteItems(List<Integer> ids) {
+		SQLiteDatabase db = db();
+		int count = 0;
+		SQLiteStatement delete = db.compileStatement("DELETE FROM " + tableName
+				+ " WHERE " + SQLiteHelper.COLUMN_ID + " = ?");
+		db.beginTransactionNonExclusive();
+		try {
+			for (int id : ids) {
+				delete.bindLong(1, id);
+				count += delete.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			delete.close();
+			db.endTransaction();
+		}
+		Log.d(LOG_TAG, "Deleted " + count + " items from " + tableName);
+		return count;
+	}
+
+	private String insertStatement(String[] columns) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ", " : "").append(columns[i]);
+			params.append(i > 0 ? ", ?" : "?");
+		}
+		return sql.append(") VALUES (").append(params).append(")").toString();
+	}
+
+	private String updateStatement(String[] columns) {
+		StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ", " : "").append(columns[i]).append(" = ?");
+		}
+		return sql.append(" WHERE ").append(SQLiteHelper.COLUMN_ID).append(" = ?").toString();
+	}
+
+	private static boolean hasColumns(ContentValues values, String[] columns) {
+		if (values.size() != columns.length) {
+			return false;
+		}
+		for (String column : columns) {
+			if (!values.containsKey(column)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Bind the values of the columns to the first parameters of the statement, in order */
+	private static void bindValues(SQLiteStatement statement, ContentValues values, String[] columns) {
+		statement.clearBindings();
+		for (int i = 0; i < columns.length; i++) {
+			DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+		}
+	}
+
 	/**
 	 * Convert item into {@link android.content.ContentValues ContentValues}
 	 * @param item Item to convert
@@ -106,7 +275,7 @@ public abstract class DataSource<T> {
 	 */
 	public void deleteItem(int id) {
 		Log.d(LOG_TAG, tableName + " deleted ID = " + id);
-		db.delete(tableName, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		db().delete(tableName, SQLiteHelper.COLUMN_ID + " = ?", new String[] {String.valueOf(id)});
 	}
 
 	/**
@@ -118,7 +287,7 @@ public abstract class DataSource<T> {
 		if (values != null && values.containsKey(SQLiteHelper.COLUMN_ID)) {
 			String where = SQLiteHelper.COLUMN_ID + " = "
 					+ values.get(SQLiteHelper.COLUMN_ID);
-			int n = db.update(tableName, values, where, null);
+			int n = db().update(tableName, values, where, null);
 			Log.d(LOG_TAG, "Updated records count = " + n);
 			return n;
 		} else {
@@ -144,7 +313,7 @@ public abstract class DataSource<T> {
 		Cursor cursor = queryLocal("SELECT * FROM " + tableName
 				+ " ORDER BY " + SQLiteHelper.COLUMN_DATE_ADDED + " DESC"
 				+ " LIMIT " + AppConstants.DEFAULT_PER_PAGE
-				+ " OFFSET " + (page-1) * AppConstants.DEFAULT_PER_PAGE);
+				+ " OFFSET " + Math.max(0, page-1) * AppConstants.DEFAULT_PER_PAGE);
 		return convertCursor(cursor);
 	}
 
@@ -156,16 +325,200 @@ public abstract class DataSource<T> {
 		Cursor cursor = queryLocal("SELECT * FROM " + tableName
 				+ " ORDER BY " + order
 				+ " LIMIT " + AppConstants.DEFAULT_PER_PAGE
-				+ " OFFSET " + (page-1) * AppConstants.DEFAULT_PER_PAGE);
+				+ " OFFSET " + Math.max(0, page-1) * AppConstants.DEFAULT_PER_PAGE);
 		return convertCursor(cursor);
 	}
 
+	/**
+	 * Get the page of record summaries that follows a record, ordered by the column of the sort
+	 * order and then by id. The page starts at the key of that record instead of at an offset, so
+	 * the database seeks to it and a deep page costs as much as the first one.
+	 * @param after Last record of the previous page, or null for the first page.
+	 * @param order Sort order, one of AppConstants.SORT_DATE, SORT_NAME or SORT_DURATION.
+	 * @return At most {@link AppConstants#DEFAULT_PER_PAGE} summaries.
+	 */
+	public ArrayList<RecordSummary> getSummariesAfter(RecordSummary after, int order) {
+		String column;
+		boolean descending;
+		String key = null;
+		switch (order) {
+			case AppConstants.SORT_NAME:
+				column = SQLiteHelper.COLUMN_NAME;
+				descending = false;
+				if (after != null) {
+					key = after.getName();
+				}
+				break;
+			case AppConstants.SORT_DURATION:
+				column = SQLiteHelper.COLUMN_DURATION;
+				descending = true;
+				if (after != null) {
+					key = String.valueOf(after.getDuration());
+				}
+				break;
+			case AppConstants.SORT_DATE:
+			default:
+				column = SQLiteHelper.COLUMN_DATE_ADDED;
+				descending = true;
+				if (after != null) {
+					key = String.valueOf(after.getAdded());
+				}
+		}
+		String direction = descending ? " DESC" : " ASC";
+		StringBuilder query = new StringBuilder("SELECT " + SUMMARY_COLUMNS + " FROM " + tableName);
+		String[] args = null;
+		if (after != null) {
+			//Same as (column, id) after (key, id), written so that an index on column can be used.
+			String beyond = descending ? " < " : " > ";
+			query.append(" WHERE ").append(column).append(descending ? " <= ?" : " >= ?")
+					.append(" AND (").append(column).append(beyond).append("?")
+					.append(" OR ").append(SQLiteHelper.COLUMN_ID).append(beyond).append(after.getId()).append(")");
+			args = new String[] {key, key};
+		}
+		query.append(" ORDER BY ").append(column).append(direction)
+				.append(", ").append(SQLiteHelper.COLUMN_ID).append(direction)
+				.append(" LIMIT ").append(AppConstants.DEFAULT_PER_PAGE);
+		return convertSummaryCursor(queryLocal(query.toString(), args));
+	}
+
+	/**
+	 * Get summaries of records that match the conditions.
+	 * @param where Conditions to select records, or null for all records.
+	 * @param order Order by clause.
+	 */
+	public ArrayList<RecordSummary> getSummaries(String where, String order) {
+		return convertSummaryCursor(queryLocal("SELECT " + SUMMARY_COLUMNS + " FROM " + tableName
+				+ (where != null ? " WHERE " + where : "")
+				+ " ORDER BY " + order));
+	}
+
+	/**
+	 * Get the file paths of all rows, without reading anything else.
+	 * @return Set of paths.
+	 */
+	public Set<String> getPaths() {
+		Cursor cursor = db().rawQuery("SELECT " + SQLiteHelper.COLUMN_PATH + " FROM " + tableName, null);
+		Set<String> paths = new HashSet<>(cursor.getCount() * 2);
+		try {
+			while (cursor.moveToNext()) {
+				paths.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return paths;
+	}
+
+	/**
+	 * Get the waveform of one record.
+	 * @param id Record id.
+	 * @return Waveform values, or null when there is no such record.
+	 */
+	public int[] getWaveform(int id) {
+		Cursor cursor = db().rawQuery("SELECT " + SQLiteHelper.COLUMN_WAVEFORM + ", " + SQLiteHelper.COLUMN_DATA
+				+ " FROM " + tableName + " WHERE " + SQLiteHelper.COLUMN_ID + " = " + id, null);
+		try {
+			if (!cursor.moveToFirst()) {
+				return null;
+			}
+			return cursor.isNull(0) ? Record.byte2int(cursor.getBlob(1)) : WaveformCodec.decode(cursor.getBlob(0));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Waveform of the row of a cursor of all columns, in the format of {@link WaveformCodec}.
+	 * A row that is not converted yet is encoded here.
+	 */
+	protected static byte[] waveformOf(Cursor cursor) {
+		int waveform = cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM);
+		if (!cursor.isNull(waveform)) {
+			return cursor.getBlob(waveform);
+		}
+		return WaveformCodec.encode(Record.byte2int(cursor.getBlob(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA))));
+	}
+
+	/**
+	 * Convert the waveforms of rows stored before database version 6 to {@link WaveformCodec},
+	 * the next rows after an id in one short transaction.
+	 * @param afterId Id of the last row of the previous call, or 0 to start.
+	 * @param limit Number of rows to convert.
+	 * @return Id of the last converted row, or -1 when all rows are converted.
+	 */
+	public int convertWaveforms(int afterId, int limit) {
+		SQLiteDatabase db = db();
+		List<Integer> ids = new ArrayList<>(limit);
+		List<byte[]> waveforms = new ArrayList<>(limit);
+		Cursor cursor = db.rawQuery("SELECT " + SQLiteHelper.COLUMN_ID + ", " + SQLiteHelper.COLUMN_DATA
+				+ " FROM " + tableName
+				+ " WHERE " + SQLiteHelper.COLUMN_ID + " > " + afterId + " AND " + SQLiteHelper.COLUMN_WAVEFORM + " IS NULL"
+				+ " ORDER BY " + SQLiteHelper.COLUMN_ID + " LIMIT " + limit, null);
+		try {
+			while (cursor.moveToNext()) {
+				ids.add(cursor.getInt(0));
+				waveforms.add(WaveformCodec.encode(Record.byte2int(cursor.getBlob(1))));
+			}
+		} finally {
+			cursor.close();
+		}
+		if (ids.isEmpty()) {
+			return -1;
+		}
+		//A row updated meanwhile already has its waveform, it is not overwritten.
+		SQLiteStatement update = db.compileStatement("UPDATE " + tableName + " SET "
+				+ SQLiteHelper.COLUMN_WAVEFORM + " = ?, " + SQLiteHelper.COLUMN_DATA + " = ?"
+				+ " WHERE " + SQLiteHelper.COLUMN_ID + " = ? AND " + SQLiteHelper.COLUMN_WAVEFORM + " IS NULL");
+		db.beginTransactionNonExclusive();
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+				update.bindBlob(1, waveforms.get(i));
+				update.bindBlob(2, new byte[0]);
+				update.bindLong(3, ids.get(i));
+				update.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			update.close();
+			db.endTransaction();
+		}
+		Log.d(LOG_TAG, "Converted " + ids.size() + " waveforms in " + tableName);
+		return ids.get(ids.size() - 1);
+	}
+
+	protected ArrayList<RecordSummary> convertSummaryCursor(Cursor cursor) {
+		ArrayList<RecordSummary> items = new ArrayList<>(cursor.getCount());
+		int id = cursor.getColumnIndex(SQLiteHelper.COLUMN_ID);
+		int name = cursor.getColumnIndex(SQLiteHelper.COLUMN_NAME);
+		int duration = cursor.getColumnIndex(SQLiteHelper.COLUMN_DURATION);
+		int created = cursor.getColumnIndex(SQLiteHelper.COLUMN_CREATION_DATE);
+		int added = cursor.getColumnIndex(SQLiteHelper.COLUMN_DATE_ADDED);
+		int path = cursor.getColumnIndex(SQLiteHelper.COLUMN_PATH);
+		int bookmark = cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK);
+		int processed = cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED);
+		if (cursor.moveToFirst()) {
+			do {
+				items.add(new RecordSummary(
+						cursor.getInt(id),
+						cursor.getString(name),
+						cursor.getLong(duration),
+						cursor.getLong(created),
+						cursor.getLong(added),
+						cursor.getString(path),
+						cursor.getInt(bookmark) != 0,
+						cursor.getInt(processed) != 0));
+			} while (cursor.moveToNext());
+		}
+		cursor.close();
+		return items;
+	}
+
 	/**
 	 * Delete all records from the table
 	 * @throws SQLException on error
 	 */
 	public void deleteAll() throws SQLException {
-		db.execSQL("DELETE FROM " + tableName);
+		db().execSQL("DELETE FROM " + tableName);
 	}
 
 	/**
@@ -226,8 +579,18 @@ public abstract class DataSource<T> {
 	 * @return Cursor that contains query result.
 	 */
 	protected Cursor queryLocal(String query) {
+		return queryLocal(query, null);
+	}
+
+	/**
+	 * Query to local SQLite database with write to log query text and query result.
+	 * @param query Query string.
+	 * @param args Values of the ? in the query, or null.
+	 * @return Cursor that contains query result.
+	 */
+	protected Cursor queryLocal(String query, String[] args) {
 		Log.d(LOG_TAG, "queryLocal: " + query);
-		Cursor c = db.rawQuery(query, null);
+		Cursor c = db().rawQuery(query, args);
 		if (BuildConfig.DEBUG) {
 			StringBuilder data = new StringBuilder("Cursor[");
 			if (c.moveToFirst()) {
@@ -266,20 +629,4 @@ public abstract class DataSource<T> {
 		}
 		return c;
 	}
-
-	//TODO: move this method
-	public List<Long> getRecordsDurations() {
-		Cursor cursor = queryLocal("SELECT " + SQLiteHelper.COLUMN_DURATION + " FROM " + tableName);
-		ArrayList<Long> items = new ArrayList<>();
-		cursor.moveToFirst();
-		while (!cursor.isAfterLast()) {
-			items.add(cursor.getLong(cursor.getColumnIndex(SQLiteHelper.COLUMN_DURATION)));
-			cursor.moveToNext();
-		}
-		cursor.close();
-		if (items.size() > 0) {
-			return items;
-		}
-		return items;
-	}
 }
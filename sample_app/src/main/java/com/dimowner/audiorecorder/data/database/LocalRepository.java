@@ -18,13 +18,12 @@ package com.dimowner.audiorecorder.data.database;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 public interface LocalRepository {
 
 	void open();
 
-	void close();
-
 	Record getRecord(int id);
 
 	List<Record> getAllRecords();
@@ -33,10 +32,32 @@ public interface LocalRepository {
 
 	List<Record> getRecords(int page, int order);
 
+	/**
+	 * Records without their waveforms, for lists, one page at a time
+	 * @param after last record of the previous page, or null for the first page
+	 */
+	List<RecordSummary> getRecordSummaries(RecordSummary after, int order);
+
+	List<RecordSummary> getAllRecordSummaries();
+
+	List<RecordSummary> getBookmarkSummaries();
+
+	/** File paths of all records, the records in the trash included */
+	Set<String> getRecordPaths();
+
+	/** Waveform of a record loaded as {@link RecordSummary}, or null when it does not exist */
+	int[] getWaveform(int id);
+
 	Record getLastRecord();
 
 	Record insertRecord(Record record);
 
+	/** Insert all records in one transaction, returns their ids or -1 for a record that failed */
+	long[] insertRecords(List<Record> records);
+
+	/** Update all records in one transaction, returns the number of updated records */
+	int updateRecords(List<Record> records);
+
 	boolean updateRecord(Record record);
 
 	long insertFile(String filePath) throws IOException;
@@ -47,7 +68,23 @@ public interface LocalRepository {
 
 	void deleteRecord(int id);
 
-	List<Long> getRecordsDurations();
+	/** Move records to the trash in one transaction, returns the number of moved records */
+	int deleteRecords(List<Integer> ids);
+
+	/**
+	 * Search records by the start of the words of their names, page by page.
+	 * @param after Last record of the previous page, or null for the first page.
+	 */
+	List<RecordSummary> searchRecords(String query, RecordSummary after);
+
+	/** Count, total duration and size of all records, without reading the records */
+	RecordStats getRecordStats();
+
+	/** Statistics of every day with records, newest first */
+	List<RecordStats> getDailyStats();
+
+	/** Statistics of every month with records, newest first */
+	List<RecordStats> getMonthlyStats();
 
 	boolean addToBookmarks(int id);
 
@@ -57,13 +94,24 @@ public interface LocalRepository {
 
 	List<Record> getTrashRecords();
 
+	/** Records in the trash without their waveforms, one page at a time, newest first */
+	List<RecordSummary> getTrashSummaries(RecordSummary after);
+
 	void restoreFromTrash(int id);
 
 	void removeFromTrash(int id);
 
 	boolean emptyTrash();
 
+	/** Delete the records in the trash for too long and their files. Call it on a background queue. */
 	void removeOutdatedTrashRecords();
 
+	/**
+	 * Convert the next batch of waveforms stored before database version 6 to the compact format,
+	 * in one short transaction. Call it on one background queue, again while it returns true.
+	 * @return false when all waveforms are converted
+	 */
+	boolean convertWaveformsBatch();
+
 	void setOnRecordsLostListener(OnRecordsLostListener listener);
 }
@@ -20,18 +20,24 @@ import android.database.Cursor;
 import android.database.SQLException;
 
 import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.data.FilePresenceIndex;
 import com.ninovanhooff.phonograph.audio.SoundFile;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
 public class LocalRepositoryImpl implements LocalRepository {
 
+	/** Rows of one transaction of {@link #convertWaveformsBatch()} */
+	private static final int WAVEFORM_CONVERSION_BATCH = 50;
+
 //**
 // EXAMPLE
 // 			LocalRepository rep = new LocalRepositoryImpl(new RecordsDataSource(getApplicationContext()));
@@ -58,6 +64,10 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	private OnRecordsLostListener onLostRecordsListener;
 
+	/** Ids of the last rows of {@link #convertWaveformsBatch()}, -1 when done. Used on one queue. */
+	private int convertedRecordId = 0;
+	private int convertedTrashId = 0;
+
 	private LocalRepositoryImpl(RecordsDataSource dataSource, TrashDataSource trashDataSource) {
 		this.dataSource = dataSource;
 		this.trashDataSource = trashDataSource;
@@ -68,7 +78,6 @@ public class LocalRepositoryImpl implements LocalRepository {
 			synchronized (LocalRepositoryImpl.class) {
 				if (instance == null) {
 					instance = new LocalRepositoryImpl(source, trashSource);
-					instance.removeOutdatedTrashRecords();
 				}
 			}
 		}
@@ -76,19 +85,11 @@ public class LocalRepositoryImpl implements LocalRepository {
 	}
 
 	public void open() {
+		//Both tables share the database.
 		dataSource.open();
-		trashDataSource.open();
-	}
-
-	public void close() {
-		dataSource.close();
-		trashDataSource.close();
 	}
 
 	public Record getRecord(int id) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		Record r = dataSource.getItem(id);
 		if (r != null) {
 			List<Record> l = new ArrayList<>(1);
@@ -100,17 +101,21 @@ public class LocalRepositoryImpl implements LocalRepository {
 	}
 
 	public Record insertRecord(Record record) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		return dataSource.insertItem(record);
 	}
 
+	@Override
+	public long[] insertRecords(List<Record> records) {
+		return dataSource.insertItems(records);
+	}
+
+	@Override
+	public int updateRecords(List<Record> records) {
+		return dataSource.updateItems(records);
+	}
+
 	@Override
 	public boolean updateRecord(Record record) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		//If updated record count is more than 0, then update is successful.
 		return (dataSource.updateItem(record) > 0);
 	}
@@ -215,9 +220,6 @@ public class LocalRepositoryImpl implements LocalRepository {
 	}
 
 	public List<Record> getAllRecords() {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		List<Record> list = dataSource.getAll();
 		checkForLostRecords(list);
 		return list;
@@ -225,9 +227,6 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	@Override
 	public List<Record> getRecords(int page) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		List<Record> list = dataSource.getRecords(page);
 		checkForLostRecords(list);
 		return list;
@@ -235,31 +234,61 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	@Override
 	public List<Record> getRecords(int page, int order) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
-		String orderStr;
+		List<Record> list = dataSource.getRecords(page, orderBy(order));
+		checkForLostRecords(list);
+		return list;
+	}
+
+	@Override
+	public List<RecordSummary> getRecordSummaries(RecordSummary after, int order) {
+		List<RecordSummary> list = dataSource.getSummariesAfter(after, order);
+		checkForLostSummaries(list);
+		return list;
+	}
+
+	@Override
+	public List<RecordSummary> getAllRecordSummaries() {
+		List<RecordSummary> list = dataSource.getSummaries(null, SQLiteHelper.COLUMN_DATE_ADDED + " DESC");
+		checkForLostSummaries(list);
+		return list;
+	}
+
+	@Override
+	public List<RecordSummary> getBookmarkSummaries() {
+		List<RecordSummary> list = dataSource.getSummaries(SQLiteHelper.COLUMN_BOOKMARK + " = 1",
+				SQLiteHelper.COLUMN_CREATION_DATE + " DESC");
+		//If Audio file deleted then the record is lost, do not show it as a bookmark.
+		List<RecordSummary> lost = checkForLostSummaries(list);
+		list.removeAll(lost);
+		return list;
+	}
+
+	@Override
+	public Set<String> getRecordPaths() {
+		Set<String> paths = dataSource.getPaths();
+		paths.addAll(trashDataSource.getPaths());
+		return paths;
+	}
+
+	@Override
+	public int[] getWaveform(int id) {
+		return dataSource.getWaveform(id);
+	}
+
+	private static String orderBy(int order) {
 		switch (order) {
 			case AppConstants.SORT_NAME:
-				orderStr = SQLiteHelper.COLUMN_NAME + " ASC";
-				break;
+				return SQLiteHelper.COLUMN_NAME + " ASC";
 			case AppConstants.SORT_DURATION:
-				orderStr = SQLiteHelper.COLUMN_DURATION + " DESC";
-				break;
+				return SQLiteHelper.COLUMN_DURATION + " DESC";
 			case AppConstants.SORT_DATE:
 			default:
-				orderStr = SQLiteHelper.COLUMN_DATE_ADDED + " DESC";
+				return SQLiteHelper.COLUMN_DATE_ADDED + " DESC";
 		}
-		List<Record> list = dataSource.getRecords(page, orderStr);
-		checkForLostRecords(list);
-		return list;
 	}
 
 	@Override
 	public Record getLastRecord() {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		Cursor c = dataSource.queryLocal("SELECT * FROM " + SQLiteHelper.TABLE_RECORDS +
 				" ORDER BY " + SQLiteHelper.COLUMN_ID + " DESC LIMIT 1");
 		if (c != null && c.moveToFirst()) {
@@ -278,37 +307,42 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 	}
 
+	/** Looked up in the index of the record directories, no file system call for files that exist */
 	private boolean isFileExists(String path) {
-		return new File(path).exists();
+		return FilePresenceIndex.getInstance().exists(path);
 	}
 
 	public void deleteRecord(int id) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
-		}
-		Record recordToDelete = dataSource.getItem(id);
-		if (recordToDelete != null) {
-			trashDataSource.insertItem(recordToDelete);
-		}
-		dataSource.deleteItem(id);
+		dataSource.moveToTrash(Collections.singletonList(id));
 	}
 
 	@Override
-	public List<Long> getRecordsDurations() {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
-		return dataSource.getRecordsDurations();
+	public int deleteRecords(List<Integer> ids) {
+		return dataSource.moveToTrash(ids);
+	}
+
+	@Override
+	public List<RecordSummary> searchRecords(String query, RecordSummary after) {
+		return dataSource.searchSummaries(query, after);
+	}
+
+	@Override
+	public RecordStats getRecordStats() {
+		return dataSource.getStats();
+	}
+
+	@Override
+	public List<RecordStats> getDailyStats() {
+		return dataSource.getDailyStats();
+	}
+
+	@Override
+	public List<RecordStats> getMonthlyStats() {
+		return dataSource.getMonthlyStats();
 	}
 
 	@Override
 	public boolean addToBookmarks(int id) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		Record r = dataSource.getItem(id);
 		if (r != null) {
 			r.setBookmark(true);
@@ -320,9 +354,6 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	@Override
 	public boolean removeFromBookmarks(int id) {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		Record r = dataSource.getItem(id);
 		if (r != null) {
 			r.setBookmark(false);
@@ -334,9 +365,6 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	@Override
 	public List<Record> getBookmarks() {
-		if (!dataSource.isOpen()) {
-			dataSource.open();
-		}
 		List<Record> list = new ArrayList<>();
 		Cursor c = dataSource.queryLocal("SELECT * FROM " + SQLiteHelper.TABLE_RECORDS +
 				" WHERE " + SQLiteHelper.COLUMN_BOOKMARK + " = 1" +
@@ -363,34 +391,27 @@ public class LocalRepositoryImpl implements LocalRepository {
 
 	@Override
 	public List<Record> getTrashRecords() {
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
-		}
 		return trashDataSource.getAll();
 	}
 
+	@Override
+	public List<RecordSummary> getTrashSummaries(RecordSummary after) {
+		return trashDataSource.getSummariesAfter(after, AppConstants.SORT_DATE);
+	}
+
 	@Override
 	public void restoreFromTrash(int id) {
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
-		}
 		insertRecord(trashDataSource.getItem(id));
 		trashDataSource.deleteItem(id);
 	}
 
 	@Override
 	public void removeFromTrash(int id) {
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
-		}
 		trashDataSource.deleteItem(id);
 	}
 
 	@Override
 	public boolean emptyTrash() {
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
-		}
 		try {
 			trashDataSource.deleteAll();
 			return true;
@@ -400,18 +421,40 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 	}
 
+	/** Records first, then the trash. Batches are short transactions, so other queues can write in between. */
 	@Override
-	public void removeOutdatedTrashRecords() {
-		if (!trashDataSource.isOpen()) {
-			trashDataSource.open();
+	public boolean convertWaveformsBatch() {
+		if (convertedRecordId != -1) {
+			convertedRecordId = dataSource.convertWaveforms(convertedRecordId, WAVEFORM_CONVERSION_BATCH);
+			return true;
+		}
+		if (convertedTrashId != -1) {
+			convertedTrashId = trashDataSource.convertWaveforms(convertedTrashId, WAVEFORM_CONVERSION_BATCH);
 		}
+		return convertedTrashId != -1;
+	}
+
+	/**
+	 * Files are deleted before their records, so a scan of the directory never finds the file of
+	 * a record that is gone. A record whose file can't be deleted stays, to try again next time.
+	 */
+	@Override
+	public void removeOutdatedTrashRecords() {
 		long curTime = new Date().getTime();
-		List<Record> list = trashDataSource.getAll();
-		for (int i = 0; i < list.size(); i++) {
-			if (list.get(i).getRemoved() + AppConstants.RECORD_IN_TRASH_MAX_DURATION < curTime) {
-				trashDataSource.deleteItem(list.get(i).getId());
+		List<RecordSummary> outdated = trashDataSource.getRemovedBefore(curTime - AppConstants.RECORD_IN_TRASH_MAX_DURATION);
+		List<Integer> ids = new ArrayList<>(outdated.size());
+		for (RecordSummary s : outdated) {
+			File file = new File(s.getPath());
+			if (!file.exists() || file.delete()) {
+				ids.add(s.getId());
+			} else {
+				Timber.e("Failed to delete %s", file);
 			}
 		}
+		if (!ids.isEmpty()) {
+			int n = trashDataSource.deleteItems(ids);
+			Timber.d("Deleted %d outdated records from trash", n);
+		}
 	}
 
 	private void checkForLostRecords(List<Record> list) {
@@ -426,6 +469,24 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 	}
 
+	/** @return the lost records of the list */
+	private List<RecordSummary> checkForLostSummaries(List<RecordSummary> list) {
+		List<RecordSummary> lost = new ArrayList<>();
+		List<Record> lostRecords = new ArrayList<>();
+		for (int i = 0; i < list.size(); i++) {
+			RecordSummary s = list.get(i);
+			if (!isFileExists(s.getPath())) {
+				lost.add(s);
+				lostRecords.add(new Record(s.getId(), s.getName(), s.getDuration(), s.getCreated(),
+						s.getAdded(), 0, s.getPath(), s.isBookmarked(), s.isWaveformProcessed(), new int[0]));
+			}
+		}
+		if (onLostRecordsListener != null && !lostRecords.isEmpty()) {
+			onLostRecordsListener.onLostRecords(lostRecords);
+		}
+		return lost;
+	}
+
 	@Override
 	public void setOnRecordsLostListener(OnRecordsLostListener onLostRecordsListener) {
 		this.onLostRecordsListener = onLostRecordsListener;
@@ -34,9 +34,10 @@ public class Record {
 	private String path;
 	private boolean bookmark;
 	private boolean waveformProcessed;
+	/** Waveform values, decoded from data when first asked for */
 	private int[] amps;
+	/** Waveform in the format of {@link WaveformCodec}, encoded from amps when first asked for */
 	private byte[] data;
-	//TODO: Remove not needed data clusters.
 
 	public Record(int id, String name, long duration, long created, long added, long removed, String path,
 					  boolean bookmark, boolean waveformProcessed, int[] amps) {
@@ -50,12 +51,13 @@ public class Record {
 		this.bookmark = bookmark;
 		this.waveformProcessed = waveformProcessed;
 		this.amps = amps;
-		this.data = int2byte(amps);
-//		this.data = AndroidUtils.int2byte(amps);
 	}
 
+	/**
+	 * @param data Waveform in the format of {@link WaveformCodec}, as stored in the database.
+	 */
 	public Record(int id, String name, long duration, long created, long added, long removed, String path,
-					  boolean bookmark, boolean waveformProcessed, byte[] amps) {
+					  boolean bookmark, boolean waveformProcessed, byte[] data) {
 		this.id = id;
 		this.name = name;
 		this.duration = duration;
@@ -65,26 +67,13 @@ public class Record {
 		this.path = path;
 		this.bookmark = bookmark;
 		this.waveformProcessed = waveformProcessed;
-		this.amps = byte2int(amps);
-//		this.amps = AndroidUtils.byte2int(amps);
-		this.data = amps;
+		this.data = data;
 	}
 
-	public byte[] int2byte(int[] amps) {
-		byte[] bytes = new byte[amps.length];
-		for (int i = 0; i < amps.length; i++) {
-			if (amps[i] >= 255) {
-				bytes[i] = 127;
-			} else if (amps[i] < 0) {
-				bytes[i] = 0;
-			} else {
-				bytes[i] = (byte)(amps[i]-128);
-			}
-		}
-		return bytes;
-	}
-
-	public int[] byte2int(byte[] amps) {
+	/**
+	 * Decode a waveform stored before {@link WaveformCodec}: one byte per value, offset by -128.
+	 */
+	public static int[] byte2int(byte[] amps) {
 		int[] ints = new int[amps.length];
 		for (int i = 0; i < amps.length; i++) {
 			ints[i] = amps[i]+128;
@@ -120,7 +109,10 @@ public class Record {
 		this.path = path;
 	}
 
-	public int[] getAmps() {
+	public synchronized int[] getAmps() {
+		if (amps == null) {
+			amps = data != null ? WaveformCodec.decode(data) : new int[0];
+		}
 		return amps;
 	}
 
@@ -128,7 +120,11 @@ public class Record {
 		return duration;
 	}
 
-	public byte[] getData() {
+	/** @return the waveform in the format of {@link WaveformCodec} */
+	public synchronized byte[] getData() {
+		if (data == null) {
+			data = WaveformCodec.encode(amps != null ? amps : new int[0]);
+		}
 		return data;
 	}
 
@@ -186,8 +182,7 @@ public class Record {
 				", path='" + path + '\'' +
 				", bookmark=" + bookmark + '\'' +
 				", waveformProcessed=" + waveformProcessed + '\'' +
-				", amps=" + Arrays.toString(amps) +
-				", data=" + Arrays.toString(data) +
+				", amps=" + Arrays.toString(getAmps()) +
 				'}';
 	}
 }
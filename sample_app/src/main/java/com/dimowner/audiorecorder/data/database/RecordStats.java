@@ -0,0 +1,57 @@
+package com.dimowner.audiorecorder.data.database;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Totals of the records of a period, or of all records. Read from the statistics table that the
+ * database keeps up to date, see {@link LocalRepository#getRecordStats()}.
+ */
+public class RecordStats {
+
+	private final long start;
+	private final int count;
+	private final long duration;
+	private final long size;
+
+	public RecordStats(long start, int count, long duration, long size) {
+		this.start = start;
+		this.count = count;
+		this.duration = duration;
+		this.size = size;
+	}
+
+	/** Start of the period in milliseconds, UTC days and months. 0 for all records. */
+	public long getStart() {
+		return start;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/** Total duration in milliseconds */
+	public long getDuration() {
+		return duration;
+	}
+
+	/** Average duration in milliseconds */
+	public long getAverageDuration() {
+		return count > 0 ? duration / count : 0;
+	}
+
+	/** Total size of the files in bytes */
+	public long getSize() {
+		return size;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "RecordStats{" +
+				"start=" + start +
+				", count=" + count +
+				", duration=" + duration +
+				", size=" + size +
+				'}';
+	}
+}
@@ -0,0 +1,82 @@
+package com.dimowner.audiorecorder.data.database;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A {@link Record} without its waveform. Lists are loaded as summaries, so the waveform BLOBs
+ * stay in the database until an item is shown, see {@link LocalRepository#getWaveform(int)}.
+ */
+public class RecordSummary {
+
+	private final int id;
+	private final String name;
+	private final long duration;
+	private final long created;
+	private final long added;
+	private final String path;
+	private boolean bookmark;
+	private final boolean waveformProcessed;
+
+	public RecordSummary(int id, String name, long duration, long created, long added, String path,
+								boolean bookmark, boolean waveformProcessed) {
+		this.id = id;
+		this.name = name;
+		this.duration = duration;
+		this.created = created;
+		this.added = added;
+		this.path = path;
+		this.bookmark = bookmark;
+		this.waveformProcessed = waveformProcessed;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getAdded() {
+		return added;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public boolean isBookmarked() {
+		return bookmark;
+	}
+
+	public void setBookmark(boolean b) {
+		this.bookmark = b;
+	}
+
+	public boolean isWaveformProcessed() {
+		return waveformProcessed;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "RecordSummary{" +
+				"id=" + id +
+				", name='" + name + '\'' +
+				", duration=" + duration +
+				", created=" + created +
+				", added=" + added +
+				", path='" + path + '\'' +
+				", bookmark=" + bookmark +
+				", waveformProcessed=" + waveformProcessed +
+				'}';
+	}
+}
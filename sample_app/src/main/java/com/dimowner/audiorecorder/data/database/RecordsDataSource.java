@@ -19,6 +19,16 @@ package com.dimowner.audiorecorder.data.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.dimowner.audiorecorder.AppConstants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 import timber.log.Timber;
 
@@ -57,9 +67,11 @@ public class RecordsDataSource extends DataSource<Record> {
 			values.put(SQLiteHelper.COLUMN_CREATION_DATE, item.getCreated());
 			values.put(SQLiteHelper.COLUMN_DATE_ADDED, item.getAdded());
 			values.put(SQLiteHelper.COLUMN_PATH, item.getPath());
+			values.put(SQLiteHelper.COLUMN_SIZE, item.getPath() != null ? new File(item.getPath()).length() : 0);
 			values.put(SQLiteHelper.COLUMN_BOOKMARK, item.isBookmarked() ? 1 : 0);
 			values.put(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED, item.isWaveformProcessed() ? 1 : 0);
-			values.put(SQLiteHelper.COLUMN_DATA, item.getData());
+			values.put(SQLiteHelper.COLUMN_WAVEFORM, item.getData());
+			values.put(SQLiteHelper.COLUMN_DATA, new byte[0]);
 			//TODO: Remove this field from database.
 			values.put(SQLiteHelper.COLUMN_DATA_STR, "");
 			return values;
@@ -69,6 +81,185 @@ public class RecordsDataSource extends DataSource<Record> {
 		}
 	}
 
+	@Override
+	protected Record insertedItem(Record item, int id) {
+		return new Record(id, item.getName(), item.getDuration(), item.getCreated(), item.getAdded(),
+				item.getRemoved(), item.getPath(), item.isBookmarked(), item.isWaveformProcessed(), item.getData());
+	}
+
+	/**
+	 * Move records to table {@link SQLiteHelper#TABLE_TRASH} in one transaction. Records are
+	 * copied by the database, their waveforms are not loaded.
+	 * @param ids Ids of the records to move.
+	 * @return Moved records count.
+	 */
+	public int moveToTrash(List<Integer> ids) {
+		SQLiteDatabase db = db();
+		String columns = SQLiteHelper.COLUMN_ID + ", "
+				+ SQLiteHelper.COLUMN_NAME + ", "
+				+ SQLiteHelper.COLUMN_DURATION + ", "
+				+ SQLiteHelper.COLUMN_CREATION_DATE + ", "
+				+ SQLiteHelper.COLUMN_DATE_ADDED + ", "
+				+ SQLiteHelper.COLUMN_PATH + ", "
+				+ SQLiteHelper.COLUMN_SIZE + ", "
+				+ SQLiteHelper.COLUMN_DATA + ", "
+				+ SQLiteHelper.COLUMN_BOOKMARK + ", "
+				+ SQLiteHelper.COLUMN_WAVEFORM_PROCESSED + ", "
+				+ SQLiteHelper.COLUMN_DATA_STR + ", "
+				+ SQLiteHelper.COLUMN_WAVEFORM;
+		SQLiteStatement copy = db.compileStatement("INSERT OR REPLACE INTO " + SQLiteHelper.TABLE_TRASH
+				+ " (" + columns + ", " + SQLiteHelper.COLUMN_DATE_REMOVED + ")"
+				+ " SELECT " + columns + ", ? FROM " + tableName + " WHERE " + SQLiteHelper.COLUMN_ID + " = ?");
+		SQLiteStatement delete = db.compileStatement("DELETE FROM " + tableName
+				+ " WHERE " + SQLiteHelper.COLUMN_ID + " = ?");
+		long removed = new Date().getTime();
+		int count = 0;
+		db.beginTransactionNonExclusive();
+		try {
+			for (int id : ids) {
+				copy.bindLong(1, removed);
+				copy.bindLong(2, id);
+				copy.executeInsert();
+				delete.bindLong(1, id);
+				count += delete.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			copy.close();
+			delete.close();
+			db.endTransaction();
+		}
+		Timber.d("Moved %d records to trash", count);
+		return count;
+	}
+
+	/**
+	 * Get a page of the records whose name has words that start with all words of the query.
+	 * Records whose name starts with the first word come first, then the other matches. Within
+	 * each group the newest records come first. Pages follow each other by record id, so every
+	 * page is read from the full-text index without sorting or skipping the matches before it.
+	 * @param query Words as typed, without any search syntax.
+	 * @param after Last record of the previous page, or null for the first page.
+	 * @return At most {@link AppConstants#DEFAULT_PER_PAGE} summaries.
+	 */
+	public ArrayList<RecordSummary> searchSummaries(String query, RecordSummary after) {
+		String[] words = searchWords(query);
+		if (words.length == 0) {
+			return new ArrayList<>();
+		}
+		StringBuilder all = new StringBuilder();
+		for (String word : words) {
+			all.append(all.length() > 0 ? " " : "").append(word).append('*');
+		}
+		//^ matches only the first word of a name.
+		String first = "^" + all;
+		String others = all.toString();
+		ArrayList<RecordSummary> page = new ArrayList<>();
+		boolean inFirst = after == null || matchesSearch(first, after.getId());
+		if (inFirst) {
+			page.addAll(searchPage(first, null, after != null ? after.getId() : Integer.MAX_VALUE,
+					AppConstants.DEFAULT_PER_PAGE));
+		}
+		if (page.size() < AppConstants.DEFAULT_PER_PAGE) {
+			//Android's SQLite has the standard query syntax without NOT, so the first group is excluded in SQL.
+			page.addAll(searchPage(others, "^" + words[0] + "*", inFirst ? Integer.MAX_VALUE : after.getId(),
+					AppConstants.DEFAULT_PER_PAGE - page.size()));
+		}
+		return page;
+	}
+
+	/**
+	 * Split a query into lower case words of letters and digits, so that quotes, operators like
+	 * OR and NEAR, and other full-text search syntax are searched as plain text.
+	 */
+	private static String[] searchWords(String query) {
+		List<String> words = new ArrayList<>();
+		StringBuilder word = new StringBuilder();
+		String text = query.toLowerCase(Locale.ROOT);
+		for (int i = 0; i <= text.length(); i++) {
+			if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+				word.append(text.charAt(i));
+			} else if (word.length() > 0) {
+				words.add(word.toString());
+				word.setLength(0);
+			}
+		}
+		return words.toArray(new String[0]);
+	}
+
+	/**
+	 * @param exclude Match of the records to leave out, or null.
+	 */
+	private ArrayList<RecordSummary> searchPage(String match, String exclude, int beforeId, int limit) {
+		String fts = SQLiteHelper.TABLE_RECORDS_FTS;
+		String excluded = exclude == null ? ""
+				: " AND docid NOT IN (SELECT docid FROM " + fts + " WHERE " + fts + " MATCH ?)";
+		return convertSummaryCursor(queryLocal("SELECT " + SUMMARY_COLUMNS + " FROM " + tableName
+				+ " WHERE " + SQLiteHelper.COLUMN_ID + " IN (SELECT docid FROM " + fts
+				+ " WHERE " + fts + " MATCH ?" + excluded + " AND docid < " + beforeId
+				+ " ORDER BY docid DESC LIMIT " + limit + ")"
+				+ " ORDER BY " + SQLiteHelper.COLUMN_ID + " DESC",
+				exclude == null ? new String[] {match} : new String[] {match, exclude}));
+	}
+
+	private boolean matchesSearch(String match, int id) {
+		Cursor cursor = db().rawQuery("SELECT docid FROM " + SQLiteHelper.TABLE_RECORDS_FTS
+				+ " WHERE " + SQLiteHelper.TABLE_RECORDS_FTS + " MATCH ? AND docid = " + id, new String[] {match});
+		try {
+			return cursor.moveToFirst();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Get count, duration and size of all records. Reads one row, however many records there are.
+	 */
+	public RecordStats getStats() {
+		List<RecordStats> stats = convertStatsCursor(db().rawQuery("SELECT 0, "
+				+ SQLiteHelper.COLUMN_COUNT + ", " + SQLiteHelper.COLUMN_DURATION + ", " + SQLiteHelper.COLUMN_SIZE
+				+ " FROM " + SQLiteHelper.TABLE_STATS
+				+ " WHERE " + SQLiteHelper.COLUMN_DAY + " = " + SQLiteHelper.STATS_ALL, null));
+		return stats.isEmpty() ? new RecordStats(0, 0, 0, 0) : stats.get(0);
+	}
+
+	/**
+	 * Get the statistics of every day with records, newest first. Days are UTC days.
+	 */
+	public List<RecordStats> getDailyStats() {
+		return convertStatsCursor(db().rawQuery("SELECT "
+				+ SQLiteHelper.COLUMN_DAY + " * 86400000, "
+				+ SQLiteHelper.COLUMN_COUNT + ", " + SQLiteHelper.COLUMN_DURATION + ", " + SQLiteHelper.COLUMN_SIZE
+				+ " FROM " + SQLiteHelper.TABLE_STATS
+				+ " WHERE " + SQLiteHelper.COLUMN_DAY + " <> " + SQLiteHelper.STATS_ALL
+				+ " ORDER BY " + SQLiteHelper.COLUMN_DAY + " DESC", null));
+	}
+
+	/**
+	 * Get the statistics of every month with records, newest first. Sums the rows of the days.
+	 */
+	public List<RecordStats> getMonthlyStats() {
+		return convertStatsCursor(db().rawQuery("SELECT "
+				+ "strftime('%s', " + SQLiteHelper.COLUMN_DAY + " * 86400, 'unixepoch', 'start of month') * 1000 AS month, "
+				+ "SUM(" + SQLiteHelper.COLUMN_COUNT + "), SUM(" + SQLiteHelper.COLUMN_DURATION + "), SUM(" + SQLiteHelper.COLUMN_SIZE + ")"
+				+ " FROM " + SQLiteHelper.TABLE_STATS
+				+ " WHERE " + SQLiteHelper.COLUMN_DAY + " <> " + SQLiteHelper.STATS_ALL
+				+ " GROUP BY month ORDER BY month DESC", null));
+	}
+
+	/** Columns: start, count, duration, size. */
+	private static List<RecordStats> convertStatsCursor(Cursor cursor) {
+		List<RecordStats> stats = new ArrayList<>(cursor.getCount());
+		try {
+			while (cursor.moveToNext()) {
+				stats.add(new RecordStats(cursor.getLong(0), cursor.getInt(1), cursor.getLong(2), cursor.getLong(3)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return stats;
+	}
+
 	@Override
 	public Record recordToItem(Cursor cursor) {
 		return new Record(
@@ -81,9 +272,7 @@ public class RecordsDataSource extends DataSource<Record> {
 				cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_PATH)),
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK)) != 0,
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED)) != 0,
-				cursor.getBlob(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA))
-//				Record.stringToArray(
-//						cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA_STR)))
+				waveformOf(cursor)
 		);
 	}
 }
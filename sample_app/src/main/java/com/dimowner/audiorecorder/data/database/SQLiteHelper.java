@@ -17,47 +17,216 @@
 package com.dimowner.audiorecorder.data.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import java.io.File;
+
 /**
  * SQLite database manager class.
  * @author Dimowner
  */
 public class SQLiteHelper extends SQLiteOpenHelper {
 
-	SQLiteHelper(Context context) {
-		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	private volatile static SQLiteHelper instance;
+
+	/** One helper for all tables, so they share the database and its connections. */
+	static SQLiteHelper getInstance(Context context) {
+		if (instance == null) {
+			synchronized (SQLiteHelper.class) {
+				if (instance == null) {
+					instance = new SQLiteHelper(context.getApplicationContext());
+				}
+			}
+		}
+		return instance;
+	}
+
+	private SQLiteHelper(Context context) {
+		this(context, DATABASE_NAME);
+	}
+
+	/** Helper of a database of another name, for tests. */
+	SQLiteHelper(Context context, String name) {
+		super(context, name, null, DATABASE_VERSION);
+		//With a write-ahead log, reads use pooled connections and do not wait for writes.
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(CREATE_RECORDS_TABLE_SCRIPT);
 		db.execSQL(CREATE_TRASH_TABLE_SCRIPT);
+		createIndexes(db);
+		createStats(db);
+		createSearch(db);
 	}
 
+	/**
+	 * Migrate step by step from the old version, so every version can be upgraded without
+	 * losing records. Each step runs once, in the transaction of the upgrade.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		Log.d(SQLiteHelper.class.getName(),
-				"Upgrading database from version " + oldVersion + " to "
-						+ newVersion + ", which will destroy all old data");
-		if (newVersion == 1) {
-			db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
-			db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRASH);
-			onCreate(db);
-		} else if (newVersion == 2) {
-			db.execSQL(CREATE_TRASH_TABLE_SCRIPT);
+				"Upgrading database from version " + oldVersion + " to " + newVersion);
+		for (int version = oldVersion + 1; version <= newVersion; version++) {
+			upgradeTo(db, version);
 		}
 	}
 
+	/**
+	 * Migrate a database of the previous version to a version. A step only builds on the schema
+	 * of the steps before it, so it never uses the create scripts of the current version.
+	 */
+	static void upgradeTo(SQLiteDatabase db, int version) {
+		switch (version) {
+			case 2:
+				//Version 2 added the trash.
+				db.execSQL(CREATE_TRASH_TABLE_V2_SCRIPT);
+				break;
+			case 3:
+				createIndexes(db);
+				break;
+			case 4:
+				//Version 4 added file sizes and the statistics of the records.
+				db.execSQL("ALTER TABLE " + TABLE_RECORDS + " ADD COLUMN " + COLUMN_SIZE + " LONG NOT NULL DEFAULT 0");
+				db.execSQL("ALTER TABLE " + TABLE_TRASH + " ADD COLUMN " + COLUMN_SIZE + " LONG NOT NULL DEFAULT 0");
+				updateSizes(db, TABLE_RECORDS);
+				updateSizes(db, TABLE_TRASH);
+				createStats(db);
+				break;
+			case 5:
+				createSearch(db);
+				break;
+			case 6:
+				//Version 6 stores waveforms in a compact format, rows are converted in the background.
+				db.execSQL("ALTER TABLE " + TABLE_RECORDS + " ADD COLUMN " + COLUMN_WAVEFORM + " BLOB");
+				db.execSQL("ALTER TABLE " + TABLE_TRASH + " ADD COLUMN " + COLUMN_WAVEFORM + " BLOB");
+				break;
+		}
+	}
+
+	/**
+	 * Indexes for every order of the records list, for bookmarks and for the trash.
+	 * An index on a column also orders by _id within equal values, as the list pages need.
+	 */
+	private static void createIndexes(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_ADDED
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_DATE_ADDED + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_NAME
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_NAME + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_DURATION
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_DURATION + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_BOOKMARK
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_BOOKMARK + ", " + COLUMN_CREATION_DATE + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_TRASH_ADDED
+				+ " ON " + TABLE_TRASH + " (" + COLUMN_DATE_ADDED + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_TRASH_REMOVED
+				+ " ON " + TABLE_TRASH + " (" + COLUMN_DATE_REMOVED + ")");
+	}
+
+	/** Store the sizes of the files of all records of the table, read once from the files. */
+	private static void updateSizes(SQLiteDatabase db, String table) {
+		Cursor c = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_PATH + " FROM " + table, null);
+		try {
+			while (c.moveToNext()) {
+				long size = new File(c.getString(1)).length();
+				if (size > 0) {
+					db.execSQL("UPDATE " + table + " SET " + COLUMN_SIZE + " = " + size
+							+ " WHERE " + COLUMN_ID + " = " + c.getInt(0));
+				}
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Create the statistics table, fill it from the records table and keep it up to date with
+	 * triggers. Every insert, delete or restore of a record adds to or subtracts from the row of
+	 * its day and the row {@link #STATS_ALL}, so no statistic needs to read the records.
+	 */
+	private static void createStats(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_STATS + " ("
+				+ COLUMN_DAY + " INTEGER PRIMARY KEY, "
+				+ COLUMN_COUNT + " INTEGER NOT NULL, "
+				+ COLUMN_DURATION + " LONG NOT NULL, "
+				+ COLUMN_SIZE + " LONG NOT NULL);");
+		db.execSQL("DELETE FROM " + TABLE_STATS);
+		db.execSQL("INSERT INTO " + TABLE_STATS + " SELECT " + STATS_ALL + ", COUNT(*), "
+				+ "IFNULL(SUM(" + COLUMN_DURATION + "), 0), IFNULL(SUM(" + COLUMN_SIZE + "), 0) FROM " + TABLE_RECORDS);
+		db.execSQL("INSERT INTO " + TABLE_STATS + " SELECT " + dayOf("") + " AS d, COUNT(*), "
+				+ "SUM(" + COLUMN_DURATION + "), SUM(" + COLUMN_SIZE + ") FROM " + TABLE_RECORDS + " GROUP BY d");
+		String add = "INSERT OR IGNORE INTO " + TABLE_STATS + " VALUES (" + dayOf("NEW.") + ", 0, 0, 0); "
+				+ "UPDATE " + TABLE_STATS + " SET "
+				+ COLUMN_COUNT + " = " + COLUMN_COUNT + " + 1, "
+				+ COLUMN_DURATION + " = " + COLUMN_DURATION + " + NEW." + COLUMN_DURATION + ", "
+				+ COLUMN_SIZE + " = " + COLUMN_SIZE + " + NEW." + COLUMN_SIZE
+				+ " WHERE " + COLUMN_DAY + " IN (" + STATS_ALL + ", " + dayOf("NEW.") + "); ";
+		String subtract = "UPDATE " + TABLE_STATS + " SET "
+				+ COLUMN_COUNT + " = " + COLUMN_COUNT + " - 1, "
+				+ COLUMN_DURATION + " = " + COLUMN_DURATION + " - OLD." + COLUMN_DURATION + ", "
+				+ COLUMN_SIZE + " = " + COLUMN_SIZE + " - OLD." + COLUMN_SIZE
+				+ " WHERE " + COLUMN_DAY + " IN (" + STATS_ALL + ", " + dayOf("OLD.") + "); "
+				+ "DELETE FROM " + TABLE_STATS + " WHERE " + COLUMN_DAY + " = " + dayOf("OLD.")
+				+ " AND " + COLUMN_DAY + " <> " + STATS_ALL + " AND " + COLUMN_COUNT + " = 0; ";
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_INSERT
+				+ " AFTER INSERT ON " + TABLE_RECORDS + " BEGIN " + add + "END");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_DELETE
+				+ " AFTER DELETE ON " + TABLE_RECORDS + " BEGIN " + subtract + "END");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_UPDATE
+				+ " AFTER UPDATE OF " + COLUMN_DURATION + ", " + COLUMN_CREATION_DATE + ", " + COLUMN_SIZE
+				+ " ON " + TABLE_RECORDS
+				+ " WHEN OLD." + COLUMN_DURATION + " <> NEW." + COLUMN_DURATION
+				+ " OR OLD." + COLUMN_CREATION_DATE + " <> NEW." + COLUMN_CREATION_DATE
+				+ " OR OLD." + COLUMN_SIZE + " <> NEW." + COLUMN_SIZE
+				+ " BEGIN " + subtract + add + "END");
+	}
+
+	/**
+	 * Create the full-text index of the record names and keep it in sync with triggers. The index
+	 * has no copy of the names, it reads them from the records table by docid, which is the
+	 * record id. The unicode61 tokenizer folds case and diacritics of all scripts, not only ASCII.
+	 */
+	private static void createSearch(SQLiteDatabase db) {
+		db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_RECORDS_FTS + " USING fts4("
+				+ "content=\"" + TABLE_RECORDS + "\", " + COLUMN_NAME + ", tokenize=unicode61)");
+		db.execSQL("INSERT INTO " + TABLE_RECORDS_FTS + " (" + TABLE_RECORDS_FTS + ") VALUES ('rebuild')");
+		String remove = "DELETE FROM " + TABLE_RECORDS_FTS + " WHERE docid = OLD." + COLUMN_ID + "; ";
+		String add = "INSERT INTO " + TABLE_RECORDS_FTS + " (docid, " + COLUMN_NAME + ")"
+				+ " VALUES (NEW." + COLUMN_ID + ", NEW." + COLUMN_NAME + "); ";
+		String renamed = " WHEN OLD." + COLUMN_NAME + " <> NEW." + COLUMN_NAME;
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_INSERT
+				+ " AFTER INSERT ON " + TABLE_RECORDS + " BEGIN " + add + "END");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_DELETE
+				+ " BEFORE DELETE ON " + TABLE_RECORDS + " BEGIN " + remove + "END");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_BEFORE_UPDATE
+				+ " BEFORE UPDATE OF " + COLUMN_NAME + " ON " + TABLE_RECORDS + renamed + " BEGIN " + remove + "END");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_AFTER_UPDATE
+				+ " AFTER UPDATE OF " + COLUMN_NAME + " ON " + TABLE_RECORDS + renamed + " BEGIN " + add + "END");
+	}
+
+	/**
+	 * Day of the row of a record in table Stats.
+	 * @param row Prefix of the record columns, like "NEW." in a trigger.
+	 */
+	static String dayOf(String row) {
+		return "(" + row + COLUMN_CREATION_DATE + " / 86400000)";
+	}
+
 
 	private static final String DATABASE_NAME = "records.db";
-	private static final int DATABASE_VERSION = 2;
+	static final int DATABASE_VERSION = 6;
 
 	//Tables names
 	static final String TABLE_RECORDS = "records";
 	static final String TABLE_TRASH = "trash";
+	static final String TABLE_STATS = "record_stats";
+	/** Full-text index of the names in table Records. */
+	static final String TABLE_RECORDS_FTS = "records_fts";
 
 	//Fields for table Records
 	static final String COLUMN_ID = "_id";
@@ -67,11 +236,43 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 	static final String COLUMN_DATE_ADDED = "added";
 	static final String COLUMN_DATE_REMOVED = "removed";
 	static final String COLUMN_PATH = "path";
-	/** Simplified array of audio record amplitudes that represents waveform. */
+	/**
+	 * Waveform of rows before version 6, one byte per value. Empty once the waveform is in
+	 * {@link #COLUMN_WAVEFORM}.
+	 */
 	static final String COLUMN_DATA = "data";
+	/** Not used, always empty. */
 	static final String COLUMN_DATA_STR = "data_str";
+	/** Simplified array of audio record amplitudes that represents waveform, see {@link WaveformCodec}. */
+	static final String COLUMN_WAVEFORM = "waveform";
 	static final String COLUMN_WAVEFORM_PROCESSED = "waveform_processed";
 	static final String COLUMN_BOOKMARK = "bookmark";
+	/** Size of the record file in bytes. */
+	static final String COLUMN_SIZE = "size";
+
+	//Fields for table Stats
+	/** Day of the records of a row, as days since 1970 in UTC, or {@link #STATS_ALL}. */
+	static final String COLUMN_DAY = "day";
+	static final String COLUMN_COUNT = "count";
+	/** Day of the row of the statistics of all records. */
+	static final int STATS_ALL = -1;
+
+	//Indexes
+	static final String INDEX_RECORDS_ADDED = "records_added";
+	static final String INDEX_RECORDS_NAME = "records_name";
+	static final String INDEX_RECORDS_DURATION = "records_duration";
+	static final String INDEX_RECORDS_BOOKMARK = "records_bookmark_created";
+	static final String INDEX_TRASH_ADDED = "trash_added";
+	static final String INDEX_TRASH_REMOVED = "trash_removed";
+
+	//Triggers
+	private static final String TRIGGER_STATS_INSERT = "record_stats_insert";
+	private static final String TRIGGER_STATS_DELETE = "record_stats_delete";
+	private static final String TRIGGER_STATS_UPDATE = "record_stats_update";
+	private static final String TRIGGER_FTS_INSERT = "records_fts_insert";
+	private static final String TRIGGER_FTS_DELETE = "records_fts_delete";
+	private static final String TRIGGER_FTS_BEFORE_UPDATE = "records_fts_before_update";
+	private static final String TRIGGER_FTS_AFTER_UPDATE = "records_fts_after_update";
 
 	//Create records table sql statement
 	private static final String CREATE_RECORDS_TABLE_SCRIPT =
@@ -84,11 +285,30 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 					+ COLUMN_PATH + " TEXT NOT NULL, "
 					+ COLUMN_DATA + " BLOB NOT NULL, "
 					+ COLUMN_BOOKMARK + " INTEGER NOT NULL DEFAULT 0, "
+					+ COLUMN_SIZE + " LONG NOT NULL DEFAULT 0, "
 					+ COLUMN_WAVEFORM_PROCESSED + " INTEGER NOT NULL DEFAULT 0, "
-					+ COLUMN_DATA_STR + " BLOB NOT NULL);";
+					+ COLUMN_DATA_STR + " BLOB NOT NULL, "
+					+ COLUMN_WAVEFORM + " BLOB);";
 
 	//Create trash table sql statement
 	private static final String CREATE_TRASH_TABLE_SCRIPT =
+			"CREATE TABLE " + TABLE_TRASH + " ("
+					+ COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+					+ COLUMN_NAME + " TEXT NOT NULL, "
+					+ COLUMN_DURATION + " LONG NOT NULL, "
+					+ COLUMN_CREATION_DATE + " LONG NOT NULL, "
+					+ COLUMN_DATE_ADDED + " LONG NOT NULL, "
+					+ COLUMN_DATE_REMOVED + " LONG NOT NULL, "
+					+ COLUMN_PATH + " TEXT NOT NULL, "
+					+ COLUMN_DATA + " BLOB NOT NULL, "
+					+ COLUMN_BOOKMARK + " INTEGER NOT NULL DEFAULT 0, "
+					+ COLUMN_SIZE + " LONG NOT NULL DEFAULT 0, "
+					+ COLUMN_WAVEFORM_PROCESSED + " INTEGER NOT NULL DEFAULT 0, "
+					+ COLUMN_DATA_STR + " BLOB NOT NULL, "
+					+ COLUMN_WAVEFORM + " BLOB);";
+
+	/** Trash table as version 2 created it, for the upgrade of version 1. */
+	private static final String CREATE_TRASH_TABLE_V2_SCRIPT =
 			"CREATE TABLE " + TABLE_TRASH + " ("
 					+ COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
 					+ COLUMN_NAME + " TEXT NOT NULL, "
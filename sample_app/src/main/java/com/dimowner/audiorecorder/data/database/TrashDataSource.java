@@ -20,6 +20,8 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
 
 import timber.log.Timber;
@@ -47,6 +49,14 @@ public class TrashDataSource extends DataSource<Record> {
 		super(context, SQLiteHelper.TABLE_TRASH);
 	}
 
+	/**
+	 * Get records that were moved to the trash before the time.
+	 * @return Summaries of the records, oldest first.
+	 */
+	public ArrayList<RecordSummary> getRemovedBefore(long time) {
+		return getSummaries(SQLiteHelper.COLUMN_DATE_REMOVED + " < " + time, SQLiteHelper.COLUMN_DATE_REMOVED);
+	}
+
 	@Override
 	public ContentValues itemToContentValues(Record item) {
 		if (item.getName() != null) {
@@ -60,9 +70,11 @@ public class TrashDataSource extends DataSource<Record> {
 			values.put(SQLiteHelper.COLUMN_DATE_ADDED, item.getAdded());
 			values.put(SQLiteHelper.COLUMN_DATE_REMOVED, new Date().getTime());
 			values.put(SQLiteHelper.COLUMN_PATH, item.getPath());
+			values.put(SQLiteHelper.COLUMN_SIZE, item.getPath() != null ? new File(item.getPath()).length() : 0);
 			values.put(SQLiteHelper.COLUMN_BOOKMARK, item.isBookmarked() ? 1 : 0);
 			values.put(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED, item.isWaveformProcessed() ? 1 : 0);
-			values.put(SQLiteHelper.COLUMN_DATA, item.getData());
+			values.put(SQLiteHelper.COLUMN_WAVEFORM, item.getData());
+			values.put(SQLiteHelper.COLUMN_DATA, new byte[0]);
 			//TODO: Remove this field from database.
 			values.put(SQLiteHelper.COLUMN_DATA_STR, "");
 			return values;
@@ -84,9 +96,7 @@ public class TrashDataSource extends DataSource<Record> {
 				cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_PATH)),
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK)) != 0,
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED)) != 0,
-				cursor.getBlob(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA))
-//				Record.stringToArray(
-//						cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA_STR)))
+				waveformOf(cursor)
 		);
 	}
 }
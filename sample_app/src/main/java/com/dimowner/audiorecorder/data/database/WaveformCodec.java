@@ -0,0 +1,111 @@
+package com.dimowner.audiorecorder.data.database;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import timber.log.Timber;
+
+/**
+ * Storage format of waveforms, the column {@link SQLiteHelper#COLUMN_WAVEFORM}.
+ *
+ * Version 1: a header of the version, the bits per value and the number of values as a varint,
+ * followed by the differences of consecutive values, one byte each, deflated. Values are 0..255,
+ * as both the recorder and {@link com.ninovanhooff.phonograph.audio.SoundFile} produce them.
+ * Neighbouring values of a waveform are close, so their differences compress to about two
+ * thirds of a byte per value.
+ */
+public final class WaveformCodec {
+
+	static final int VERSION = 1;
+	private static final int BITS = 8;
+	private static final int MAX_VALUE = (1 << BITS) - 1;
+
+	private WaveformCodec() {
+	}
+
+	public static byte[] encode(int[] amps) {
+		byte[] deltas = new byte[amps.length];
+		int previous = 0;
+		for (int i = 0; i < amps.length; i++) {
+			int value = Math.max(0, Math.min(MAX_VALUE, amps[i]));
+			deltas[i] = (byte) (value - previous);
+			previous = value;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(amps.length / 2 + 16);
+		out.write(VERSION);
+		out.write(BITS);
+		writeVarint(out, amps.length);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(deltas);
+			deflater.finish();
+			byte[] buffer = new byte[1024];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.end();
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the values, or an empty array when the data is not a waveform of a known version */
+	public static int[] decode(byte[] data) {
+		if (data == null || data.length < 3 || data[0] != VERSION || data[1] != BITS) {
+			Timber.e("Unknown waveform format");
+			return new int[0];
+		}
+		int[] position = {2};
+		int count = readVarint(data, position);
+		byte[] deltas = new byte[count];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, position[0], data.length - position[0]);
+			int read = 0;
+			while (read < count && !inflater.finished()) {
+				int n = inflater.inflate(deltas, read, count - read);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				read += n;
+			}
+			if (read < count) {
+				Timber.e("Waveform is %d of %d values long", read, count);
+			}
+		} catch (DataFormatException e) {
+			Timber.e(e);
+			return new int[0];
+		} finally {
+			inflater.end();
+		}
+		int[] amps = new int[count];
+		int value = 0;
+		for (int i = 0; i < count; i++) {
+			value = (value + deltas[i]) & MAX_VALUE;
+			amps[i] = value;
+		}
+		return amps;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(byte[] data, int[] position) {
+		int value = 0;
+		for (int shift = 0; shift < 32 && position[0] < data.length; shift += 7) {
+			byte b = data[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		return value;
+	}
+}
@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.drawable.ColorDrawable;
@@ -33,6 +34,7 @@ import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.OpenableColumns;
 import android.text.SpannableStringBuilder;
 import android.text.style.ImageSpan;
 import android.view.Display;
@@ -232,14 +234,35 @@ public class AndroidUtils {
 		return size.y;
 	}
 
+	/**
+	 * Read the display name of a content Uri.
+	 * @return File name with extension or null when the Uri has no name.
+	 */
+	public static String extractFileName(Context context, Uri uri) {
+		Cursor cursor = context.getContentResolver().query(uri, null, null, null, null, null);
+		try {
+			if (cursor != null && cursor.moveToFirst()) {
+				String name = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+//				TODO: find a better way to extract file extension.
+				if (!name.contains(".")) {
+					return name + ".m4a";
+				}
+				return name;
+			}
+		} finally {
+			cursor.close();
+		}
+		return null;
+	}
+
 	/**
 	 * Read sound file duration.
 	 * @param file Sound file
 	 * @return Duration in microseconds.
 	 */
 	public static long readRecordDuration(File file) {
+		MediaExtractor extractor = new MediaExtractor();
 		try {
-			MediaExtractor extractor = new MediaExtractor();
 			MediaFormat format = null;
 			int i;
 
@@ -262,6 +285,8 @@ public class AndroidUtils {
 			}
 		} catch (IOException e) {
 			Timber.e(e);
+		} finally {
+			extractor.release();
 		}
 		return -1;
 	}